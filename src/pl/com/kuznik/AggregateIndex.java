@@ -0,0 +1,208 @@
+package pl.com.kuznik;
+
+import com.vaadin.data.Container;
+import com.vaadin.data.Property;
+
+/**
+ * Running aggregates of numeric property of all rows of container. Values
+ * are read once into primitive array, then count and sum are updated in
+ * constant time from changes of single cells and from rows inserted or
+ * removed one by one. Minimum and maximum are updated as well unless
+ * removed value was the extreme; then they are found again in array, never
+ * in container. Changes which cannot be applied need invalidate(), container
+ * is read again on next query.
+ * @author Krzysztof Kuźnik <kmkuznik at gmail.com>
+ */
+class AggregateIndex {
+
+    private final Container.Indexed container;
+    private final Object propertyId;
+    // value of every row, NaN for null and non-numeric values; null when
+    // values have to be read again
+    private double[] values;
+    private int size;
+    private int count;
+    private double sum;
+    private double min;
+    private double max;
+    private boolean extremesValid;
+
+    /**
+     * Creates aggregates of property, values are read on first query
+     * @param container indexed container
+     * @param propertyId id of aggregated property
+     */
+    AggregateIndex(Container.Indexed container, Object propertyId) {
+        this.container = container;
+        this.propertyId = propertyId;
+    }
+
+    /**
+     * Forgets values, container is read again on next query
+     */
+    void invalidate() {
+        values = null;
+    }
+
+    /**
+     * @return aggregates of all rows
+     */
+    ColumnAggregate getTotal() {
+        readValues();
+        if (!extremesValid) {
+            findExtremes();
+        }
+        return new ColumnAggregate(count, sum, count == 0 ? Double.NaN : min, count == 0 ? Double.NaN : max);
+    }
+
+    /**
+     * @param rows indexes of rows in container
+     * @return aggregates of given rows
+     */
+    ColumnAggregate getAggregate(int[] rows) {
+        readValues();
+        int rowsCount = 0;
+        double rowsSum = 0;
+        double rowsMin = Double.NaN;
+        double rowsMax = Double.NaN;
+        for (int row : rows) {
+            double value = row >= 0 && row < size ? values[row] : Double.NaN;
+            if (!Double.isNaN(value)) {
+                rowsMin = rowsCount == 0 ? value : Math.min(rowsMin, value);
+                rowsMax = rowsCount == 0 ? value : Math.max(rowsMax, value);
+                ++rowsCount;
+                rowsSum += value;
+            }
+        }
+        return new ColumnAggregate(rowsCount, rowsSum, rowsMin, rowsMax);
+    }
+
+    /**
+     * Applies new value of cell
+     * @param row index of changed row
+     * @param itemId id of changed row
+     */
+    void cellChanged(int row, Object itemId) {
+        if (values == null) {
+            return;
+        }
+        if (row < 0 || row >= size) {
+            invalidate();
+            return;
+        }
+        double value = readValue(itemId);
+        remove(values[row]);
+        values[row] = value;
+        add(value);
+    }
+
+    /**
+     * Applies insertion of single row
+     * @param row index of inserted row
+     * @param itemId id of inserted row
+     */
+    void rowAdded(int row, Object itemId) {
+        if (values == null) {
+            return;
+        }
+        if (row < 0 || row > size) {
+            invalidate();
+            return;
+        }
+        if (size == values.length) {
+            double[] newValues = new double[Math.max(16, 2 * size)];
+            System.arraycopy(values, 0, newValues, 0, size);
+            values = newValues;
+        }
+        System.arraycopy(values, row, values, row + 1, size - row);
+        ++size;
+        values[row] = readValue(itemId);
+        add(values[row]);
+    }
+
+    /**
+     * Applies removal of single row
+     * @param row index removed row had
+     */
+    void rowRemoved(int row) {
+        if (values == null) {
+            return;
+        }
+        if (row < 0 || row >= size) {
+            invalidate();
+            return;
+        }
+        double value = values[row];
+        System.arraycopy(values, row + 1, values, row, size - row - 1);
+        --size;
+        remove(value);
+    }
+
+    private void add(double value) {
+        if (Double.isNaN(value)) {
+            return;
+        }
+        if (count == 0) {
+            min = value;
+            max = value;
+        } else {
+            min = Math.min(min, value);
+            max = Math.max(max, value);
+        }
+        ++count;
+        sum += value;
+    }
+
+    private void remove(double value) {
+        if (Double.isNaN(value)) {
+            return;
+        }
+        --count;
+        sum -= value;
+        if (count == 0) {
+            // no rounding errors left behind
+            sum = 0;
+        }
+        if (value <= min || value >= max) {
+            // extreme is found again when it is needed
+            extremesValid = false;
+        }
+    }
+
+    private void findExtremes() {
+        boolean first = true;
+        for (int i = 0; i < size; ++i) {
+            double value = values[i];
+            if (Double.isNaN(value)) {
+                continue;
+            }
+            min = first ? value : Math.min(min, value);
+            max = first ? value : Math.max(max, value);
+            first = false;
+        }
+        extremesValid = true;
+    }
+
+    private void readValues() {
+        if (values != null) {
+            return;
+        }
+        size = container.size();
+        values = new double[Math.max(16, size)];
+        count = 0;
+        sum = 0;
+        int index = 0;
+        for (Object itemId : container.getItemIds()) {
+            values[index] = readValue(itemId);
+            add(values[index]);
+            ++index;
+        }
+        extremesValid = true;
+    }
+
+    private double readValue(Object itemId) {
+        Property property = container.getContainerProperty(itemId, propertyId);
+        Object value = property == null ? null : property.getValue();
+        return value instanceof Number ? ((Number) value).doubleValue() : Double.NaN;
+    }
+}
@@ -0,0 +1,91 @@
+package pl.com.kuznik;
+
+import com.vaadin.data.Container;
+import java.io.Serializable;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.EventObject;
+
+/**
+ * Interface implemented by containers which are able to report changes of
+ * single cells together with item id and property id of changed cell.
+ * PageContainerProvider uses it to propagate changes without guessing where
+ * changed Property comes from.
+ * @author Krzysztof Kuźnik <kmkuznik at gmail.com>
+ */
+public interface CellChangeNotifier extends Serializable {
+
+    /**
+     * Registers listener notified about every cell change in container
+     * @param listener listener to be added
+     */
+    public void addListener(CellChangeListener listener);
+
+    /**
+     * Removes previously registered listener
+     * @param listener listener to be removed
+     */
+    public void removeListener(CellChangeListener listener);
+
+    /**
+     * Listener interface for cell changes
+     */
+    public interface CellChangeListener extends Serializable {
+
+        public void cellChange(CellChangeEvent event);
+    }
+
+    /**
+     * Event describing change of value stored in one cell of container or in
+     * several cells of one row changed together
+     */
+    public class CellChangeEvent extends EventObject {
+
+        private final Object itemId;
+        private final Collection<?> propertyIds;
+
+        /**
+         * Creates new event
+         * @param container container in which cell was changed
+         * @param itemId id of item containing changed cell
+         * @param propertyId id of changed property
+         */
+        public CellChangeEvent(Container container, Object itemId, Object propertyId) {
+            this(container, itemId, Collections.singleton(propertyId));
+        }
+
+        /**
+         * Creates new event describing several cells of one row
+         * @param container container in which cells were changed
+         * @param itemId id of item containing changed cells
+         * @param propertyIds ids of changed properties
+         */
+        public CellChangeEvent(Container container, Object itemId, Collection<?> propertyIds) {
+            super(container);
+            this.itemId = itemId;
+            this.propertyIds = propertyIds;
+        }
+
+        public Container getContainer() {
+            return (Container) getSource();
+        }
+
+        public Object getItemId() {
+            return itemId;
+        }
+
+        /**
+         * @return id of changed property or null if several cells changed
+         */
+        public Object getPropertyId() {
+            return propertyIds.size() == 1 ? propertyIds.iterator().next() : null;
+        }
+
+        /**
+         * @return ids of all changed properties
+         */
+        public Collection<?> getPropertyIds() {
+            return propertyIds;
+        }
+    }
+}
@@ -0,0 +1,82 @@
+package pl.com.kuznik;
+
+import java.io.Serializable;
+
+/**
+ * Aggregates of numeric values of one column: count, sum, average, minimum
+ * and maximum. Null and non-numeric values are not counted.
+ * @author Krzysztof Kuźnik <kmkuznik at gmail.com>
+ */
+public class ColumnAggregate implements Serializable {
+
+    private final int count;
+    private final double sum;
+    private final double min;
+    private final double max;
+
+    ColumnAggregate(int count, double sum, double min, double max) {
+        this.count = count;
+        this.sum = sum;
+        this.min = min;
+        this.max = max;
+    }
+
+    /**
+     * @return number of numeric values
+     */
+    public int getCount() {
+        return count;
+    }
+
+    public double getSum() {
+        return sum;
+    }
+
+    /**
+     * @return average of values or NaN if there are no values
+     */
+    public double getAverage() {
+        return count == 0 ? Double.NaN : sum / count;
+    }
+
+    /**
+     * @return smallest value or NaN if there are no values
+     */
+    public double getMin() {
+        return min;
+    }
+
+    /**
+     * @return greatest value or NaN if there are no values
+     */
+    public double getMax() {
+        return max;
+    }
+
+    /**
+     * @param function aggregate function
+     * @return value of given aggregate
+     */
+    public double get(Function function) {
+        switch (function) {
+            case COUNT:
+                return count;
+            case SUM:
+                return sum;
+            case AVERAGE:
+                return getAverage();
+            case MIN:
+                return min;
+            default:
+                return max;
+        }
+    }
+
+    /**
+     * Aggregate functions which can be shown in footer of RichTable
+     */
+    public enum Function {
+
+        COUNT, SUM, AVERAGE, MIN, MAX
+    }
+}
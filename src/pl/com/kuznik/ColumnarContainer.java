@@ -0,0 +1,811 @@
+package pl.com.kuznik;
+
+import com.vaadin.data.Container;
+import com.vaadin.data.Item;
+import com.vaadin.data.Property;
+import java.io.Serializable;
+import java.lang.reflect.Array;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Container.Indexed storing values column by column in arrays. Integer, Long
+ * and Double properties (and their primitive types) are kept in primitive
+ * arrays, String properties are dictionary encoded (every distinct string is
+ * stored once and cells keep its int code), other properties are kept in
+ * Object arrays. Items and properties are lightweight views created on
+ * demand, so memory used by container is close to size of raw data.
+ * <p>
+ * Appending rows is cheap; inserting or removing rows in the middle moves
+ * all following values. Single row changes are reported with RowChangeEvent.
+ * Dictionaries of String columns are never shrunk.
+ * @author Krzysztof Kuźnik <kmkuznik at gmail.com>
+ */
+public class ColumnarContainer implements Container.Indexed, Container.Sortable,
+        Container.ItemSetChangeNotifier, Container.PropertySetChangeNotifier,
+        Property.ValueChangeNotifier, CellChangeNotifier {
+
+    private static final int INITIAL_CAPACITY = 16;
+    private final LinkedHashMap<Object, Column> columns = new LinkedHashMap<Object, Column>();
+    private Object[] ids = new Object[INITIAL_CAPACITY];
+    private int size = 0;
+    // index of every item id, rebuilt lazily after rows are moved
+    private HashMap<Object, Integer> indexes = new HashMap<Object, Integer>();
+    private int nextGeneratedId = 0;
+    private Set<Container.ItemSetChangeListener> itemSetChangeListeners;
+    private Set<Container.PropertySetChangeListener> propertySetChangeListeners;
+    private Set<Property.ValueChangeListener> valueChangeListeners;
+    private Set<CellChangeNotifier.CellChangeListener> cellChangeListeners;
+
+    // <editor-fold defaultstate="collapsed" desc="Rows">
+    private HashMap<Object, Integer> getIndexes() {
+        if (indexes == null) {
+            HashMap<Object, Integer> result = new HashMap<Object, Integer>(size * 4 / 3 + 1);
+            for (int i = 0; i < size; ++i) {
+                result.put(ids[i], i);
+            }
+            indexes = result;
+        }
+        return indexes;
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity > ids.length) {
+            capacity = Math.max(capacity, ids.length * 2);
+            Object[] newIds = new Object[capacity];
+            System.arraycopy(ids, 0, newIds, 0, size);
+            ids = newIds;
+            for (Column column : columns.values()) {
+                column.resize(capacity);
+            }
+        }
+    }
+
+    private void insertRow(int row, Object itemId) {
+        ensureCapacity(size + 1);
+        if (row < size) {
+            System.arraycopy(ids, row, ids, row + 1, size - row);
+            for (Column column : columns.values()) {
+                column.move(row, row + 1, size - row);
+            }
+            indexes = null;
+        } else if (indexes != null) {
+            indexes.put(itemId, row);
+        }
+        ids[row] = itemId;
+        for (Column column : columns.values()) {
+            column.set(row, column.defaultValue);
+        }
+        ++size;
+    }
+
+    private void removeRow(int row) {
+        if (row < size - 1) {
+            System.arraycopy(ids, row + 1, ids, row, size - row - 1);
+            for (Column column : columns.values()) {
+                column.move(row + 1, row, size - row - 1);
+            }
+            indexes = null;
+        } else if (indexes != null) {
+            indexes.remove(ids[row]);
+        }
+        --size;
+        ids[size] = null;
+        for (Column column : columns.values()) {
+            column.set(size, null);
+        }
+    }
+
+    private Object generateId() {
+        Object itemId;
+        do {
+            itemId = nextGeneratedId++;
+        } while (containsId(itemId));
+        return itemId;
+    }
+
+    private Object addRow(int row, Object newItemId) {
+        if (newItemId == null || containsId(newItemId) || row < 0 || row > size) {
+            return null;
+        }
+        insertRow(row, newItemId);
+        fireItemSetChange(new RowChangeEvent(this, row, true));
+        return newItemId;
+    }
+    // </editor-fold>
+
+    // <editor-fold defaultstate="collapsed" desc="Container">
+    public Item getItem(Object itemId) {
+        return containsId(itemId) ? new ColumnarItem(itemId) : null;
+    }
+
+    public Collection<?> getContainerPropertyIds() {
+        return Collections.unmodifiableSet(columns.keySet());
+    }
+
+    public Collection<?> getItemIds() {
+        return new AbstractList<Object>() {
+
+            @Override
+            public Object get(int index) {
+                return getIdByIndex(index);
+            }
+
+            @Override
+            public int size() {
+                return ColumnarContainer.this.size();
+            }
+        };
+    }
+
+    public Property getContainerProperty(Object itemId, Object propertyId) {
+        return columns.containsKey(propertyId) && containsId(itemId)
+                ? new CellProperty(itemId, propertyId) : null;
+    }
+
+    /**
+     * Sets values of several cells of one row at once. All values are
+     * converted before any cell is changed and cell change listeners get
+     * single event covering all changed cells.
+     * @param itemId id of changed row
+     * @param values new values by property id, unknown properties are skipped
+     * @return false if there is no row with given id
+     */
+    public boolean setValues(Object itemId, Map<?, ?> values) {
+        int row = indexOfId(itemId);
+        if (row < 0) {
+            return false;
+        }
+        List<Object> propertyIds = new ArrayList<Object>(values.size());
+        List<Object> converted = new ArrayList<Object>(values.size());
+        for (Map.Entry<?, ?> entry : values.entrySet()) {
+            Column column = columns.get(entry.getKey());
+            if (column != null) {
+                propertyIds.add(entry.getKey());
+                converted.add(column.convert(entry.getValue()));
+            }
+        }
+        for (int i = 0; i < propertyIds.size(); ++i) {
+            columns.get(propertyIds.get(i)).set(row, converted.get(i));
+        }
+        if (!propertyIds.isEmpty()) {
+            fireCellChange(itemId, propertyIds);
+        }
+        return true;
+    }
+
+    public Class<?> getType(Object propertyId) {
+        Column column = columns.get(propertyId);
+        return column == null ? null : column.type;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean containsId(Object itemId) {
+        return itemId != null && getIndexes().containsKey(itemId);
+    }
+
+    public Item addItem(Object itemId) {
+        return addRow(size, itemId) == null ? null : new ColumnarItem(itemId);
+    }
+
+    public Object addItem() {
+        return addRow(size, generateId());
+    }
+
+    public boolean removeItem(Object itemId) {
+        int row = indexOfId(itemId);
+        if (row < 0) {
+            return false;
+        }
+        removeRow(row);
+        fireItemSetChange(new RowChangeEvent(this, row, false));
+        return true;
+    }
+
+    /**
+     * Adds new column. Integer, Long, Double and String types (and int, long,
+     * double) are stored in compact form.
+     * @param propertyId id of new property
+     * @param type type of values
+     * @param defaultValue value set in existing and new rows
+     * @return true if property was added, false if it already exists
+     */
+    public boolean addContainerProperty(Object propertyId, Class<?> type, Object defaultValue) {
+        if (propertyId == null || type == null || columns.containsKey(propertyId)) {
+            return false;
+        }
+        Column column = createColumn(type, ids.length);
+        column.defaultValue = column.convert(defaultValue);
+        for (int i = 0; i < size; ++i) {
+            column.set(i, column.defaultValue);
+        }
+        columns.put(propertyId, column);
+        firePropertySetChange();
+        return true;
+    }
+
+    public boolean removeContainerProperty(Object propertyId) {
+        if (columns.remove(propertyId) == null) {
+            return false;
+        }
+        firePropertySetChange();
+        return true;
+    }
+
+    public boolean removeAllItems() {
+        ids = new Object[INITIAL_CAPACITY];
+        size = 0;
+        indexes = new HashMap<Object, Integer>();
+        for (Object propertyId : columns.keySet().toArray()) {
+            Column column = columns.get(propertyId);
+            Column empty = createColumn(column.type, INITIAL_CAPACITY);
+            empty.defaultValue = column.defaultValue;
+            columns.put(propertyId, empty);
+        }
+        fireItemSetChange();
+        return true;
+    }
+    // </editor-fold>
+
+    // <editor-fold defaultstate="collapsed" desc="Container.Indexed">
+    public int indexOfId(Object itemId) {
+        Integer index = itemId == null ? null : getIndexes().get(itemId);
+        return index == null ? -1 : index;
+    }
+
+    public Object getIdByIndex(int index) {
+        return index < 0 || index >= size ? null : ids[index];
+    }
+
+    public Object addItemAt(int index) {
+        return addRow(index, generateId());
+    }
+
+    public Item addItemAt(int index, Object newItemId) {
+        return addRow(index, newItemId) == null ? null : new ColumnarItem(newItemId);
+    }
+
+    public Object nextItemId(Object itemId) {
+        int index = indexOfId(itemId);
+        return index < 0 ? null : getIdByIndex(index + 1);
+    }
+
+    public Object prevItemId(Object itemId) {
+        int index = indexOfId(itemId);
+        return index <= 0 ? null : getIdByIndex(index - 1);
+    }
+
+    public Object firstItemId() {
+        return getIdByIndex(0);
+    }
+
+    public Object lastItemId() {
+        return getIdByIndex(size - 1);
+    }
+
+    public boolean isFirstId(Object itemId) {
+        return size > 0 && ids[0].equals(itemId);
+    }
+
+    public boolean isLastId(Object itemId) {
+        return size > 0 && ids[size - 1].equals(itemId);
+    }
+
+    public Object addItemAfter(Object previousItemId) {
+        Object newItemId = generateId();
+        return addItemAfter(previousItemId, newItemId) == null ? null : newItemId;
+    }
+
+    public Item addItemAfter(Object previousItemId, Object newItemId) {
+        int row = previousItemId == null ? 0 : indexOfId(previousItemId) + 1;
+        if (row == 0 && previousItemId != null) {
+            return null;
+        }
+        return addRow(row, newItemId) == null ? null : new ColumnarItem(newItemId);
+    }
+    // </editor-fold>
+
+    // <editor-fold defaultstate="collapsed" desc="Container.Sortable">
+    /**
+     * Sorts rows of container. Values of sort properties are read once and
+     * then all columns are reordered.
+     */
+    public void sort(Object[] propertyId, boolean[] ascending) {
+        List<Object> sortPropertyIds = new ArrayList<Object>();
+        List<Boolean> sortAscending = new ArrayList<Boolean>();
+        for (int i = 0; i < propertyId.length; ++i) {
+            Column column = columns.get(propertyId[i]);
+            if (column != null && SortIndex.isSortable(column.type)) {
+                sortPropertyIds.add(propertyId[i]);
+                sortAscending.add(i < ascending.length ? ascending[i] : true);
+            }
+        }
+        if (sortPropertyIds.isEmpty()) {
+            return;
+        }
+        boolean[] directions = new boolean[sortAscending.size()];
+        for (int i = 0; i < directions.length; ++i) {
+            directions[i] = sortAscending.get(i);
+        }
+        SortIndex sortIndex = new SortIndex(this, sortPropertyIds.toArray(), directions, 0,
+                SortIndex.getDefaultExecutor());
+        sortIndex.sortPrefix(size);
+        int[] order = new int[size];
+        Object[] sortedIds = new Object[ids.length];
+        for (int i = 0; i < size; ++i) {
+            order[i] = sortIndex.getRow(i);
+            sortedIds[i] = ids[order[i]];
+        }
+        ids = sortedIds;
+        for (Column column : columns.values()) {
+            column.permute(order);
+        }
+        indexes = null;
+        fireItemSetChange();
+    }
+
+    public Collection<?> getSortableContainerPropertyIds() {
+        List<Object> sortable = new ArrayList<Object>();
+        for (Object propertyId : columns.keySet()) {
+            if (SortIndex.isSortable(columns.get(propertyId).type)) {
+                sortable.add(propertyId);
+            }
+        }
+        return sortable;
+    }
+    // </editor-fold>
+
+    // <editor-fold defaultstate="collapsed" desc="Listeners">
+    public void addListener(Container.ItemSetChangeListener listener) {
+        if (itemSetChangeListeners == null) {
+            itemSetChangeListeners = new HashSet<Container.ItemSetChangeListener>();
+        }
+        itemSetChangeListeners.add(listener);
+    }
+
+    public void removeListener(Container.ItemSetChangeListener listener) {
+        if (itemSetChangeListeners != null) {
+            itemSetChangeListeners.remove(listener);
+        }
+    }
+
+    public void addListener(Container.PropertySetChangeListener listener) {
+        if (propertySetChangeListeners == null) {
+            propertySetChangeListeners = new HashSet<Container.PropertySetChangeListener>();
+        }
+        propertySetChangeListeners.add(listener);
+    }
+
+    public void removeListener(Container.PropertySetChangeListener listener) {
+        if (propertySetChangeListeners != null) {
+            propertySetChangeListeners.remove(listener);
+        }
+    }
+
+    // listeners are notified about changes of every cell
+    public void addListener(Property.ValueChangeListener listener) {
+        if (valueChangeListeners == null) {
+            valueChangeListeners = new HashSet<Property.ValueChangeListener>();
+        }
+        valueChangeListeners.add(listener);
+    }
+
+    public void removeListener(Property.ValueChangeListener listener) {
+        if (valueChangeListeners != null) {
+            valueChangeListeners.remove(listener);
+        }
+    }
+
+    public void addListener(CellChangeNotifier.CellChangeListener listener) {
+        if (cellChangeListeners == null) {
+            cellChangeListeners = new HashSet<CellChangeNotifier.CellChangeListener>();
+        }
+        cellChangeListeners.add(listener);
+    }
+
+    public void removeListener(CellChangeNotifier.CellChangeListener listener) {
+        if (cellChangeListeners != null) {
+            cellChangeListeners.remove(listener);
+        }
+    }
+
+    private void fireItemSetChange() {
+        fireItemSetChange(new Container.ItemSetChangeEvent() {
+
+            public Container getContainer() {
+                return ColumnarContainer.this;
+            }
+        });
+    }
+
+    private void fireItemSetChange(Container.ItemSetChangeEvent event) {
+        if (itemSetChangeListeners == null || itemSetChangeListeners.isEmpty()) {
+            return;
+        }
+        for (Object listener : itemSetChangeListeners.toArray()) {
+            ((Container.ItemSetChangeListener) listener).containerItemSetChange(event);
+        }
+    }
+
+    private void firePropertySetChange() {
+        if (propertySetChangeListeners == null || propertySetChangeListeners.isEmpty()) {
+            return;
+        }
+        Container.PropertySetChangeEvent event = new Container.PropertySetChangeEvent() {
+
+            public Container getContainer() {
+                return ColumnarContainer.this;
+            }
+        };
+        for (Object listener : propertySetChangeListeners.toArray()) {
+            ((Container.PropertySetChangeListener) listener).containerPropertySetChange(event);
+        }
+    }
+
+    private void fireCellChange(Object itemId, Collection<?> propertyIds) {
+        if (valueChangeListeners != null && !valueChangeListeners.isEmpty()) {
+            for (Object propertyId : propertyIds) {
+                final Property property = new CellProperty(itemId, propertyId);
+                Property.ValueChangeEvent event = new Property.ValueChangeEvent() {
+
+                    public Property getProperty() {
+                        return property;
+                    }
+                };
+                for (Object listener : valueChangeListeners.toArray()) {
+                    ((Property.ValueChangeListener) listener).valueChange(event);
+                }
+            }
+        }
+        if (cellChangeListeners != null && !cellChangeListeners.isEmpty()) {
+            CellChangeNotifier.CellChangeEvent event =
+                    new CellChangeNotifier.CellChangeEvent(this, itemId, propertyIds);
+            for (Object listener : cellChangeListeners.toArray()) {
+                ((CellChangeNotifier.CellChangeListener) listener).cellChange(event);
+            }
+        }
+    }
+    // </editor-fold>
+
+    /**
+     * view of one row of container
+     */
+    private class ColumnarItem implements Item {
+
+        private final Object itemId;
+
+        public ColumnarItem(Object itemId) {
+            this.itemId = itemId;
+        }
+
+        public Property getItemProperty(Object id) {
+            return columns.containsKey(id) ? new CellProperty(itemId, id) : null;
+        }
+
+        public Collection<?> getItemPropertyIds() {
+            return getContainerPropertyIds();
+        }
+
+        public boolean addItemProperty(Object id, Property property) {
+            throw new UnsupportedOperationException("Use addContainerProperty()");
+        }
+
+        public boolean removeItemProperty(Object id) {
+            throw new UnsupportedOperationException("Use removeContainerProperty()");
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            return obj instanceof ColumnarItem && ((ColumnarItem) obj).getContainer() == getContainer()
+                    && ((ColumnarItem) obj).itemId.equals(itemId);
+        }
+
+        @Override
+        public int hashCode() {
+            return itemId.hashCode();
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder result = new StringBuilder();
+            for (Object propertyId : columns.keySet()) {
+                result.append(result.length() == 0 ? "" : " ");
+                result.append(getItemProperty(propertyId));
+            }
+            return result.toString();
+        }
+
+        private ColumnarContainer getContainer() {
+            return ColumnarContainer.this;
+        }
+    }
+
+    /**
+     * view of one cell of container; row of cell is found by item id on every
+     * access, so property stays valid when rows are moved
+     */
+    private class CellProperty implements Property {
+
+        private final Object itemId;
+        private final Object propertyId;
+
+        public CellProperty(Object itemId, Object propertyId) {
+            this.itemId = itemId;
+            this.propertyId = propertyId;
+        }
+
+        public Object getValue() {
+            int row = indexOfId(itemId);
+            Column column = columns.get(propertyId);
+            return row < 0 || column == null ? null : column.get(row);
+        }
+
+        public void setValue(Object newValue) throws ReadOnlyException, ConversionException {
+            int row = indexOfId(itemId);
+            Column column = columns.get(propertyId);
+            if (row >= 0 && column != null) {
+                column.set(row, column.convert(newValue));
+                fireCellChange(itemId, Collections.singleton(propertyId));
+            }
+        }
+
+        public Class<?> getType() {
+            return ColumnarContainer.this.getType(propertyId);
+        }
+
+        public boolean isReadOnly() {
+            return false;
+        }
+
+        public void setReadOnly(boolean newStatus) {
+            // cells are always writable
+        }
+
+        @Override
+        public String toString() {
+            Object value = getValue();
+            return value == null ? null : value.toString();
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof CellProperty)) {
+                return false;
+            }
+            CellProperty other = (CellProperty) obj;
+            return other.getContainer() == getContainer() && other.itemId.equals(itemId)
+                    && other.propertyId.equals(propertyId);
+        }
+
+        @Override
+        public int hashCode() {
+            return itemId.hashCode() ^ propertyId.hashCode();
+        }
+
+        private ColumnarContainer getContainer() {
+            return ColumnarContainer.this;
+        }
+    }
+
+    // <editor-fold defaultstate="collapsed" desc="Columns">
+    private static Column createColumn(Class<?> type, int capacity) {
+        if (type == Integer.class || type == int.class) {
+            return new IntColumn(type, capacity);
+        } else if (type == Long.class || type == long.class) {
+            return new LongColumn(type, capacity);
+        } else if (type == Double.class || type == double.class) {
+            return new DoubleColumn(type, capacity);
+        } else if (type == String.class) {
+            return new StringColumn(capacity);
+        }
+        return new ObjectColumn(type, capacity);
+    }
+
+    /**
+     * values of one property; data is array of values with capacity of
+     * container and nulls are marked in separate bit set
+     */
+    private abstract static class Column implements Serializable {
+
+        private final Class<?> type;
+        private final Class<?> valueType;
+        private Object defaultValue;
+        protected Object data;
+        private BitSet nulls = new BitSet();
+
+        public Column(Class<?> type, Class<?> valueType, Object data) {
+            this.type = type;
+            this.valueType = valueType;
+            this.data = data;
+        }
+
+        protected abstract Object load(int row);
+
+        protected abstract void store(int row, Object value);
+
+        // releases value of null cell
+        protected void clear(int row) {
+        }
+
+        public Object get(int row) {
+            return nulls.get(row) ? null : load(row);
+        }
+
+        public void set(int row, Object value) {
+            if (value == null) {
+                nulls.set(row);
+                clear(row);
+            } else {
+                nulls.clear(row);
+                store(row, value);
+            }
+        }
+
+        // values of other types are converted with constructor taking String
+        public Object convert(Object value) throws Property.ConversionException {
+            if (value == null || valueType.isInstance(value)) {
+                return value;
+            }
+            try {
+                return valueType.getConstructor(String.class).newInstance(value.toString());
+            } catch (Exception ex) {
+                throw new Property.ConversionException(ex);
+            }
+        }
+
+        public void resize(int capacity) {
+            Object newData = Array.newInstance(data.getClass().getComponentType(), capacity);
+            System.arraycopy(data, 0, newData, 0, Math.min(capacity, Array.getLength(data)));
+            data = newData;
+        }
+
+        public void move(int from, int to, int length) {
+            System.arraycopy(data, from, data, to, length);
+            if (from > to) {
+                for (int i = 0; i < length; ++i) {
+                    nulls.set(to + i, nulls.get(from + i));
+                }
+            } else {
+                for (int i = length - 1; i >= 0; --i) {
+                    nulls.set(to + i, nulls.get(from + i));
+                }
+            }
+        }
+
+        // reorders values so value of row order[i] becomes value of row i
+        public void permute(int[] order) {
+            Object newData = Array.newInstance(data.getClass().getComponentType(), Array.getLength(data));
+            BitSet newNulls = new BitSet();
+            for (int i = 0; i < order.length; ++i) {
+                System.arraycopy(data, order[i], newData, i, 1);
+                if (nulls.get(order[i])) {
+                    newNulls.set(i);
+                }
+            }
+            data = newData;
+            nulls = newNulls;
+        }
+    }
+
+    private static class IntColumn extends Column {
+
+        public IntColumn(Class<?> type, int capacity) {
+            super(type, Integer.class, new int[capacity]);
+        }
+
+        @Override
+        protected Object load(int row) {
+            return ((int[]) data)[row];
+        }
+
+        @Override
+        protected void store(int row, Object value) {
+            ((int[]) data)[row] = (Integer) value;
+        }
+    }
+
+    private static class LongColumn extends Column {
+
+        public LongColumn(Class<?> type, int capacity) {
+            super(type, Long.class, new long[capacity]);
+        }
+
+        @Override
+        protected Object load(int row) {
+            return ((long[]) data)[row];
+        }
+
+        @Override
+        protected void store(int row, Object value) {
+            ((long[]) data)[row] = (Long) value;
+        }
+    }
+
+    private static class DoubleColumn extends Column {
+
+        public DoubleColumn(Class<?> type, int capacity) {
+            super(type, Double.class, new double[capacity]);
+        }
+
+        @Override
+        protected Object load(int row) {
+            return ((double[]) data)[row];
+        }
+
+        @Override
+        protected void store(int row, Object value) {
+            ((double[]) data)[row] = (Double) value;
+        }
+    }
+
+    /**
+     * strings are kept in dictionary and cells store their codes
+     */
+    private static class StringColumn extends Column {
+
+        private final List<String> dictionary = new ArrayList<String>();
+        private final HashMap<String, Integer> codes = new HashMap<String, Integer>();
+
+        public StringColumn(int capacity) {
+            super(String.class, String.class, new int[capacity]);
+        }
+
+        @Override
+        protected Object load(int row) {
+            return dictionary.get(((int[]) data)[row]);
+        }
+
+        @Override
+        protected void store(int row, Object value) {
+            Integer code = codes.get((String) value);
+            if (code == null) {
+                code = dictionary.size();
+                dictionary.add((String) value);
+                codes.put((String) value, code);
+            }
+            ((int[]) data)[row] = code;
+        }
+    }
+
+    private static class ObjectColumn extends Column {
+
+        public ObjectColumn(Class<?> type, int capacity) {
+            super(type, getValueType(type), new Object[capacity]);
+        }
+
+        @Override
+        protected Object load(int row) {
+            return ((Object[]) data)[row];
+        }
+
+        @Override
+        protected void store(int row, Object value) {
+            ((Object[]) data)[row] = value;
+        }
+
+        @Override
+        protected void clear(int row) {
+            ((Object[]) data)[row] = null;
+        }
+
+        private static Class<?> getValueType(Class<?> type) {
+            if (!type.isPrimitive()) {
+                return type;
+            }
+            return Array.get(Array.newInstance(type, 1), 0).getClass();
+        }
+    }
+    // </editor-fold>
+}
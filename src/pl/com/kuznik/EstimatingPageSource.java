@@ -0,0 +1,16 @@
+package pl.com.kuznik;
+
+/**
+ * PageSource which is able to estimate number of its rows much faster than
+ * count them, e.g. from statistics of database table. PageSourceContainer in
+ * estimation mode shows estimated number of pages at once and replaces it
+ * with exact one when rows are counted.
+ * @author Krzysztof Kuźnik <kmkuznik at gmail.com>
+ */
+public interface EstimatingPageSource extends PageSource {
+
+    /**
+     * @return approximate number of rows
+     */
+    public int estimateCount();
+}
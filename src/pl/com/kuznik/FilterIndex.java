@@ -0,0 +1,71 @@
+package pl.com.kuznik;
+
+import com.vaadin.data.Container;
+import com.vaadin.data.Property;
+import java.util.HashMap;
+
+/**
+ * Hash index of values of one property, mapping every value to rows which
+ * have it. Index is built in single pass over container and answers equality
+ * filters without reading container again. Properties with too many distinct
+ * values are not hashed, as index would be larger than container itself;
+ * such filters are answered by sort index of property.
+ * @author Krzysztof Kuźnik <kmkuznik at gmail.com>
+ */
+class FilterIndex {
+
+    // properties with more distinct values are filtered through sort index
+    private static final int MAX_HASHED_VALUES = 4096;
+    private static final RowBitmap NO_ROWS = new RowBitmap();
+    private final long version;
+    // rows of every value, null if there are too many values
+    private HashMap<Object, RowBitmap> rowsByValue = new HashMap<Object, RowBitmap>();
+
+    /**
+     * Reads values of property of all rows
+     * @param container indexed container
+     * @param propertyId id of indexed property
+     * @param version version of container data index is created for
+     */
+    FilterIndex(Container.Indexed container, Object propertyId, long version) {
+        this.version = version;
+        int index = 0;
+        for (Object itemId : container.getItemIds()) {
+            Property property = container.getContainerProperty(itemId, propertyId);
+            Object value = property == null ? null : property.getValue();
+            RowBitmap rows = rowsByValue.get(value);
+            if (rows == null) {
+                if (rowsByValue.size() == MAX_HASHED_VALUES) {
+                    rowsByValue = null;
+                    return;
+                }
+                rows = new RowBitmap();
+                rowsByValue.put(value, rows);
+            }
+            rows.add(index++);
+        }
+    }
+
+    /**
+     * @return version of container data this index was created for
+     */
+    long getVersion() {
+        return version;
+    }
+
+    /**
+     * @return false if property has too many distinct values to be hashed
+     */
+    boolean isHashed() {
+        return rowsByValue != null;
+    }
+
+    /**
+     * @param value value of property
+     * @return rows having given value, must not be modified
+     */
+    RowBitmap getRows(Object value) {
+        RowBitmap rows = rowsByValue.get(value);
+        return rows == null ? NO_ROWS : rows;
+    }
+}
@@ -0,0 +1,267 @@
+package pl.com.kuznik;
+
+import com.vaadin.data.Item;
+import com.vaadin.data.util.ObjectProperty;
+import com.vaadin.data.util.PropertysetItem;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import javax.sql.DataSource;
+
+/**
+ * PageSource reading rows of single database table (or view) with JDBC.
+ * Every fetch is single query using LIMIT/OFFSET, so only requested rows are
+ * transferred. Rows are identified by values of id column, which has to be
+ * unique. Items are read-only.
+ * <p>
+ * Keyset fetches use WHERE condition on sort columns instead of OFFSET, so
+ * database can seek rows with index on sort columns. Sort columns used in
+ * keyset mode should not contain NULL values.
+ * @author Krzysztof Kuźnik <kmkuznik at gmail.com>
+ */
+public class JdbcPageSource implements KeysetPageSource {
+
+    private final DataSource dataSource;
+    private final String tableName;
+    private final String idColumn;
+    private LinkedHashMap<String, Class<?>> columns;
+
+    /**
+     * Creates new source
+     * @param dataSource source of database connections
+     * @param tableName name of table or view
+     * @param idColumn name of unique column identifying rows
+     */
+    public JdbcPageSource(DataSource dataSource, String tableName, String idColumn) {
+        this.dataSource = dataSource;
+        this.tableName = tableName;
+        this.idColumn = idColumn;
+    }
+
+    public Collection<?> getPropertyIds() {
+        return Collections.unmodifiableSet(getColumns().keySet());
+    }
+
+    public Class<?> getType(Object propertyId) {
+        return getColumns().get(propertyId);
+    }
+
+    public int count() {
+        Connection connection = null;
+        PreparedStatement statement = null;
+        ResultSet result = null;
+        try {
+            connection = dataSource.getConnection();
+            statement = connection.prepareStatement("SELECT COUNT(*) FROM " + tableName);
+            result = statement.executeQuery();
+            result.next();
+            return result.getInt(1);
+        } catch (SQLException ex) {
+            throw new IllegalStateException("Error while counting rows of " + tableName, ex);
+        } finally {
+            close(result, statement, connection);
+        }
+    }
+
+    public Map<Object, Item> fetch(int offset, int limit,
+            Object[] sortPropertyIds, boolean[] sortAscending) {
+        Connection connection = null;
+        PreparedStatement statement = null;
+        ResultSet result = null;
+        try {
+            connection = dataSource.getConnection();
+            statement = connection.prepareStatement("SELECT * FROM " + tableName
+                    + createOrderBy(sortPropertyIds, sortAscending) + " LIMIT ? OFFSET ?");
+            statement.setInt(1, limit);
+            statement.setInt(2, offset);
+            result = statement.executeQuery();
+            return readRows(result);
+        } catch (SQLException ex) {
+            throw new IllegalStateException("Error while fetching rows of " + tableName, ex);
+        } finally {
+            close(result, statement, connection);
+        }
+    }
+
+    public Map<Object, Item> fetch(Object[] key, boolean forward, int limit,
+            Object[] sortPropertyIds, boolean[] sortAscending) {
+        // backward fetch reads rows in reversed order and turns them back
+        boolean[] ascending = new boolean[sortAscending.length];
+        for (int i = 0; i < ascending.length; ++i) {
+            ascending[i] = sortAscending[i] == forward;
+        }
+        Connection connection = null;
+        PreparedStatement statement = null;
+        ResultSet result = null;
+        try {
+            connection = dataSource.getConnection();
+            statement = connection.prepareStatement("SELECT * FROM " + tableName
+                    + (key == null ? "" : createSeekCondition(sortPropertyIds, ascending, forward))
+                    + createOrderBy(sortPropertyIds, ascending, forward) + " LIMIT ?");
+            int parameter = 1;
+            if (key != null) {
+                // every condition term repeats preceding keys as equalities
+                for (int i = 0; i < key.length; ++i) {
+                    for (int j = 0; j <= i; ++j) {
+                        statement.setObject(parameter++, key[j]);
+                    }
+                }
+            }
+            statement.setInt(parameter, limit);
+            result = statement.executeQuery();
+            Map<Object, Item> rows = readRows(result);
+            return forward ? rows : reverse(rows);
+        } catch (SQLException ex) {
+            throw new IllegalStateException("Error while fetching rows of " + tableName, ex);
+        } finally {
+            close(result, statement, connection);
+        }
+    }
+
+    /**
+     * Creates WHERE clause selecting rows which follow key in given order:
+     * (a > ?) OR (a = ? AND b > ?) OR ... with id column as last key
+     */
+    private String createSeekCondition(Object[] sortPropertyIds, boolean[] ascending,
+            boolean idAscending) {
+        List<String> columns = new ArrayList<String>();
+        List<Boolean> directions = new ArrayList<Boolean>();
+        for (int i = 0; i < sortPropertyIds.length; ++i) {
+            columns.add(getColumnName(sortPropertyIds[i]));
+            directions.add(ascending[i]);
+        }
+        columns.add(idColumn);
+        directions.add(idAscending);
+        StringBuilder condition = new StringBuilder(" WHERE ");
+        for (int i = 0; i < columns.size(); ++i) {
+            condition.append(i == 0 ? "(" : " OR (");
+            for (int j = 0; j < i; ++j) {
+                condition.append(columns.get(j)).append(" = ? AND ");
+            }
+            condition.append(columns.get(i)).append(directions.get(i) ? " > ?)" : " < ?)");
+        }
+        return condition.toString();
+    }
+
+    private String createOrderBy(Object[] sortPropertyIds, boolean[] sortAscending) {
+        return createOrderBy(sortPropertyIds, sortAscending, true);
+    }
+
+    /**
+     * Creates ORDER BY clause. Id column is always added as last key so order
+     * of rows is deterministic.
+     */
+    private String createOrderBy(Object[] sortPropertyIds, boolean[] sortAscending,
+            boolean idAscending) {
+        StringBuilder orderBy = new StringBuilder(" ORDER BY ");
+        for (int i = 0; i < sortPropertyIds.length; ++i) {
+            orderBy.append(getColumnName(sortPropertyIds[i]));
+            orderBy.append(sortAscending[i] ? " ASC, " : " DESC, ");
+        }
+        return orderBy.append(idColumn).append(idAscending ? " ASC" : " DESC").toString();
+    }
+
+    private static Map<Object, Item> reverse(Map<Object, Item> rows) {
+        List<Map.Entry<Object, Item>> entries = new ArrayList<Map.Entry<Object, Item>>(rows.entrySet());
+        Collections.reverse(entries);
+        Map<Object, Item> reversed = new LinkedHashMap<Object, Item>();
+        for (Map.Entry<Object, Item> entry : entries) {
+            reversed.put(entry.getKey(), entry.getValue());
+        }
+        return reversed;
+    }
+
+    // only known columns are accepted so nothing can be injected into query
+    private String getColumnName(Object propertyId) {
+        if (!getColumns().containsKey(propertyId)) {
+            throw new IllegalArgumentException("Unknown column " + propertyId);
+        }
+        return (String) propertyId;
+    }
+
+    private Map<Object, Item> readRows(ResultSet result) throws SQLException {
+        Map<Object, Item> rows = new LinkedHashMap<Object, Item>();
+        while (result.next()) {
+            PropertysetItem item = new PropertysetItem();
+            for (Map.Entry<String, Class<?>> column : getColumns().entrySet()) {
+                item.addItemProperty(column.getKey(), createProperty(
+                        result.getObject(column.getKey()), column.getValue()));
+            }
+            rows.put(result.getObject(idColumn), item);
+        }
+        return rows;
+    }
+
+    @SuppressWarnings("unchecked")
+    private ObjectProperty<Object> createProperty(Object value, Class<?> type) {
+        return new ObjectProperty<Object>(value, (Class<Object>) type, true);
+    }
+
+    // column names and types are read from metadata of empty result
+    private LinkedHashMap<String, Class<?>> getColumns() {
+        if (columns != null) {
+            return columns;
+        }
+        Connection connection = null;
+        PreparedStatement statement = null;
+        ResultSet empty = null;
+        try {
+            connection = dataSource.getConnection();
+            statement = connection.prepareStatement("SELECT * FROM " + tableName + " WHERE 1 = 0");
+            empty = statement.executeQuery();
+            ResultSetMetaData metaData = empty.getMetaData();
+            LinkedHashMap<String, Class<?>> result = new LinkedHashMap<String, Class<?>>();
+            for (int i = 1; i <= metaData.getColumnCount(); ++i) {
+                result.put(metaData.getColumnLabel(i), loadClass(metaData.getColumnClassName(i)));
+            }
+            columns = result;
+            return columns;
+        } catch (SQLException ex) {
+            throw new IllegalStateException("Error while reading columns of " + tableName, ex);
+        } finally {
+            close(empty, statement, connection);
+        }
+    }
+
+    private static Class<?> loadClass(String className) {
+        try {
+            return Class.forName(className);
+        } catch (ClassNotFoundException ex) {
+            return Object.class;
+        }
+    }
+
+    // every resource is closed even if closing previous one failed
+    private static void close(ResultSet result, Statement statement, Connection connection) {
+        if (result != null) {
+            try {
+                result.close();
+            } catch (SQLException ex) {
+                // nothing more can be done
+            }
+        }
+        if (statement != null) {
+            try {
+                statement.close();
+            } catch (SQLException ex) {
+                // nothing more can be done
+            }
+        }
+        if (connection != null) {
+            try {
+                connection.close();
+            } catch (SQLException ex) {
+                // nothing more can be done
+            }
+        }
+    }
+}
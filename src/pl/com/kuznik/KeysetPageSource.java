@@ -0,0 +1,29 @@
+package pl.com.kuznik;
+
+import com.vaadin.data.Item;
+import java.util.Map;
+
+/**
+ * PageSource which is able to seek rows by their sort key instead of
+ * skipping offset rows. Key of a row consists of values of sort properties
+ * followed by item id, so it is unique. Fetching rows next to known key costs
+ * the same on every page, no matter how deep the page is.
+ * @author Krzysztof Kuźnik <kmkuznik at gmail.com>
+ */
+public interface KeysetPageSource extends PageSource {
+
+    /**
+     * Fetches rows adjacent to row with given key
+     * @param key values of sort properties followed by item id of boundary
+     * row, or null to fetch first rows (forward) or last rows (backward)
+     * @param forward true to fetch rows following key, false to fetch rows
+     * preceding key
+     * @param limit maximal number of rows to fetch
+     * @param sortPropertyIds ids of properties rows are sorted by, may be empty
+     * @param sortAscending sorting direction for each of sortPropertyIds
+     * @return rows mapped by their item ids; iteration order of map has to
+     * follow order of rows in both directions
+     */
+    public Map<Object, Item> fetch(Object[] key, boolean forward, int limit,
+            Object[] sortPropertyIds, boolean[] sortAscending);
+}
@@ -0,0 +1,509 @@
+package pl.com.kuznik;
+
+import com.vaadin.data.Container;
+import com.vaadin.data.Item;
+import com.vaadin.data.Property;
+import com.vaadin.data.util.ObjectProperty;
+import com.vaadin.data.util.PropertysetItem;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.lang.reflect.Array;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.AbstractList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Read-only Container.Indexed backed by file mapped into memory. Rows are
+ * decoded only when they are requested, so heap usage does not depend on size
+ * of file. Item ids are row numbers (Integer) starting from 0. Files are
+ * created with Writer.
+ * <p>
+ * File consists of header (property ids and types, number of rows, position
+ * of index), rows and index holding position of every row. Integer, Long,
+ * Double, Boolean and String properties are supported.
+ * @author Krzysztof Kuźnik <kmkuznik at gmail.com>
+ */
+public class MappedFileContainer implements Container.Indexed, Closeable {
+
+    private static final int MAGIC = 0x52544D46;
+    private static final int VERSION = 1;
+    // files larger than that are mapped in several segments
+    private static final long SEGMENT_SIZE = 1L << 30;
+    private static final int CACHED_ROWS = 1000;
+    private static final Class<?>[] TYPES = new Class<?>[]{
+        Integer.class, Long.class, Double.class, Boolean.class, String.class
+    };
+    private final File file;
+    private final LinkedHashMap<String, Class<?>> columns = new LinkedHashMap<String, Class<?>>();
+    private final Class<?>[] columnTypes;
+    private final int size;
+    private final long indexPosition;
+    private final long fileLength;
+    private final long segmentSize;
+    private transient FileChannel channel;
+    private transient MappedByteBuffer[] segments;
+    private transient Map<Integer, Item> decodedRows;
+
+    /**
+     * Opens file created by Writer. Only header is read.
+     * @param file file to be opened
+     * @throws IOException if file cannot be read or has invalid format
+     */
+    public MappedFileContainer(File file) throws IOException {
+        this(file, SEGMENT_SIZE);
+    }
+
+    /**
+     * Opens file created by Writer, mapping it in segments of given size
+     * @param file file to be opened
+     * @param segmentSize size of mapped segments, multiple of 8
+     * @throws IOException if file cannot be read or has invalid format
+     */
+    MappedFileContainer(File file, long segmentSize) throws IOException {
+        if (segmentSize <= 0 || segmentSize % 8 != 0) {
+            throw new IllegalArgumentException("Segment size has to be positive multiple of 8");
+        }
+        this.file = file;
+        this.segmentSize = segmentSize;
+        DataInputStream input = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+        try {
+            if (input.readInt() != MAGIC || input.readInt() != VERSION) {
+                throw new IOException("Unsupported file format: " + file);
+            }
+            int columnCount = input.readInt();
+            columnTypes = new Class<?>[columnCount];
+            for (int i = 0; i < columnCount; ++i) {
+                String propertyId = input.readUTF();
+                columnTypes[i] = TYPES[input.readByte()];
+                columns.put(propertyId, columnTypes[i]);
+            }
+            size = input.readInt();
+            indexPosition = input.readLong();
+        } finally {
+            input.close();
+        }
+        fileLength = file.length();
+    }
+
+    /**
+     * Unmaps file and closes it. Container can still be used afterwards;
+     * file is opened again when needed.
+     */
+    public synchronized void close() throws IOException {
+        segments = null;
+        decodedRows = null;
+        if (channel != null) {
+            channel.close();
+            channel = null;
+        }
+    }
+
+    /**
+     * Writes all rows of container into file readable by MappedFileContainer.
+     * Properties of unsupported types are written as strings.
+     * @param file file to be written
+     * @param container container to be written
+     * @throws IOException if file cannot be written
+     */
+    public static void write(File file, Container container) throws IOException {
+        Object[] propertyIds = container.getContainerPropertyIds().toArray();
+        String[] names = new String[propertyIds.length];
+        Class<?>[] types = new Class<?>[propertyIds.length];
+        for (int i = 0; i < propertyIds.length; ++i) {
+            names[i] = propertyIds[i].toString();
+            types[i] = String.class;
+            Class<?> type = container.getType(propertyIds[i]);
+            for (Class<?> supported : TYPES) {
+                if (supported == type || (type != null && type.isPrimitive()
+                        && Array.get(Array.newInstance(type, 1), 0).getClass() == supported)) {
+                    types[i] = supported;
+                }
+            }
+        }
+        Writer writer = new Writer(file, names, types);
+        try {
+            Object[] values = new Object[propertyIds.length];
+            for (Object itemId : container.getItemIds()) {
+                for (int i = 0; i < propertyIds.length; ++i) {
+                    Property property = container.getContainerProperty(itemId, propertyIds[i]);
+                    values[i] = property == null ? null : property.getValue();
+                }
+                writer.addRow(values);
+            }
+        } finally {
+            writer.close();
+        }
+    }
+
+    // <editor-fold defaultstate="collapsed" desc="Reading">
+    private synchronized ByteBuffer getSegment(int segment) {
+        try {
+            if (channel == null) {
+                channel = new RandomAccessFile(file, "r").getChannel();
+            }
+            if (segments == null) {
+                segments = new MappedByteBuffer[(int) ((fileLength + segmentSize - 1) / segmentSize)];
+            }
+            if (segments[segment] == null) {
+                long start = segment * segmentSize;
+                segments[segment] = channel.map(FileChannel.MapMode.READ_ONLY, start,
+                        Math.min(segmentSize, fileLength - start));
+            }
+            return segments[segment].duplicate();
+        } catch (IOException ex) {
+            throw new IllegalStateException("Error while mapping " + file, ex);
+        }
+    }
+
+    private void read(long position, byte[] bytes) {
+        int done = 0;
+        while (done < bytes.length) {
+            ByteBuffer segment = getSegment((int) ((position + done) / segmentSize));
+            segment.position((int) ((position + done) % segmentSize));
+            int length = Math.min(bytes.length - done, segment.remaining());
+            segment.get(bytes, done, length);
+            done += length;
+        }
+    }
+
+    // index entries are aligned, so they never cross segments
+    private long getRowPosition(int row) {
+        if (row == size) {
+            return indexPosition;
+        }
+        long position = indexPosition + 8L * row;
+        return getSegment((int) (position / segmentSize)).getLong((int) (position % segmentSize));
+    }
+
+    private synchronized Item getRow(int row) {
+        if (decodedRows == null) {
+            decodedRows = new LinkedHashMap<Integer, Item>(16, 0.75f, true) {
+
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<Integer, Item> eldest) {
+                    return size() > CACHED_ROWS;
+                }
+            };
+        }
+        Item item = decodedRows.get(row);
+        if (item == null) {
+            item = decodeRow(row);
+            decodedRows.put(row, item);
+        }
+        return item;
+    }
+
+    private Item decodeRow(int row) {
+        long position = getRowPosition(row);
+        byte[] bytes = new byte[(int) (getRowPosition(row + 1) - position)];
+        read(position, bytes);
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        PropertysetItem item = new PropertysetItem();
+        int column = 0;
+        for (String propertyId : columns.keySet()) {
+            item.addItemProperty(propertyId, createProperty(
+                    decodeValue(buffer, columnTypes[column]), columnTypes[column]));
+            ++column;
+        }
+        return item;
+    }
+
+    private static Object decodeValue(ByteBuffer buffer, Class<?> type) {
+        if (buffer.get() == 0) {
+            return null;
+        } else if (type == Integer.class) {
+            return buffer.getInt();
+        } else if (type == Long.class) {
+            return buffer.getLong();
+        } else if (type == Double.class) {
+            return buffer.getDouble();
+        } else if (type == Boolean.class) {
+            return buffer.get() != 0;
+        }
+        byte[] bytes = new byte[buffer.getInt()];
+        buffer.get(bytes);
+        try {
+            return new String(bytes, "UTF-8");
+        } catch (IOException ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static ObjectProperty<Object> createProperty(Object value, Class<?> type) {
+        return new ObjectProperty<Object>(value, (Class<Object>) type, true);
+    }
+    // </editor-fold>
+
+    // <editor-fold defaultstate="collapsed" desc="Container.Indexed">
+    public int size() {
+        return size;
+    }
+
+    public int indexOfId(Object itemId) {
+        return containsId(itemId) ? (Integer) itemId : -1;
+    }
+
+    public Object getIdByIndex(int index) {
+        return index < 0 || index >= size ? null : (Object) index;
+    }
+
+    public boolean containsId(Object itemId) {
+        return itemId instanceof Integer && (Integer) itemId >= 0 && (Integer) itemId < size;
+    }
+
+    public Item getItem(Object itemId) {
+        return containsId(itemId) ? getRow((Integer) itemId) : null;
+    }
+
+    public Property getContainerProperty(Object itemId, Object propertyId) {
+        Item item = getItem(itemId);
+        return item == null ? null : item.getItemProperty(propertyId);
+    }
+
+    public Collection<?> getContainerPropertyIds() {
+        return Collections.unmodifiableSet(columns.keySet());
+    }
+
+    public Class<?> getType(Object propertyId) {
+        return columns.get(propertyId);
+    }
+
+    public Collection<?> getItemIds() {
+        return new AbstractList<Object>() {
+
+            @Override
+            public Object get(int index) {
+                return getIdByIndex(index);
+            }
+
+            @Override
+            public int size() {
+                return size;
+            }
+        };
+    }
+
+    public Object nextItemId(Object itemId) {
+        int index = indexOfId(itemId);
+        return index < 0 ? null : getIdByIndex(index + 1);
+    }
+
+    public Object prevItemId(Object itemId) {
+        int index = indexOfId(itemId);
+        return index <= 0 ? null : getIdByIndex(index - 1);
+    }
+
+    public Object firstItemId() {
+        return getIdByIndex(0);
+    }
+
+    public Object lastItemId() {
+        return getIdByIndex(size - 1);
+    }
+
+    public boolean isFirstId(Object itemId) {
+        return size > 0 && indexOfId(itemId) == 0;
+    }
+
+    public boolean isLastId(Object itemId) {
+        return size > 0 && indexOfId(itemId) == size - 1;
+    }
+    // </editor-fold>
+
+    // <editor-fold defaultstate="collapsed" desc="Unsupported modifications">
+    public Item addItem(Object itemId) throws UnsupportedOperationException {
+        throw new UnsupportedOperationException("MappedFileContainer is read-only");
+    }
+
+    public Object addItem() throws UnsupportedOperationException {
+        throw new UnsupportedOperationException("MappedFileContainer is read-only");
+    }
+
+    public boolean removeItem(Object itemId) throws UnsupportedOperationException {
+        throw new UnsupportedOperationException("MappedFileContainer is read-only");
+    }
+
+    public boolean removeAllItems() throws UnsupportedOperationException {
+        throw new UnsupportedOperationException("MappedFileContainer is read-only");
+    }
+
+    public boolean addContainerProperty(Object propertyId, Class<?> type, Object defaultValue)
+            throws UnsupportedOperationException {
+        throw new UnsupportedOperationException("MappedFileContainer is read-only");
+    }
+
+    public boolean removeContainerProperty(Object propertyId) throws UnsupportedOperationException {
+        throw new UnsupportedOperationException("MappedFileContainer is read-only");
+    }
+
+    public Object addItemAfter(Object previousItemId) throws UnsupportedOperationException {
+        throw new UnsupportedOperationException("MappedFileContainer is read-only");
+    }
+
+    public Item addItemAfter(Object previousItemId, Object newItemId) throws UnsupportedOperationException {
+        throw new UnsupportedOperationException("MappedFileContainer is read-only");
+    }
+
+    public Object addItemAt(int index) throws UnsupportedOperationException {
+        throw new UnsupportedOperationException("MappedFileContainer is read-only");
+    }
+
+    public Item addItemAt(int index, Object newItemId) throws UnsupportedOperationException {
+        throw new UnsupportedOperationException("MappedFileContainer is read-only");
+    }
+    // </editor-fold>
+
+    /**
+     * Writes rows one by one into file readable by MappedFileContainer. Only
+     * current row is kept in memory; positions of rows are written to
+     * temporary file and appended to data when writer is closed.
+     */
+    public static class Writer implements Closeable {
+
+        private final File file;
+        private final Class<?>[] types;
+        private final DataOutputStream data;
+        private final File indexFile;
+        private final DataOutputStream index;
+        private final ByteArrayOutputStream row = new ByteArrayOutputStream();
+        private final DataOutputStream rowOutput = new DataOutputStream(row);
+        private final int headerLength;
+        private long position;
+        private int rowCount = 0;
+
+        /**
+         * Creates writer
+         * @param file file to be written
+         * @param propertyIds ids of properties
+         * @param types types of properties; Integer, Long, Double, Boolean and
+         * String are supported
+         * @throws IOException if file cannot be written
+         */
+        public Writer(File file, String[] propertyIds, Class<?>[] types) throws IOException {
+            if (propertyIds.length != types.length) {
+                throw new IllegalArgumentException("Number of property ids and types differs");
+            }
+            this.file = file;
+            this.types = types.clone();
+            DataOutputStream header = new DataOutputStream(row);
+            header.writeInt(MAGIC);
+            header.writeInt(VERSION);
+            header.writeInt(propertyIds.length);
+            for (int i = 0; i < propertyIds.length; ++i) {
+                header.writeUTF(propertyIds[i]);
+                header.writeByte(getTypeCode(types[i]));
+            }
+            header.writeInt(0); // number of rows
+            header.writeLong(0); // position of index
+            headerLength = row.size();
+            indexFile = File.createTempFile("rows", ".idx", file.getAbsoluteFile().getParentFile());
+            data = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+            index = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(indexFile)));
+            row.writeTo(data);
+            row.reset();
+            position = headerLength;
+        }
+
+        private static int getTypeCode(Class<?> type) {
+            for (int i = 0; i < TYPES.length; ++i) {
+                if (TYPES[i] == type) {
+                    return i;
+                }
+            }
+            throw new IllegalArgumentException("Unsupported type " + type);
+        }
+
+        /**
+         * Appends row
+         * @param values values of properties in order of property ids
+         * @throws IOException if file cannot be written
+         */
+        public void addRow(Object... values) throws IOException {
+            if (values.length != types.length) {
+                throw new IllegalArgumentException("Expected " + types.length + " values");
+            }
+            for (int i = 0; i < values.length; ++i) {
+                writeValue(values[i], types[i]);
+            }
+            index.writeLong(position);
+            row.writeTo(data);
+            position += row.size();
+            row.reset();
+            ++rowCount;
+        }
+
+        private void writeValue(Object value, Class<?> type) throws IOException {
+            if (value == null) {
+                rowOutput.writeByte(0);
+                return;
+            }
+            rowOutput.writeByte(1);
+            if (type == Integer.class) {
+                rowOutput.writeInt((Integer) value);
+            } else if (type == Long.class) {
+                rowOutput.writeLong((Long) value);
+            } else if (type == Double.class) {
+                rowOutput.writeDouble((Double) value);
+            } else if (type == Boolean.class) {
+                rowOutput.writeBoolean((Boolean) value);
+            } else {
+                byte[] bytes = value.toString().getBytes("UTF-8");
+                rowOutput.writeInt(bytes.length);
+                rowOutput.write(bytes);
+            }
+        }
+
+        /**
+         * Appends index of rows and completes header
+         * @throws IOException if file cannot be written
+         */
+        public void close() throws IOException {
+            try {
+                index.close();
+                // index is aligned to 8 bytes
+                while (position % 8 != 0) {
+                    data.writeByte(0);
+                    ++position;
+                }
+                InputStream input = new BufferedInputStream(new FileInputStream(indexFile));
+                try {
+                    byte[] buffer = new byte[8192];
+                    int length;
+                    while ((length = input.read(buffer)) > 0) {
+                        data.write(buffer, 0, length);
+                    }
+                } finally {
+                    input.close();
+                }
+                data.close();
+                RandomAccessFile output = new RandomAccessFile(file, "rw");
+                try {
+                    output.seek(headerLength - 12);
+                    output.writeInt(rowCount);
+                    output.writeLong(position);
+                } finally {
+                    output.close();
+                }
+            } finally {
+                data.close();
+                indexFile.delete();
+            }
+        }
+    }
+}
@@ -0,0 +1,121 @@
+package pl.com.kuznik;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Bounded cache of pages with least-recently-used eviction. Cache is limited
+ * both by number of pages and by their estimated size in bytes. Every clear()
+ * starts new generation of cache so pages built for older generation (e.g.
+ * prefetched in background before data changed) are never stored.
+ * @author Krzysztof Kuźnik <kmkuznik at gmail.com>
+ */
+class PageCache<K, P extends PageCache.Page> {
+
+    private final LinkedHashMap<K, P> pages = new LinkedHashMap<K, P>(16, 0.75f, true);
+    private int maxPages;
+    private long maxBytes;
+    private long generation = 0;
+
+    /**
+     * Creates new cache
+     * @param maxPages maximal number of cached pages
+     * @param maxBytes maximal estimated size of cached pages
+     */
+    PageCache(int maxPages, long maxBytes) {
+        this.maxPages = maxPages;
+        this.maxBytes = maxBytes;
+    }
+
+    synchronized void setLimits(int maxPages, long maxBytes) {
+        this.maxPages = maxPages;
+        this.maxBytes = maxBytes;
+        trim();
+    }
+
+    synchronized P get(K key) {
+        return pages.get(key);
+    }
+
+    synchronized boolean contains(K key) {
+        return pages.containsKey(key);
+    }
+
+    synchronized long getGeneration() {
+        return generation;
+    }
+
+    synchronized void put(K key, P page) {
+        pages.put(key, page);
+        trim();
+    }
+
+    /**
+     * Stores page only if cache was not cleared since generation was read
+     * @return true if page was stored
+     */
+    synchronized boolean put(K key, P page, long pageGeneration) {
+        if (pageGeneration != generation) {
+            return false;
+        }
+        put(key, page);
+        return true;
+    }
+
+    synchronized void remove(K key) {
+        pages.remove(key);
+    }
+
+    /**
+     * Removes pages and starts new generation, like clear() limited to some
+     * pages
+     * @param keys keys of pages to be removed
+     */
+    synchronized void removeAll(Collection<K> keys) {
+        pages.keySet().removeAll(keys);
+        ++generation;
+    }
+
+    synchronized List<K> getKeys() {
+        return new ArrayList<K>(pages.keySet());
+    }
+
+    synchronized void clear() {
+        pages.clear();
+        ++generation;
+    }
+
+    synchronized long getEstimatedSize() {
+        long size = 0;
+        for (P page : pages.values()) {
+            size += page.getEstimatedSize();
+        }
+        return size;
+    }
+
+    // evicts least recently used pages, byte limit never evicts the most
+    // recently used page
+    private void trim() {
+        long size = getEstimatedSize();
+        Iterator<Map.Entry<K, P>> eldest = pages.entrySet().iterator();
+        while (pages.size() > maxPages || (pages.size() > 1 && size > maxBytes)) {
+            size -= eldest.next().getValue().getEstimatedSize();
+            eldest.remove();
+        }
+    }
+
+    /**
+     * Page which can be stored in cache
+     */
+    interface Page {
+
+        /**
+         * @return estimated number of bytes occupied by page
+         */
+        public long getEstimatedSize();
+    }
+}
@@ -5,8 +5,24 @@ import com.vaadin.data.Item;
 import com.vaadin.data.Property;
 import com.vaadin.data.Property.ValueChangeEvent;
 import com.vaadin.data.util.IndexedContainer;
-import java.lang.reflect.Field;
+import java.util.AbstractList;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadFactory;
 
 /**
  * Instances of this class serve pages based on original container
@@ -14,10 +30,92 @@ import java.util.Collection;
  */
 public class PageContainerProvider {
 
+    /**
+     * Default maximal number of cached pages
+     */
+    public static final int DEFAULT_CACHED_PAGES = 8;
+    /**
+     * Default maximal estimated size of cached pages in bytes
+     */
+    public static final long DEFAULT_CACHED_BYTES = 8L * 1024 * 1024;
+    private static final int CACHED_SORT_INDEXES = 4;
     private final Container.Indexed dataContainer;
     private final int itemsPerPage;
     private int currentPageNumber = 0;
     private ProxyPageContainer currentContainer;
+    private PageContentListener pageContentListener;
+    private final PageCache<Integer, ProxyPageContainer> pageCache =
+            new PageCache<Integer, ProxyPageContainer>(DEFAULT_CACHED_PAGES, DEFAULT_CACHED_BYTES);
+    private Executor prefetchExecutor;
+    private Executor sortExecutor = SortIndex.getDefaultExecutor();
+    private WriteBehindQueue writeQueue;
+    private static Executor defaultLoadExecutor;
+    private Executor loadExecutor;
+    // page built in background by the latest loadPage() call
+    private FutureTask<ProxyPageContainer> pageLoad;
+    private int pageLoadNumber;
+    private long pageLoadGeneration;
+    private final DataContainerListener dataContainerListener = new DataContainerListener();
+    // sort indexes of recently used sort orders
+    private final LinkedHashMap<List<Object>, SortIndex> sortIndexes =
+            new LinkedHashMap<List<Object>, SortIndex>(16, 0.75f, true) {
+
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<List<Object>, SortIndex> eldest) {
+                    return size() > CACHED_SORT_INDEXES;
+                }
+            };
+    private Object[] sortPropertyIds = new Object[0];
+    private boolean[] sortAscending = new boolean[0];
+    // current sort order, also when rows are sorted by PageSource
+    private List<Object> sortOrder = Collections.emptyList();
+    private SharedPageCache sharedCache;
+    private Object sharedSourceKey;
+    private SortIndex sortIndex;
+    // incremented on every change of set of items in original container
+    private long dataVersion = 0;
+    // incremented on change of value whose cell is not known
+    private long valuesVersion = 0;
+    // incremented on change of value of property
+    private final HashMap<Object, Long> propertyVersions = new HashMap<Object, Long>();
+    // rows hidden on all pages, kept both as ids and as indexes in original
+    // container; indexes are found again by ids when they become unknown
+    private final Set<Object> hiddenIds = new HashSet<Object>();
+    // rows hidden by range of indexes or by values of property
+    private final RowBitmap hiddenRanges = new RowBitmap();
+    private final List<Object> hiddenPropertyIds = new ArrayList<Object>();
+    private final List<ValuePredicate> hiddenPredicates = new ArrayList<ValuePredicate>();
+    private final RowBitmap hiddenRows = new RowBitmap();
+    private boolean hiddenRowsValid = true;
+    // filters by property id and rows which do not match them, found when
+    // needed through indexes of filtered properties
+    private final LinkedHashMap<Object, RowFilter> filters = new LinkedHashMap<Object, RowFilter>();
+    private final HashMap<Object, FilterIndex> filterIndexes = new HashMap<Object, FilterIndex>();
+    private RowBitmap filteredRows;
+    // words of quick search, null if rows are not searched
+    private List<String> searchWords;
+    private List<Object> searchPropertyIds;
+    private SearchIndex searchIndex;
+    // running aggregates of numeric properties, created when first asked for
+    private final HashMap<Object, AggregateIndex> aggregates = new HashMap<Object, AggregateIndex>();
+    // rows of data container by item id, used when its indexOfId() may be
+    // slow; created when indexes of values need row which is not on current
+    // page and moved with rows inserted or removed one by one
+    private HashMap<Object, Integer> rowIndexes;
+    // true while listener of all values of data container is registered
+    private boolean valuesWatched = false;
+    // union of hidden and filtered rows, created when needed
+    private RowBitmap excludedRows;
+    // number of rows which are not excluded, -1 when it has to be counted;
+    // kept only for containers which report item set changes
+    private int visibleSize = -1;
+    // exact count of rows of PageSource with estimated size
+    private FutureTask<Integer> rowCount;
+    // positions of hidden rows in sorted order, created when needed
+    private RowBitmap hiddenPositions;
+    // positions before it are mapped in hiddenPositions
+    private int hiddenPositionsEnd;
+    private SortIndex hiddenPositionsIndex;
 
     /**
      * Creates new provider with dataContainer and itemsPerPage
@@ -27,6 +125,22 @@ public class PageContainerProvider {
     public PageContainerProvider(Container.Indexed dataContainer, int itemsPerPage) {
         this.dataContainer = dataContainer;
         this.itemsPerPage = itemsPerPage;
+        if (dataContainer instanceof PageSourceContainer && itemsPerPage > 0) {
+            // every page is fetched from source with single call
+            ((PageSourceContainer) dataContainer).setBlockSize(itemsPerPage);
+        }
+        if (dataContainer instanceof Container.ItemSetChangeNotifier) {
+            ((Container.ItemSetChangeNotifier) dataContainer).addListener(dataContainerListener);
+        }
+    }
+
+    /**
+     * Creates new provider serving pages fetched from pageSource
+     * @param pageSource
+     * @param itemsPerPage
+     */
+    public PageContainerProvider(PageSource pageSource, int itemsPerPage) {
+        this(new PageSourceContainer(pageSource, itemsPerPage), itemsPerPage);
     }
 
     /**
@@ -43,6 +157,9 @@ public class PageContainerProvider {
      * @return container representing one page (pageNumber) or null if pageNumber is not valid page
      */
     public Container getPageContainer(int pageNumber) {
+        if (writeQueue != null && pageNumber - 1 != currentPageNumber) {
+            writeQueue.flushLater();
+        }
         currentPageNumber = pageNumber - 1;
         if (!isPageAvailable(currentPageNumber)) {
             return null;
@@ -50,11 +167,239 @@ public class PageContainerProvider {
         if (currentContainer != null) {
             currentContainer.removeParentListener();
         }
-        currentContainer = new ProxyPageContainer(dataContainer, currentPageNumber);
+        currentContainer = pageCache.get(currentPageNumber);
+        if (currentContainer == null) {
+            currentContainer = takeLoadedPage(currentPageNumber);
+        }
+        if (currentContainer == null) {
+            currentContainer = new ProxyPageContainer(dataContainer, currentPageNumber);
+            pageCache.put(currentPageNumber, currentContainer);
+        }
+        currentContainer.activate();
+        prefetchPage(currentPageNumber + 1);
+        prefetchPage(currentPageNumber - 1);
 
         return currentContainer;
     }
 
+    /**
+     * Starts building page in background, so following getPageContainer() for
+     * this page returns at once. Page which is loaded for previous call is
+     * cancelled. Listener is notified in executor thread when page is ready.
+     * @param pageNumber number of page to load
+     * @param listener listener notified when page is loaded, not notified if
+     * page is ready already or load is cancelled
+     * @return true if page is ready already or there is no load executor, so
+     * getPageContainer() can be called at once
+     */
+    public boolean loadPage(int pageNumber, final PageLoadListener listener) {
+        final int number = pageNumber - 1;
+        if (loadExecutor == null || !isPageAvailable(number) || pageCache.contains(number)
+                || (number == currentPageNumber && currentContainer != null)) {
+            cancelPageLoad();
+            return true;
+        }
+        FutureTask<ProxyPageContainer> task;
+        synchronized (this) {
+            if (pageLoad != null && pageLoadNumber == number) {
+                return pageLoad.isDone();
+            }
+            cancelPageLoad();
+            task = new FutureTask<ProxyPageContainer>(new Callable<ProxyPageContainer>() {
+
+                public ProxyPageContainer call() {
+                    ProxyPageContainer page = new ProxyPageContainer(dataContainer, number);
+                    page.resolveAllIds();
+                    return page;
+                }
+            }) {
+
+                @Override
+                protected void done() {
+                    if (isCancelled()) {
+                        return;
+                    }
+                    try {
+                        get();
+                        listener.pageLoaded(number + 1);
+                    } catch (ExecutionException ex) {
+                        listener.pageLoadFailed(number + 1, ex.getCause());
+                    } catch (InterruptedException ex) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+            };
+            pageLoad = task;
+            pageLoadNumber = number;
+            pageLoadGeneration = pageCache.getGeneration();
+        }
+        loadExecutor.execute(task);
+        return false;
+    }
+
+    /**
+     * Cancels page being loaded by loadPage(). Its listener is not notified.
+     */
+    public synchronized void cancelPageLoad() {
+        if (pageLoad != null) {
+            pageLoad.cancel(true);
+            pageLoad = null;
+        }
+    }
+
+    // page loaded in background if it is still valid, null otherwise
+    private synchronized ProxyPageContainer takeLoadedPage(int number) {
+        if (pageLoad == null || pageLoadNumber != number || !pageLoad.isDone()) {
+            return null;
+        }
+        FutureTask<ProxyPageContainer> task = pageLoad;
+        pageLoad = null;
+        if (task.isCancelled() || pageLoadGeneration != pageCache.getGeneration()) {
+            return null; // data changed while page was built
+        }
+        try {
+            ProxyPageContainer page = task.get();
+            pageCache.put(number, page);
+            return page;
+        } catch (ExecutionException ex) {
+            return null; // built again in request thread
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            return null;
+        }
+    }
+
+    /**
+     * Sets executor used by loadPage() to build pages outside of request
+     * thread. Page is read from original container in executor thread, so it
+     * should be set only for containers which allow that.
+     * @param executor executor for loading pages or null to build pages in
+     * request thread only
+     */
+    public void setLoadExecutor(Executor executor) {
+        this.loadExecutor = executor;
+    }
+
+    /**
+     * @return shared executor for loading pages: virtual threads when JVM
+     * provides them, otherwise pool of daemon threads created on demand
+     */
+    public static synchronized Executor getDefaultLoadExecutor() {
+        if (defaultLoadExecutor == null) {
+            try {
+                // virtual threads are blocked cheaply by slow data sources
+                defaultLoadExecutor = (Executor) Executors.class.getMethod(
+                        "newVirtualThreadPerTaskExecutor").invoke(null);
+            } catch (Exception ex) {
+                defaultLoadExecutor = Executors.newCachedThreadPool(new ThreadFactory() {
+
+                    public Thread newThread(Runnable runnable) {
+                        Thread thread = new Thread(runnable, "RichTable page load");
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+            }
+        }
+        return defaultLoadExecutor;
+    }
+
+    /**
+     * Limits cache of recently visited pages
+     * @param maxPages maximal number of cached pages, 0 disables caching
+     * @param maxBytes maximal estimated size of cached pages in bytes
+     */
+    public void setPageCacheLimits(int maxPages, long maxBytes) {
+        pageCache.setLimits(maxPages, maxBytes);
+    }
+
+    /**
+     * Sets executor used to prepare pages adjacent to current one in
+     * background. Prefetching reads original container outside of request
+     * thread so it should be enabled only for containers which allow that.
+     * @param executor executor for prefetching or null to disable prefetching
+     */
+    public void setPrefetchExecutor(Executor executor) {
+        this.prefetchExecutor = executor;
+    }
+
+    /**
+     * Sets executor used for sorting large containers in parallel. Executor
+     * threads read only values copied from container. By default shared pool
+     * with one thread per processor is used.
+     * @param executor executor for sorting or null to sort in calling thread
+     */
+    public void setSortExecutor(Executor executor) {
+        this.sortExecutor = executor;
+    }
+
+    /**
+     * Sets queue through which changes of cells made on pages are written to
+     * original container later, in batches. Queued values are shown on pages
+     * until they are written.
+     * @param queue write-behind queue or null to write changes immediately
+     */
+    public void setWriteBehindQueue(WriteBehindQueue queue) {
+        this.writeQueue = queue;
+    }
+
+    /**
+     * Releases resources held by provider: cached pages and listeners
+     * registered in original container. Queued changes are written before.
+     * Provider should not be used afterwards.
+     */
+    public void release() {
+        if (writeQueue != null) {
+            writeQueue.flush();
+        }
+        if (dataContainer instanceof Container.ItemSetChangeNotifier) {
+            ((Container.ItemSetChangeNotifier) dataContainer).removeListener(dataContainerListener);
+        }
+        synchronized (this) {
+            if (valuesWatched) {
+                watchValues(false);
+            }
+        }
+        if (currentContainer != null) {
+            currentContainer.removeParentListener();
+        }
+        prefetchExecutor = null;
+        cancelPageLoad();
+        synchronized (this) {
+            if (rowCount != null) {
+                rowCount.cancel(true);
+                rowCount = null;
+            }
+        }
+        pageCache.clear();
+    }
+
+    private void prefetchPage(int pageNumber) {
+        if (prefetchExecutor != null && pageNumber >= 0 && isPageAvailable(pageNumber)
+                && !pageCache.contains(pageNumber)) {
+            prefetchExecutor.execute(new PagePrefetcher(pageNumber, pageCache.getGeneration()));
+        }
+    }
+
+    // pages showing rows from position on are no longer valid
+    private void invalidatePagesFrom(int position) {
+        List<Integer> stale = new ArrayList<Integer>();
+        for (Integer pageNumber : pageCache.getKeys()) {
+            if ((pageNumber + 1) * itemsPerPage > position && pageNumber != currentPageNumber) {
+                stale.add(pageNumber);
+            }
+        }
+        pageCache.removeAll(stale);
+    }
+
+    // pages other than current one are no longer valid
+    private void invalidatePageCache() {
+        pageCache.clear();
+        if (currentContainer != null) {
+            pageCache.put(currentPageNumber, currentContainer);
+        }
+    }
+
     /**
      *
      * @return number of last page (1..MAX_PAGE)
@@ -68,196 +413,2062 @@ public class PageContainerProvider {
      * @return total number of pages
      */
     private int getNumberOfPages() {
-        if (itemsPerPage <= 0 || dataContainer.size() == 0) {
+        int size = getVisibleSize();
+        if (itemsPerPage <= 0 || size == 0) {
             return 1;
         } else {
-            return (dataContainer.size() / itemsPerPage) + (dataContainer.size() % itemsPerPage > 0 ? 1 : 0);
+            return (size / itemsPerPage) + (size % itemsPerPage > 0 ? 1 : 0);
+        }
+    }
+
+    // number of rows which are not hidden
+    private synchronized int getVisibleSize() {
+        if (visibleSize >= 0) {
+            return visibleSize;
+        }
+        int size = dataContainer.size() - getExcludedRows().size();
+        if (dataContainer instanceof Container.ItemSetChangeNotifier) {
+            // size of container may be expensive, it is counted again only
+            // after item set change or change of hidden rows
+            visibleSize = size;
         }
+        return size;
     }
 
     /**
-     * Hides rows supplied in parameter
-     * @param rows rows to be hidden
+     * @return true if rows are fetched from PageSource whose number of rows
+     * is estimated yet, so number of pages is approximate
+     * @see PageSourceContainer#setSizeEstimation(boolean)
      */
-    public void hideRows(Collection<?> rows) {
-        currentContainer.hideRows(rows);
+    public boolean isRowCountEstimated() {
+        return dataContainer instanceof PageSourceContainer
+                && ((PageSourceContainer) dataContainer).isSizeEstimated();
     }
 
     /**
-     * shows all hidden rows
+     * Counts rows of PageSource with estimated number of rows in load
+     * executor. Exact count is not applied by this call; listener should
+     * pass it to applyRowCount() in thread which is allowed to change
+     * components. Without load executor rows are counted and applied at once.
+     * @param listener listener notified in executor thread when rows are
+     * counted
+     * @return true if rows are being counted in background, false if number
+     * of rows is exact already
      */
-    public void showHiddenRows() {
-        currentContainer.showHiddenRows();
+    public boolean countRows(final RowCountListener listener) {
+        if (!isRowCountEstimated()) {
+            return false;
+        }
+        final PageSource source = ((PageSourceContainer) dataContainer).getPageSource();
+        if (loadExecutor == null) {
+            applyRowCount(source.count());
+            return false;
+        }
+        FutureTask<Integer> task;
+        synchronized (this) {
+            if (rowCount != null) {
+                return true;
+            }
+            task = new FutureTask<Integer>(new Callable<Integer>() {
+
+                public Integer call() {
+                    return source.count();
+                }
+            }) {
+
+                @Override
+                protected void done() {
+                    if (isCancelled()) {
+                        return;
+                    }
+                    try {
+                        listener.rowsCounted(get());
+                    } catch (ExecutionException ex) {
+                        synchronized (PageContainerProvider.this) {
+                            rowCount = null;
+                        }
+                        listener.rowCountFailed(ex.getCause());
+                    } catch (InterruptedException ex) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+            };
+            rowCount = task;
+        }
+        loadExecutor.execute(task);
+        return true;
     }
 
-    private boolean isPageAvailable(int pageNumber) {
-        return pageNumber < getNumberOfPages();
+    /**
+     * Replaces estimated number of rows with exact count found by
+     * countRows(). Pages are built again.
+     * @param count exact number of rows
+     */
+    public void applyRowCount(int count) {
+        synchronized (this) {
+            rowCount = null;
+        }
+        if (isRowCountEstimated()) {
+            // item set change of container invalidates pages
+            ((PageSourceContainer) dataContainer).updateSize(count);
+        }
     }
 
     /**
-     * Performs sorting on underlying container if it is possible
-     * @param sortContainerPropertyId sorting key
-     * @param sortAscending true if ascending, false otherwise
-     *
-     * @throws UnsupportedOperationException if underlying container does not support sorting
+     * Hides rows supplied in parameter on all pages. Following rows move to
+     * their place, so pages stay full.
+     * @param rows rows to be hidden
      */
-    void sort(Object sortContainerPropertyId, boolean sortAscending) {
-        final Container c = dataContainer;
-        if (c instanceof Container.Sortable) {
-            ((Container.Sortable) c).sort(
-                    new Object[]{sortContainerPropertyId},
-                    new boolean[]{sortAscending});
-        } else if (c != null) {
-            throw new UnsupportedOperationException(
-                    "Underlying Data does not allow sorting");
+    public void hideRows(Collection<?> rows) {
+        List<Integer> indexes = new ArrayList<Integer>();
+        for (Object itemId : rows) {
+            // rows are usually on current page, which knows their indexes
+            int index = currentContainer == null ? -1 : currentContainer.getContainerIndexOf(itemId);
+            indexes.add(index >= 0 ? index : dataContainer.indexOfId(itemId));
+        }
+        boolean changed = false;
+        synchronized (this) {
+            RowBitmap hidden = getHiddenRows();
+            Iterator<?> itemIds = rows.iterator();
+            for (Integer index : indexes) {
+                Object itemId = itemIds.next();
+                if (index >= 0 && hidden.add(index)) {
+                    hiddenIds.add(itemId);
+                    changed = true;
+                }
+            }
+            hiddenRowsChanged();
+        }
+        if (changed && currentContainer != null) {
+            currentContainer.invalidate();
         }
     }
 
     /**
-     * class responsible for synchronizing data between current page and
-     * original container
+     * Hides rows with indexes from given range in data container on all
+     * pages. Range is kept as whole, so hiding many rows costs little memory.
+     * It moves with rows inserted or removed one by one (RowChangeEvent),
+     * other changes of data container leave it at the same indexes.
+     * @param from index of first row to be hidden
+     * @param to index after last row to be hidden
      */
-    private class DataSynchronizer implements Property.ValueChangeListener {
+    public void hideRows(int from, int to) {
+        from = Math.max(from, 0);
+        to = Math.min(to, dataContainer.size());
+        if (from >= to) {
+            return;
+        }
+        boolean changed;
+        synchronized (this) {
+            RowBitmap hidden = getHiddenRows();
+            hiddenRanges.addRange(from, to);
+            changed = hidden.addRange(from, to) > 0;
+            hiddenRowsChanged();
+        }
+        if (changed && currentContainer != null) {
+            currentContainer.invalidate();
+        }
+    }
 
-        private Container eventDestination;
+    /**
+     * Hides rows for which value of property satisfies predicate on all
+     * pages. Rows are checked in single pass over data container and
+     * consecutive matching rows are kept as ranges. Rows added later are
+     * checked as well.
+     * @param propertyId id of property which is checked
+     * @param predicate condition of rows to be hidden
+     */
+    public void hideRows(Object propertyId, ValuePredicate predicate) {
+        RowBitmap matching = new RowBitmap();
+        int start = -1;
+        int index = 0;
+        for (Object itemId : dataContainer.getItemIds()) {
+            if (matches(itemId, propertyId, predicate)) {
+                if (start < 0) {
+                    start = index;
+                }
+            } else if (start >= 0) {
+                matching.addRange(start, index);
+                start = -1;
+            }
+            ++index;
+        }
+        if (start >= 0) {
+            matching.addRange(start, index);
+        }
+        boolean changed;
+        synchronized (this) {
+            hiddenPropertyIds.add(propertyId);
+            hiddenPredicates.add(predicate);
+            RowBitmap hidden = getHiddenRows();
+            int size = hidden.size();
+            hidden.addAll(matching);
+            changed = hidden.size() != size;
+            hiddenRowsChanged();
+        }
+        if (changed && currentContainer != null) {
+            currentContainer.invalidate();
+        }
+    }
 
-        public DataSynchronizer(Container eventDestination) {
-            this.eventDestination = eventDestination;
+    private boolean matches(Object itemId, Object propertyId, ValuePredicate predicate) {
+        Property property = dataContainer.getContainerProperty(itemId, propertyId);
+        return predicate.evaluate(property == null ? null : property.getValue());
+    }
+
+    // checks row against predicates of hidden rows
+    private boolean matchesHiddenPredicate(Object itemId) {
+        for (int i = 0; i < hiddenPredicates.size(); ++i) {
+            if (matches(itemId, hiddenPropertyIds.get(i), hiddenPredicates.get(i))) {
+                return true;
+            }
         }
+        return false;
+    }
 
-        public void valueChange(ValueChangeEvent event) {
-            Property property = event.getProperty();
-            try {
-                // hack with reflection necessary to access information on
-                // propertyId and itemId. It is safe on IndexedContainer
-                Field itemIdField = property.getClass().getDeclaredField("itemId");
-                itemIdField.setAccessible(true);
-                Object itemId = itemIdField.get(property);
-                Field propertyIdField = property.getClass().getDeclaredField("propertyId");
-                propertyIdField.setAccessible(true);
-                Object propertyId = propertyIdField.get(property);
-                Item item = eventDestination.getItem(itemId);
-                if (item != null) {
-                    Object value = item.getItemProperty(propertyId).getValue();
-                    if (value == null) {
-                        if (value != property.getValue()) {
-                            item.getItemProperty(propertyId).setValue(property.getValue());
-                        }
-                    } else if (!value.equals(property.getValue())) {
-                        item.getItemProperty(propertyId).setValue(property.getValue());
-                    }
-                }
-            } catch (IllegalArgumentException ex) {
-                throw new UnsupportedOperationException("Error while trying to store data", ex);
-            } catch (IllegalAccessException ex) {
-                throw new UnsupportedOperationException("Error while trying to store data", ex);
-            } catch (NoSuchFieldException ex) {
-                throw new UnsupportedOperationException("Error while trying to store data", ex);
-            } catch (SecurityException ex) {
-                throw new UnsupportedOperationException("Error while trying to store data", ex);
+    // true if any row was hidden since rows were shown last time
+    private boolean isHidingRows() {
+        return !hiddenIds.isEmpty() || !hiddenRanges.isEmpty() || !hiddenPredicates.isEmpty();
+    }
+
+    /**
+     * shows all hidden rows
+     */
+    public void showHiddenRows() {
+        synchronized (this) {
+            if (!isHidingRows()) {
+                return;
             }
+            hiddenIds.clear();
+            hiddenRanges.clear();
+            hiddenPropertyIds.clear();
+            hiddenPredicates.clear();
+            hiddenRows.clear();
+            hiddenRowsValid = true;
+            hiddenRowsChanged();
+        }
+        if (currentContainer != null) {
+            currentContainer.invalidate();
         }
     }
 
     /**
-     * instances represent current page
+     * Shows on pages only rows whose value of property equals given value.
+     * Filters of different properties are combined, filter replaces previous
+     * filter of the same property. Rows are found through hash index of
+     * property, built once for current data, so changing filter does not
+     * read data container.
+     * @param propertyId id of filtered property
+     * @param value value rows must have
+     * @throws UnsupportedOperationException if rows are fetched from
+     * PageSource
      */
-    private class ProxyPageContainer extends IndexedContainer {
+    public void setFilter(Object propertyId, Object value) {
+        setFilter(propertyId, new RowFilter(value, value, true));
+    }
 
-        private Container.Indexed parent = null;
-        private DataSynchronizer synchronizer;
+    /**
+     * Shows on pages only rows whose value of property is in given range.
+     * Rows are found by binary search in sort index of property, which is
+     * shared with sorting by that property.
+     * @param propertyId id of filtered property
+     * @param from smallest value rows may have or null for no lower bound
+     * @param to greatest value rows may have or null for no upper bound
+     * @throws UnsupportedOperationException if rows are fetched from
+     * PageSource
+     */
+    public void setRangeFilter(Object propertyId, Object from, Object to) {
+        setFilter(propertyId, new RowFilter(from, to, false));
+    }
 
-        public ProxyPageContainer(Container.Indexed parent, int pageNumber) {
-            this.parent = parent;
-            for (Object object : parent.getContainerPropertyIds()) {
-                super.addContainerProperty(object, parent.getType(object), null);
-            }
-            copyMultipleItemsFromParent(firstRowIdx(pageNumber), lastRowIdx(pageNumber));
-            addListener((Property.ValueChangeListener) new DataSynchronizer(parent));
-            synchronizer = new DataSynchronizer(this);
-            if (parent instanceof Property.ValueChangeNotifier) {
-                ((Property.ValueChangeNotifier) parent).addListener((Property.ValueChangeListener) synchronizer);
+    private void setFilter(Object propertyId, RowFilter filter) {
+        if (dataContainer instanceof PageSourceContainer) {
+            throw new UnsupportedOperationException("Rows fetched from PageSource cannot be filtered.");
+        }
+        synchronized (this) {
+            filters.put(propertyId, filter);
+            filteredRows = null;
+            hiddenRowsChanged();
+            updateValuesWatching();
+        }
+        if (currentContainer != null) {
+            currentContainer.invalidate();
+        }
+    }
+
+    /**
+     * Removes filter of property
+     * @param propertyId id of filtered property
+     */
+    public void removeFilter(Object propertyId) {
+        synchronized (this) {
+            if (filters.remove(propertyId) == null) {
+                return;
             }
+            filteredRows = null;
+            hiddenRowsChanged();
+            updateValuesWatching();
         }
+        if (currentContainer != null) {
+            currentContainer.invalidate();
+        }
+    }
 
-        private void copySingleItemFromParent(Object itemId) {
-            Item item = parent.getItem(itemId);
-            Item newItem = super.addItem(itemId);
-            for (Object property : item.getItemPropertyIds()) {
-                newItem.getItemProperty(property).setValue(
-                        item.getItemProperty(property).getValue());
+    /**
+     * Removes filters of all properties
+     */
+    public void removeAllFilters() {
+        synchronized (this) {
+            if (filters.isEmpty()) {
+                return;
             }
+            filters.clear();
+            filteredRows = null;
+            hiddenRowsChanged();
+            updateValuesWatching();
+        }
+        if (currentContainer != null) {
+            currentContainer.invalidate();
         }
+    }
 
-        private void copyMultipleItemsFromParent(int start, int stop) {
-            for (int i = start; i < stop; ++i) {
-                Object id = parent.getIdByIndex(i);
-                copySingleItemFromParent(id);
+    /**
+     * Shows on pages only rows containing every word of query in values of
+     * given properties. Words are matched with any part of words of values,
+     * ignoring case. Rows are found through inverted index of words, which is
+     * built once and then updated as values change, so typing query does not
+     * read cells of data container.
+     * @param query searched words, null or blank to show all rows
+     * @param propertyIds ids of searched properties
+     * @throws UnsupportedOperationException if rows are fetched from
+     * PageSource
+     */
+    public void setSearchQuery(String query, Collection<?> propertyIds) {
+        List<String> words = query == null ? Collections.<String>emptyList() : SearchIndex.tokenize(query);
+        if (!words.isEmpty() && dataContainer instanceof PageSourceContainer) {
+            throw new UnsupportedOperationException("Rows fetched from PageSource cannot be searched.");
+        }
+        synchronized (this) {
+            if (words.isEmpty() && searchWords == null) {
+                return;
             }
+            searchWords = words.isEmpty() ? null : words;
+            searchPropertyIds = new ArrayList<Object>(propertyIds);
+            filteredRows = null;
+            hiddenRowsChanged();
+            updateValuesWatching();
+        }
+        if (currentContainer != null) {
+            currentContainer.invalidate();
         }
+    }
 
-        private int firstRowIdx(int page) {
-            return page * itemsPerPage;
+    // index of searched properties, built again when it could be outdated
+    private SearchIndex getSearchIndex() {
+        if (searchIndex == null || !searchIndex.getPropertyIds().equals(searchPropertyIds)) {
+            searchIndex = new SearchIndex(dataContainer, searchPropertyIds);
         }
+        return searchIndex;
+    }
 
-        private int lastRowIdx(int page) {
-            return Math.min((page + 1) * itemsPerPage, parent.size());
+    /**
+     * Listens to all values of data container only while something built
+     * from values is kept: aggregates, search index, filter or sort indexes.
+     * Otherwise changes of values reach only synchronizers of current page.
+     */
+    private synchronized void updateValuesWatching() {
+        boolean watched = !aggregates.isEmpty() || searchWords != null || !filters.isEmpty()
+                || sortPropertyIds.length > 0;
+        if (watched != valuesWatched) {
+            watchValues(watched);
         }
+    }
 
-        public void hideRows(Collection<?> rows) {
-            for (Object item : rows) {
-                super.removeItem(item); // super to omit overriden method
+    private synchronized void watchValues(boolean watched) {
+        valuesWatched = watched;
+        if (!watched) {
+            // indexes would not notice changes of values any more
+            searchIndex = null;
+            sortIndexes.clear();
+            filterIndexes.clear();
+            rowIndexes = null;
+        }
+        if (dataContainer instanceof CellChangeNotifier) {
+            CellChangeNotifier notifier = (CellChangeNotifier) dataContainer;
+            if (watched) {
+                notifier.addListener((CellChangeNotifier.CellChangeListener) dataContainerListener);
+            } else {
+                notifier.removeListener((CellChangeNotifier.CellChangeListener) dataContainerListener);
+            }
+        } else if (dataContainer instanceof Property.ValueChangeNotifier) {
+            Property.ValueChangeNotifier notifier = (Property.ValueChangeNotifier) dataContainer;
+            if (watched) {
+                notifier.addListener((Property.ValueChangeListener) dataContainerListener);
+            } else {
+                notifier.removeListener((Property.ValueChangeListener) dataContainerListener);
             }
         }
+    }
 
-        public void showHiddenRows() {
-            super.removeAllItems(); // super to omit overriden method
-            copyMultipleItemsFromParent(firstRowIdx(currentPageNumber), lastRowIdx(currentPageNumber));
+    /**
+     * Updates indexes built from values after cells of data container changed
+     * @param itemId id of changed row or null if changed cell is not known
+     * @param propertyIds ids of changed properties or null if they are not
+     * known
+     */
+    private void valuesChanged(Object itemId, Collection<?> propertyIds) {
+        boolean refiltered;
+        synchronized (this) {
+            if (!valuesWatched) {
+                return;
+            }
+            if (itemId == null || propertyIds == null) {
+                ++valuesVersion;
+            } else {
+                for (Object propertyId : propertyIds) {
+                    Long version = propertyVersions.get(propertyId);
+                    propertyVersions.put(propertyId, version == null ? 1 : version + 1);
+                }
+            }
+            if (itemId == null) {
+                indexedValuesChanged();
+            } else {
+                indexedCellChanged(itemId, propertyIds);
+            }
+            // changed row may start or stop matching filters
+            refiltered = filteredRows != null && (propertyIds == null
+                    || !Collections.disjoint(propertyIds, filters.keySet())
+                    || (searchWords != null && !Collections.disjoint(propertyIds, searchPropertyIds)));
+            if (refiltered) {
+                filteredRows = null;
+                hiddenRowsChanged();
+            }
+        }
+        if (refiltered && currentContainer != null) {
+            currentContainer.invalidate();
         }
+        fireAggregatesChanged();
+    }
 
-        @Override
-        public boolean removeItem(Object itemId) throws UnsupportedOperationException {
-            return parent.removeItem(itemId);
+    // some value changed but its cell is unknown, so indexes of values read
+    // container again when they are needed
+    private void indexedValuesChanged() {
+        searchIndex = null;
+        for (AggregateIndex aggregate : aggregates.values()) {
+            aggregate.invalidate();
         }
+    }
 
-        @Override
-        public boolean removeContainerProperty(Object propertyId) throws UnsupportedOperationException {
-            super.removeContainerProperty(propertyId);
-            return parent.removeContainerProperty(propertyId);
+    // notified outside of lock, listener reads aggregates again
+    private void fireAggregatesChanged() {
+        PageContentListener listener;
+        synchronized (this) {
+            if (aggregates.isEmpty()) {
+                return;
+            }
+            listener = pageContentListener;
+        }
+        if (listener != null) {
+            listener.aggregatesChanged();
         }
+    }
 
-        @Override
-        public boolean removeAllItems() throws UnsupportedOperationException {
-            return parent.removeAllItems();
+    /**
+     * Updates search index and aggregates after value of cell changed
+     * @param itemId id of changed row
+     * @param propertyIds ids of changed properties or null if they are not
+     * known
+     */
+    private synchronized void indexedCellChanged(Object itemId, Collection<?> propertyIds) {
+        if (searchIndex == null && aggregates.isEmpty()) {
+            return;
+        }
+        int row = getRowOf(itemId);
+        if (row < 0) {
+            indexedValuesChanged();
+            return;
+        }
+        if (searchIndex != null && (propertyIds == null
+                || !Collections.disjoint(propertyIds, searchIndex.getPropertyIds()))) {
+            searchIndex.update(row, itemId);
         }
+        for (Map.Entry<Object, AggregateIndex> aggregate : aggregates.entrySet()) {
+            if (propertyIds == null || propertyIds.contains(aggregate.getKey())) {
+                aggregate.getValue().cellChanged(row, itemId);
+            }
+        }
+    }
 
-        @Override
-        public Object addItem() throws UnsupportedOperationException {
-            if (size() < itemsPerPage) {
-                super.addItem(); // only when current page requires update
+    /**
+     * Moves rows following single inserted or removed row in map of rows, so
+     * it is not built again from data container
+     * @param index index of added row or index removed row had
+     * @param addedId id of added row, null if row was removed
+     * @param added true if row was added, false if it was removed
+     */
+    private void shiftRowIndexes(int index, Object addedId, boolean added) {
+        if (rowIndexes.size() != dataContainer.size() + (added ? -1 : 1)) {
+            // event does not match known rows
+            rowIndexes = null;
+            return;
+        }
+        if (!added || index < rowIndexes.size()) {
+            Iterator<Map.Entry<Object, Integer>> entries = rowIndexes.entrySet().iterator();
+            while (entries.hasNext()) {
+                Map.Entry<Object, Integer> entry = entries.next();
+                int row = entry.getValue();
+                if (row == index && !added) {
+                    entries.remove();
+                } else if (row >= index) {
+                    entry.setValue(added ? row + 1 : row - 1);
+                }
             }
-            return parent.addItem();
         }
+        if (added) {
+            rowIndexes.put(addedId, index);
+        }
+    }
 
-        @Override
-        public Item addItem(Object itemId) throws UnsupportedOperationException {
-            if (size() < itemsPerPage) {
-                super.addItem(itemId); // only when current page requires update
+    // index of row in data container, -1 if it is not there
+    private int getRowOf(Object itemId) {
+        if (dataContainer instanceof ColumnarContainer) {
+            // rows are hashed by container itself
+            return dataContainer.indexOfId(itemId);
+        }
+        if (currentContainer != null && currentContainer.isMember(itemId)) {
+            // rows of current page are known without map of all rows
+            return currentContainer.getContainerIndexOf(itemId);
+        }
+        if (rowIndexes == null || rowIndexes.size() != dataContainer.size()) {
+            rowIndexes = new HashMap<Object, Integer>();
+            int row = 0;
+            for (Object id : dataContainer.getItemIds()) {
+                rowIndexes.put(id, row++);
             }
-            return parent.addItem(itemId);
         }
+        Integer row = rowIndexes.get(itemId);
+        return row == null ? -1 : row;
+    }
 
-        @Override
-        public boolean addContainerProperty(Object propertyId, Class<?> type, Object defaultValue)
-                throws UnsupportedOperationException {
-            super.addContainerProperty(propertyId, type, defaultValue);
-            return parent.addContainerProperty(propertyId, type, defaultValue);
+    /**
+     * Returns aggregates of numeric property over all rows of data container,
+     * including hidden and filtered ones. Values are read once, then kept up
+     * to date with changes of cells and with rows inserted or removed one by
+     * one, so later calls do not read container again.
+     * @param propertyId id of numeric property
+     * @return aggregates of all rows
+     * @throws UnsupportedOperationException if rows are fetched from
+     * PageSource
+     */
+    public synchronized ColumnAggregate getAggregate(Object propertyId) {
+        return getAggregateIndex(propertyId).getTotal();
+    }
+
+    /**
+     * @param propertyId id of numeric property
+     * @return aggregates of rows of current page
+     * @throws UnsupportedOperationException if rows are fetched from
+     * PageSource
+     */
+    public synchronized ColumnAggregate getPageAggregate(Object propertyId) {
+        AggregateIndex aggregate = getAggregateIndex(propertyId);
+        return aggregate.getAggregate(currentContainer == null ? new int[0] : currentContainer.getContainerIndexes());
+    }
+
+    /**
+     * Stops keeping aggregates of property up to date
+     * @param propertyId id of numeric property
+     */
+    public synchronized void removeAggregate(Object propertyId) {
+        aggregates.remove(propertyId);
+        updateValuesWatching();
+    }
+
+    private AggregateIndex getAggregateIndex(Object propertyId) {
+        if (dataContainer instanceof PageSourceContainer) {
+            throw new UnsupportedOperationException("Rows fetched from PageSource cannot be aggregated.");
         }
+        AggregateIndex aggregate = aggregates.get(propertyId);
+        if (aggregate == null) {
+            aggregate = new AggregateIndex(dataContainer, propertyId);
+            aggregates.put(propertyId, aggregate);
+            updateValuesWatching();
+        }
+        return aggregate;
+    }
 
-        // called before page change to remove unnecessary listener from parent
-        private void removeParentListener() {
-            if (parent instanceof Property.ValueChangeNotifier) {
-                ((Property.ValueChangeNotifier) parent).removeListener(synchronizer);
+    /**
+     * @param itemId id of row of data container
+     * @return number of page which shows row or -1 if row is not shown on
+     * any page
+     */
+    public synchronized int getPageNumberOf(Object itemId) {
+        int position = getPosition(dataContainer.indexOfId(itemId), getVisibleSize());
+        return position < 0 ? -1 : position / itemsPerPage + 1;
+    }
+
+    /**
+     * @return number of rows which do not match filters
+     */
+    public synchronized int getFilteredRowsCount() {
+        RowBitmap filtered = getFilteredRows();
+        return filtered == null ? 0 : filtered.size();
+    }
+
+    // rows not matching filters, null if there are no filters
+    private synchronized RowBitmap getFilteredRows() {
+        if (!isFiltering()) {
+            return null;
+        }
+        if (filteredRows == null) {
+            int size = dataContainer.size();
+            filteredRows = new RowBitmap();
+            for (Map.Entry<Object, RowFilter> filter : filters.entrySet()) {
+                filteredRows.addComplement(getMatchingRows(filter.getKey(), filter.getValue()), size);
+            }
+            if (searchWords != null) {
+                SearchIndex index = getSearchIndex();
+                for (String word : searchWords) {
+                    filteredRows.addComplement(index.getRows(word), size);
+                }
+            }
+        }
+        return filteredRows;
+    }
+
+    private boolean isFiltering() {
+        return !filters.isEmpty() || searchWords != null;
+    }
+
+    private RowBitmap getMatchingRows(Object propertyId, RowFilter filter) {
+        if (filter.equality) {
+            FilterIndex index = filterIndexes.get(propertyId);
+            long version = getValuesVersion(new Object[]{propertyId});
+            if (index == null || index.getVersion() != version) {
+                index = new FilterIndex(dataContainer, propertyId, version);
+                filterIndexes.put(propertyId, index);
+            }
+            if (index.isHashed()) {
+                return index.getRows(filter.from);
+            }
+        }
+        SortIndex index = getSortIndex(new Object[]{propertyId}, new boolean[]{true});
+        // null bound of range means no bound, nulls themselves are left out
+        int from = filter.from == null && !filter.equality
+                ? index.findPosition(null, true) : index.findPosition(filter.from, false);
+        int to = filter.to == null && !filter.equality ? index.size() : index.findPosition(filter.to, true);
+        RowBitmap matching = new RowBitmap();
+        matching.addUnsorted(index.getRows(from, Math.max(from, to)));
+        return matching;
+    }
+
+    /**
+     * @return number of hidden rows
+     */
+    public int getHiddenRowsCount() {
+        return getHiddenRows().size();
+    }
+
+    // hidden rows as indexes in original container
+    private synchronized RowBitmap getHiddenRows() {
+        if (!hiddenRowsValid) {
+            hiddenRows.clear();
+            // ranges are kept as indexes, so they stay where they were
+            hiddenRanges.removeFrom(dataContainer.size());
+            hiddenRows.addAll(hiddenRanges);
+            if (dataContainer instanceof PageSourceContainer) {
+                // finding rows again would fetch all of them
+                hiddenIds.clear();
+                hiddenPropertyIds.clear();
+                hiddenPredicates.clear();
+            } else if (!hiddenIds.isEmpty() || !hiddenPredicates.isEmpty()) {
+                Set<Object> found = new HashSet<Object>();
+                int index = 0;
+                for (Object itemId : dataContainer.getItemIds()) {
+                    if (hiddenIds.contains(itemId)) {
+                        hiddenRows.add(index);
+                        found.add(itemId);
+                    } else if (matchesHiddenPredicate(itemId)) {
+                        hiddenRows.add(index);
+                    }
+                    ++index;
+                }
+                hiddenIds.retainAll(found);
+            }
+            hiddenRowsValid = true;
+            hiddenRowsChanged();
+        }
+        return hiddenRows;
+    }
+
+    // rows left out of pages: hidden rows and rows not matching filters
+    private synchronized RowBitmap getExcludedRows() {
+        RowBitmap hidden = getHiddenRows();
+        RowBitmap filtered = getFilteredRows();
+        if (filtered == null) {
+            return hidden;
+        }
+        if (excludedRows == null) {
+            excludedRows = new RowBitmap();
+            excludedRows.addAll(hidden);
+            excludedRows.addAll(filtered);
+        }
+        return excludedRows;
+    }
+
+    private synchronized void hiddenRowsChanged() {
+        hiddenPositions = null;
+        excludedRows = null;
+        visibleSize = -1;
+    }
+
+    /**
+     * Returns excluded rows as positions in order of pages. With sort index
+     * only positions of sorted prefix are known; prefix is extended (and
+     * sorted) until it contains given number of visible rows, so rows beyond
+     * visible pages are not sorted.
+     * @param count number of first visible rows whose positions are needed
+     * @return excluded positions, complete at least for positions of count
+     * first visible rows
+     */
+    private synchronized RowBitmap getHiddenPositions(int count) {
+        RowBitmap hidden = getExcludedRows();
+        SortIndex index = getSortIndex();
+        if (index == null || hidden.isEmpty()) {
+            return hidden;
+        }
+        if (hiddenPositions == null || hiddenPositionsIndex != index) {
+            hiddenPositions = new RowBitmap();
+            hiddenPositionsEnd = 0;
+            hiddenPositionsIndex = index;
+        }
+        int size = index.size();
+        while (hiddenPositionsEnd < size && hiddenPositionsEnd - hiddenPositions.size() < count) {
+            int missing = count - (hiddenPositionsEnd - hiddenPositions.size());
+            int end = Math.min(size, Math.max(hiddenPositionsEnd + missing, 2 * hiddenPositionsEnd));
+            int[] rows = index.getRows(hiddenPositionsEnd, end);
+            for (int i = 0; i < rows.length; ++i) {
+                if (hidden.contains(rows[i])) {
+                    hiddenPositions.add(hiddenPositionsEnd + i);
+                }
+            }
+            hiddenPositionsEnd = end;
+        }
+        return hiddenPositions;
+    }
+
+    // number of positions which contain count first visible rows
+    private static int getPositionCount(RowBitmap hidden, int count) {
+        return hidden.isEmpty() || count == 0 ? count : hidden.selectAbsent(count - 1) + 1;
+    }
+
+    /**
+     * Writes values of several cells of one row at once. Current page reports
+     * them as single change, so they are rendered with single repaint.
+     * @param itemId id of changed row
+     * @param values new values by property id
+     */
+    public void commitRow(Object itemId, Map<?, ?> values) {
+        if (currentContainer != null) {
+            currentContainer.commitRow(itemId, values);
+        } else if (writeQueue != null) {
+            writeQueue.putAll(itemId, values);
+        } else if (dataContainer instanceof ColumnarContainer) {
+            ((ColumnarContainer) dataContainer).setValues(itemId, values);
+        } else {
+            for (Map.Entry<?, ?> entry : values.entrySet()) {
+                Property property = dataContainer.getContainerProperty(itemId, entry.getKey());
+                if (property != null) {
+                    property.setValue(entry.getValue());
+                }
+            }
+        }
+    }
+
+    /**
+     * Sets listener notified when cells of current page change. Listener is
+     * notified only once until changes are committed with commitPendingChanges()
+     * @param listener listener to be notified
+     */
+    void setPageContentListener(PageContentListener listener) {
+        this.pageContentListener = listener;
+    }
+
+    /**
+     * Marks changes collected on current page as handled
+     * @return true if any cell of current page changed since last call
+     */
+    boolean commitPendingChanges() {
+        return currentContainer != null && currentContainer.commitPendingChanges();
+    }
+
+    private boolean isPageAvailable(int pageNumber) {
+        return pageNumber < getNumberOfPages();
+    }
+
+    /**
+     * Sorts pages by given property
+     * @param sortContainerPropertyId sorting key
+     * @param sortAscending true if ascending, false otherwise
+     */
+    void sort(Object sortContainerPropertyId, boolean sortAscending) {
+        sort(new Object[]{sortContainerPropertyId}, new boolean[]{sortAscending});
+    }
+
+    /**
+     * Sorts pages by given properties. Original container is not modified:
+     * pages are served through sort index, which is remembered for recently
+     * used sort orders. Containers fetching rows from PageSource sort rows
+     * themselves.
+     * @param propertyIds sorting keys
+     * @param ascending sorting directions for each key
+     */
+    synchronized void sort(Object[] propertyIds, boolean[] ascending) {
+        sortOrder = getSortKey(propertyIds, ascending);
+        if (dataContainer instanceof PageSourceContainer) {
+            ((PageSourceContainer) dataContainer).sort(propertyIds, ascending);
+        } else {
+            sortPropertyIds = propertyIds.clone();
+            sortAscending = ascending.clone();
+            sortIndex = null;
+            updateValuesWatching();
+        }
+        pageCache.clear();
+    }
+
+    /**
+     * @return ids of properties pages can be sorted by
+     */
+    Collection<?> getSortablePropertyIds() {
+        if (dataContainer instanceof PageSourceContainer) {
+            return ((PageSourceContainer) dataContainer).getSortableContainerPropertyIds();
+        }
+        List<Object> sortable = new ArrayList<Object>();
+        for (Object propertyId : dataContainer.getContainerPropertyIds()) {
+            if (SortIndex.isSortable(dataContainer.getType(propertyId))) {
+                sortable.add(propertyId);
+            }
+        }
+        return sortable;
+    }
+
+    // sort index for current sort order, null if pages are not sorted
+    private synchronized SortIndex getSortIndex() {
+        if (sortIndex == null && sortPropertyIds.length > 0) {
+            sortIndex = getSortIndex(sortPropertyIds, sortAscending);
+        }
+        return sortIndex;
+    }
+
+    // sort index for given order, remembered among recently used ones
+    private synchronized SortIndex getSortIndex(Object[] propertyIds, boolean[] ascending) {
+        List<Object> key = getSortKey(propertyIds, ascending);
+        SortIndex index = sortIndexes.get(key);
+        long version = getValuesVersion(propertyIds);
+        if (index == null || index.getVersion() != version) {
+            index = new SortIndex(dataContainer, propertyIds, ascending, version, sortExecutor);
+            sortIndexes.put(key, index);
+        }
+        return index;
+    }
+
+    /**
+     * Version of values of properties, changed by every change of set of
+     * items and of values of these properties, so indexes of properties
+     * whose values did not change stay valid
+     * @param propertyIds ids of properties
+     * @return sum of versions
+     */
+    private synchronized long getValuesVersion(Object[] propertyIds) {
+        long version = dataVersion + valuesVersion;
+        for (Object propertyId : propertyIds) {
+            Long propertyVersion = propertyVersions.get(propertyId);
+            if (propertyVersion != null) {
+                version += propertyVersion;
+            }
+        }
+        return version;
+    }
+
+    // property ids interleaved with directions
+    private static List<Object> getSortKey(Object[] propertyIds, boolean[] ascending) {
+        List<Object> key = new ArrayList<Object>();
+        for (int i = 0; i < propertyIds.length; ++i) {
+            key.add(propertyIds[i]);
+            key.add(ascending[i]);
+        }
+        return key;
+    }
+
+    /**
+     * Shares rows of pages with providers of other sessions showing the same
+     * data source. Pages are shared only when data container is
+     * PageSourceContainer, whose item ids are equal in every session, and
+     * only while no rows are hidden. Source should be read-only; when its data changes, SharedPageCache.invalidate()
+     * has to be called, which this provider does itself when its container
+     * reports change of items.
+     * @param cache application-scoped cache or null to stop sharing pages
+     * @param sourceKey key identifying data source in cache, equal for all
+     * sessions showing the same data
+     */
+    public synchronized void setSharedPageCache(SharedPageCache cache, Object sourceKey) {
+        this.sharedCache = cache;
+        this.sharedSourceKey = sourceKey;
+        pageCache.clear();
+    }
+
+    // key of shared page, null if page cannot be shared
+    private synchronized SharedPageCache.Key getSharedKey(int pageNumber) {
+        if (sharedCache == null || !(dataContainer instanceof PageSourceContainer)
+                || isHidingRows() || isFiltering()) {
+            return null;
+        }
+        return new SharedPageCache.Key(sharedSourceKey, sharedCache.getVersion(sharedSourceKey),
+                sortOrder, itemsPerPage, pageNumber);
+    }
+
+    private synchronized long getDataVersion() {
+        return dataVersion;
+    }
+
+    /**
+     * @param position position of row in pages, hidden rows are skipped
+     * @return index of row in original container
+     */
+    private synchronized int getContainerIndex(int position) {
+        RowBitmap hidden = getHiddenPositions(position + 1);
+        if (!hidden.isEmpty()) {
+            position = hidden.selectAbsent(position);
+        }
+        SortIndex index = getSortIndex();
+        return index == null ? position : index.getRow(position);
+    }
+
+    /**
+     * @param containerIndex index of row in original container
+     * @param count number of first rows searched
+     * @return position of row in pages or -1 if it is hidden or not among
+     * count first rows
+     */
+    private synchronized int getPosition(int containerIndex, int count) {
+        if (containerIndex < 0) {
+            return -1;
+        }
+        RowBitmap hidden = getHiddenPositions(count);
+        int positionCount = getPositionCount(hidden, count);
+        SortIndex index = getSortIndex();
+        int position = index == null ? containerIndex : index.getPosition(containerIndex, positionCount);
+        if (position < 0 || position >= positionCount || hidden.contains(position)) {
+            return -1;
+        }
+        return position - hidden.countBelow(position);
+    }
+
+    /**
+     * Makes sure rows up to given position are sorted, so page can be read
+     * without sorting all rows
+     * @param count number of first rows needed
+     */
+    private synchronized void sortRows(int count) {
+        SortIndex index = getSortIndex();
+        if (index != null) {
+            index.sortPrefix(getPositionCount(getHiddenPositions(count), count));
+        }
+    }
+
+    /**
+     * class responsible for invalidating cached pages and sort indexes when
+     * data in original container changes. Current sort index is kept after
+     * change of values, just as sorted container would keep its order; it is
+     * rebuilt when set of items changes. Insertion or removal of single row
+     * at known index shifts current page by one row, other changes reload it.
+     * Values are listened only while indexes built from them exist. Value
+     * change of container tells only changed property, so cell is known only
+     * when synchronizer of current page listens to it; other changes make
+     * indexes of values read container again.
+     */
+    private class DataContainerListener implements Container.ItemSetChangeListener,
+            Property.ValueChangeListener, CellChangeNotifier.CellChangeListener {
+
+        public void containerItemSetChange(Container.ItemSetChangeEvent event) {
+            int index = -1;
+            boolean added = true;
+            if (event instanceof RowChangeEvent) {
+                index = ((RowChangeEvent) event).getIndex();
+                added = ((RowChangeEvent) event).isAdded();
+            } else if (event instanceof IndexedContainer.ItemSetChangeEvent) {
+                index = ((IndexedContainer.ItemSetChangeEvent) event).getAddedItemIndex();
+            }
+            boolean shift;
+            // sort order is part of shared page key, so only new data makes
+            // shared pages outdated
+            boolean dataChanged = !(event instanceof PageSourceContainer.ItemSetChangeEvent)
+                    || ((PageSourceContainer.ItemSetChangeEvent) event).isDataChanged();
+            if (sharedCache != null && dataChanged) {
+                sharedCache.invalidate(sharedSourceKey);
+            }
+            synchronized (PageContainerProvider.this) {
+                ++dataVersion;
+                sortIndexes.clear();
+                sortIndex = null;
+                filterIndexes.clear();
+                // single inserted or removed row is applied to search index
+                // and aggregates
+                if (index >= 0) {
+                    Object addedId = added ? dataContainer.getIdByIndex(index) : null;
+                    if (rowIndexes != null) {
+                        shiftRowIndexes(index, addedId, added);
+                    }
+                    if (searchIndex != null && !(added ? searchIndex.rowAdded(index, addedId)
+                            : searchIndex.rowRemoved(index))) {
+                        searchIndex = null;
+                    }
+                    for (AggregateIndex aggregate : aggregates.values()) {
+                        if (added) {
+                            aggregate.rowAdded(index, addedId);
+                        } else {
+                            aggregate.rowRemoved(index);
+                        }
+                    }
+                } else {
+                    rowIndexes = null;
+                    indexedValuesChanged();
+                }
+                if (event instanceof RowChangeEvent && hiddenRowsValid) {
+                    if (!added) {
+                        hiddenRows.remove(index);
+                        hiddenRanges.remove(index);
+                    }
+                    hiddenRows.shift(index, added ? 1 : -1);
+                    hiddenRanges.shift(index, added ? 1 : -1);
+                    if (added && !hiddenPredicates.isEmpty()
+                            && matchesHiddenPredicate(dataContainer.getIdByIndex(index))) {
+                        hiddenRows.add(index);
+                    }
+                } else if (isHidingRows()) {
+                    hiddenRowsValid = false;
+                }
+                // rows are filtered again at their new indexes
+                filteredRows = null;
+                hiddenRowsChanged();
+                // position of changed row in sorted order or among hidden
+                // rows is unknown
+                shift = index >= 0 && sortPropertyIds.length == 0 && !isHidingRows() && !isFiltering();
+            }
+            if (currentContainer == null) {
+                pageCache.clear();
+            } else if (shift) {
+                invalidatePagesFrom(index);
+                currentContainer.shiftWindow(index, added);
+            } else {
+                currentContainer.invalidate();
+            }
+            fireAggregatesChanged();
+        }
+
+        public void valueChange(ValueChangeEvent event) {
+            ProxyPageContainer page = currentContainer;
+            if (page != null && page.isWatchedCell(event.getProperty())) {
+                // synchronizer of this cell knows its row and property
+                return;
+            }
+            valuesChanged(null, null);
+        }
+
+        public void cellChange(CellChangeNotifier.CellChangeEvent event) {
+            valuesChanged(event.getItemId(), event.getPropertyIds());
+        }
+    }
+
+    /**
+     * task preparing page in background
+     */
+    private class PagePrefetcher implements Runnable {
+
+        private final int pageNumber;
+        private final long generation;
+
+        public PagePrefetcher(int pageNumber, long generation) {
+            this.pageNumber = pageNumber;
+            this.generation = generation;
+        }
+
+        public void run() {
+            ProxyPageContainer page = new ProxyPageContainer(dataContainer, pageNumber);
+            page.resolveAllIds();
+            pageCache.put(pageNumber, page, generation);
+        }
+    }
+
+    /**
+     * Condition of rows hidden by value of property
+     */
+    public interface ValuePredicate {
+
+        /**
+         * @param value value of property in row, may be null
+         * @return true if row should be hidden
+         */
+        public boolean evaluate(Object value);
+    }
+
+    /**
+     * condition of filter of one property
+     */
+    private static class RowFilter {
+
+        private final Object from;
+        private final Object to;
+        private final boolean equality;
+
+        public RowFilter(Object from, Object to, boolean equality) {
+            this.from = from;
+            this.to = to;
+            this.equality = equality;
+        }
+    }
+
+    /**
+     * Listener notified about pages loaded by loadPage(). It is called in
+     * thread of load executor.
+     */
+    public interface PageLoadListener {
+
+        /**
+         * @param pageNumber number of page which can be taken by
+         * getPageContainer() at once
+         */
+        public void pageLoaded(int pageNumber);
+
+        /**
+         * @param pageNumber number of page which could not be loaded
+         * @param cause exception thrown while page was built
+         */
+        public void pageLoadFailed(int pageNumber, Throwable cause);
+    }
+
+    /**
+     * Listener notified when rows are counted by countRows(). It is called in
+     * thread of load executor.
+     */
+    public interface RowCountListener {
+
+        /**
+         * @param count exact number of rows, to be passed to applyRowCount()
+         */
+        public void rowsCounted(int count);
+
+        /**
+         * @param cause exception thrown while rows were counted
+         */
+        public void rowCountFailed(Throwable cause);
+    }
+
+    /**
+     * Listener notified about changes of cells on current page
+     */
+    interface PageContentListener {
+
+        public void pageContentChanged();
+
+        /**
+         * Called after values or rows of data container changed while
+         * aggregates are kept, so aggregates of page or of all rows may
+         * differ. It is not called when page shows other rows, e.g. after
+         * page change.
+         */
+        public void aggregatesChanged();
+    }
+
+    /**
+     * class responsible for routing changes of original container cells to
+     * current page. Identity of changed cell is always known without
+     * inspecting changed Property: either it comes with CellChangeEvent or
+     * synchronizer was attached to this single cell. Changes of rows which are
+     * not on the page are dropped after single lookup in page membership index.
+     */
+    private class DataSynchronizer
+            implements CellChangeNotifier.CellChangeListener, Property.ValueChangeListener {
+
+        private final ProxyPageContainer eventDestination;
+        private final Property.ValueChangeNotifier cell;
+        private final Object itemId;
+        private final Object propertyId;
+
+        /**
+         * Creates synchronizer listening to whole container
+         * @param eventDestination page to be notified
+         */
+        public DataSynchronizer(ProxyPageContainer eventDestination) {
+            this(eventDestination, null, null, null);
+        }
+
+        /**
+         * Creates synchronizer listening to single cell
+         * @param eventDestination page to be notified
+         * @param cell property of original container
+         * @param itemId item id of cell
+         * @param propertyId property id of cell
+         */
+        public DataSynchronizer(ProxyPageContainer eventDestination,
+                Property.ValueChangeNotifier cell, Object itemId, Object propertyId) {
+            this.eventDestination = eventDestination;
+            this.cell = cell;
+            this.itemId = itemId;
+            this.propertyId = propertyId;
+        }
+
+        public void cellChange(CellChangeNotifier.CellChangeEvent event) {
+            if (eventDestination.isMember(event.getItemId())) {
+                eventDestination.cellsChanged(event.getItemId(), event.getPropertyIds());
+            }
+        }
+
+        public void valueChange(ValueChangeEvent event) {
+            valuesChanged(itemId, Collections.singleton(propertyId));
+            if (eventDestination.isMember(itemId)) {
+                eventDestination.cellsChanged(itemId, Collections.singleton(propertyId));
+            }
+        }
+
+        private void attach() {
+            if (cell == null) {
+                ((CellChangeNotifier) eventDestination.parent).addListener(
+                        (CellChangeNotifier.CellChangeListener) this);
+            } else {
+                cell.addListener(this);
+            }
+        }
+
+        private void detach() {
+            if (cell == null) {
+                ((CellChangeNotifier) eventDestination.parent).removeListener(
+                        (CellChangeNotifier.CellChangeListener) this);
+            } else {
+                cell.removeListener(this);
+            }
+        }
+    }
+
+    /**
+     * instances represent current page. Page is a read-through view of rows
+     * [first, first + itemsPerPage) of original container (in sort order,
+     * skipping hidden rows) so nothing is copied;
+     * item ids are resolved only when they are requested (usually by Table
+     * rendering visible rows). Pages of PageSourceContainer keep items of their
+     * rows, as blocks holding them may be gone when page is visited again.
+     * Properties served by page do not emit value
+     * changes on their own: page collects changes of its rows and reports them
+     * to PageContentListener at once.
+     */
+    private class ProxyPageContainer implements Container.Indexed, Container.Sortable,
+            Container.ItemSetChangeNotifier, Container.PropertySetChangeNotifier,
+            Property.ValueChangeNotifier, CellChangeNotifier, PageCache.Page {
+
+        private Container.Indexed parent = null;
+        private final int pageNumber;
+        private final int first;
+        private DataSynchronizer containerSynchronizer;
+        private final HashMap<Object, List<DataSynchronizer>> cellSynchronizers =
+                new HashMap<Object, List<DataSynchronizer>>();
+        // cells listened by synchronizers, compared by equals() of properties
+        private final Set<Property> watchedCells = new HashSet<Property>();
+        private final HashMap<Object, PageItem> pageItems = new HashMap<Object, PageItem>();
+        private final Set<Object> pendingRows = new HashSet<Object>();
+        // row being written by commitRow() and its cells changed so far
+        private Object batchItemId;
+        private List<Object> batchPropertyIds;
+        // ids of rows in window resolved so far (index = offset in window)
+        private Object[] ids;
+        // size of parent when ids were created or last shifted
+        private int parentSize;
+        private HashMap<Object, Integer> offsets = new HashMap<Object, Integer>();
+        private boolean allIdsResolved = false;
+        // ids and offsets belong to shared page and must not be modified
+        private boolean sharedRows = false;
+        // items by offset, taken together with ids when parent may forget
+        // them later (shared pages, evicted blocks of PageSourceContainer);
+        // null if items are read from parent
+        private Item[] items;
+        private Set<Container.ItemSetChangeListener> itemSetChangeListeners;
+        private Set<Container.PropertySetChangeListener> propertySetChangeListeners;
+        private Set<Property.ValueChangeListener> valueChangeListeners;
+        private Set<CellChangeNotifier.CellChangeListener> cellChangeListeners;
+
+        public ProxyPageContainer(Container.Indexed parent, int pageNumber) {
+            this.parent = parent;
+            this.pageNumber = pageNumber;
+            this.first = firstRowIdx(pageNumber);
+        }
+
+        private int firstRowIdx(int page) {
+            return page * itemsPerPage;
+        }
+
+        private int lastRowIdx(int page) {
+            return Math.min((page + 1) * itemsPerPage, getVisibleSize());
+        }
+
+        private int getWindowSize() {
+            return Math.max(0, lastRowIdx(pageNumber) - first);
+        }
+
+        // <editor-fold defaultstate="collapsed" desc="Window mapping">
+        private Object getIdAtOffset(int offset) {
+            if (ids == null) {
+                createIds();
+            }
+            Object id = ids[offset];
+            if (id == null) {
+                id = parent.getIdByIndex(getContainerIndex(first + offset));
+                ids[offset] = id;
+                offsets.put(id, offset);
+                if (items != null) {
+                    // row is in memory of parent right after its id
+                    items[offset] = parent.getItem(id);
+                }
+            }
+            return id;
+        }
+
+        private int getOffsetOfId(Object itemId) {
+            Integer offset = offsets.get(itemId);
+            if (offset != null) {
+                return offset;
+            }
+            if (allIdsResolved || itemId == null) {
+                return -1;
+            }
+            int position = getPosition(parent.indexOfId(itemId), first + getWindowSize());
+            int offsetInWindow = position - first;
+            if (position < 0 || offsetInWindow < 0 || offsetInWindow >= getWindowSize()) {
+                return -1;
+            }
+            getIdAtOffset(offsetInWindow);
+            return offsetInWindow;
+        }
+
+        // rows of whole window are sorted at once, not row by row
+        private void createIds() {
+            parentSize = parent.size();
+            SharedPageCache.Key key = getSharedKey(pageNumber);
+            SharedPageCache.SharedPage shared = key == null ? null : sharedCache.get(key);
+            if (shared != null && shared.ids.length == getWindowSize()) {
+                ids = shared.ids;
+                offsets = shared.offsets;
+                items = shared.items;
+                allIdsResolved = true;
+                sharedRows = true;
+                return;
+            }
+            ids = new Object[getWindowSize()];
+            items = parent instanceof PageSourceContainer ? new Item[ids.length] : null;
+            sortRows(first + ids.length);
+            if (key != null) {
+                // page is built once for all sessions
+                for (int i = 0; i < ids.length; ++i) {
+                    getIdAtOffset(i);
+                    if (items[i] == null) {
+                        return;
+                    }
+                }
+                allIdsResolved = true;
+                sharedCache.put(key, new SharedPageCache.SharedPage(ids, offsets, items));
+                sharedRows = true;
+            }
+        }
+
+        // resolves all ids so membership checks never reach parent
+        private void resolveAllIds() {
+            int windowSize = getWindowSize();
+            if (ids == null) {
+                createIds();
+            }
+            for (int i = 0; i < windowSize; ++i) {
+                getIdAtOffset(i);
+            }
+            allIdsResolved = true;
+        }
+
+        // index of row of this page in original container, -1 for other rows
+        private int getContainerIndexOf(Object itemId) {
+            int offset = getOffsetOfId(itemId);
+            return offset < 0 ? -1 : getContainerIndex(first + offset);
+        }
+
+        // indexes of rows of this page in original container
+        private int[] getContainerIndexes() {
+            int[] rows = new int[getWindowSize()];
+            for (int offset = 0; offset < rows.length; ++offset) {
+                rows[offset] = getContainerIndex(first + offset);
+            }
+            return rows;
+        }
+
+        // membership check used for routing changes, never reaches parent
+        private boolean isMember(Object itemId) {
+            if (!allIdsResolved) {
+                resolveAllIds();
+            }
+            return offsets.containsKey(itemId);
+        }
+
+        // called when page becomes current one, possibly taken from cache
+        private void activate() {
+            pendingRows.clear();
+            for (Object itemId : pageItems.keySet()) {
+                watchRow(itemId);
+            }
+        }
+
+        public long getEstimatedSize() {
+            // rough estimation of arrays, hash map entries and wrappers
+            long size = 64;
+            if (!sharedRows) {
+                size += (ids == null ? 0 : 8L * ids.length) + 48L * offsets.size();
+                if (items != null) {
+                    for (Item item : items) {
+                        size += item == null ? 8 : 64 + 48L * item.getItemPropertyIds().size();
+                    }
+                }
+            }
+            for (PageItem item : pageItems.values()) {
+                size += 64 + 48L * item.properties.size();
+            }
+            return size;
+        }
+
+        /**
+         * Applies insertion or removal of single row of parent to the window.
+         * Ids which stay on page are moved by one, row pushed out of page or
+         * removed is forgotten and row pulled into page is resolved when
+         * needed. Nothing happens when change does not affect the window.
+         * @param index index of added row or index removed row had
+         * @param added true if row was added, false if it was removed
+         */
+        private void shiftWindow(int index, boolean added) {
+            int size = parent.size();
+            if (ids == null || size != parentSize + (added ? 1 : -1) || index < 0
+                    || index >= (added ? size : parentSize)) {
+                // event does not match known state of parent
+                invalidate();
+                return;
+            }
+            parentSize = size;
+            Object[] oldIds = ids;
+            Item[] oldItems = items;
+            int windowSize = getWindowSize();
+            if (index >= first + oldIds.length && windowSize == oldIds.length) {
+                return;
+            }
+            ids = new Object[windowSize];
+            items = oldItems == null ? null : new Item[windowSize];
+            offsets = new HashMap<Object, Integer>();
+            sharedRows = false;
+            for (int offset = 0; offset < windowSize; ++offset) {
+                int position = first + offset;
+                int oldPosition;
+                if (position < index) {
+                    oldPosition = position;
+                } else if (!added) {
+                    oldPosition = position + 1;
+                } else {
+                    oldPosition = position == index ? -1 : position - 1;
+                }
+                int oldOffset = oldPosition - first;
+                if (oldPosition >= 0 && oldOffset >= 0 && oldOffset < oldIds.length
+                        && oldIds[oldOffset] != null) {
+                    ids[offset] = oldIds[oldOffset];
+                    offsets.put(ids[offset], offset);
+                    if (items != null) {
+                        items[offset] = oldItems[oldOffset];
+                    }
+                }
+            }
+            allIdsResolved = false;
+            for (Object itemId : oldIds) {
+                if (itemId != null && !offsets.containsKey(itemId)) {
+                    pageItems.remove(itemId);
+                    pendingRows.remove(itemId);
+                    unwatchRow(itemId);
+                }
+            }
+            if (hasChangeListeners()) {
+                watchAllRows();
+            }
+            fireItemSetChange();
+        }
+
+        // called after structural change of parent which cannot be applied by shifting
+        private void invalidate() {
+            ids = null;
+            offsets = new HashMap<Object, Integer>();
+            items = null;
+            sharedRows = false;
+            allIdsResolved = false;
+            pageItems.clear();
+            pendingRows.clear();
+            removeParentListener();
+            if (hasChangeListeners()) {
+                watchAllRows();
+            }
+            invalidatePageCache();
+            fireItemSetChange();
+        }
+        // </editor-fold>
+
+        // <editor-fold defaultstate="collapsed" desc="Container.Indexed">
+        public int size() {
+            return getWindowSize();
+        }
+
+        public int indexOfId(Object itemId) {
+            return getOffsetOfId(itemId);
+        }
+
+        public Object getIdByIndex(int index) {
+            return getIdAtOffset(index);
+        }
+
+        public boolean containsId(Object itemId) {
+            return indexOfId(itemId) >= 0;
+        }
+
+        public Item getItem(Object itemId) {
+            int offset = getOffsetOfId(itemId);
+            if (offset < 0) {
+                return null;
+            }
+            PageItem item = pageItems.get(itemId);
+            if (item == null) {
+                Item parentItem = items == null ? null : items[offset];
+                if (parentItem == null) {
+                    parentItem = parent.getItem(itemId);
+                }
+                if (parentItem == null) {
+                    return null;
+                }
+                item = new PageItem(itemId, parentItem);
+                pageItems.put(itemId, item);
+                watchRow(itemId);
+            }
+            return item;
+        }
+
+        public Property getContainerProperty(Object itemId, Object propertyId) {
+            Item item = getItem(itemId);
+            return item == null ? null : item.getItemProperty(propertyId);
+        }
+
+        public Collection<?> getContainerPropertyIds() {
+            return parent.getContainerPropertyIds();
+        }
+
+        public Class<?> getType(Object propertyId) {
+            return parent.getType(propertyId);
+        }
+
+        public Collection<?> getItemIds() {
+            return new AbstractList<Object>() {
+
+                @Override
+                public Object get(int index) {
+                    return getIdByIndex(index);
+                }
+
+                @Override
+                public int size() {
+                    return ProxyPageContainer.this.size();
+                }
+            };
+        }
+
+        public Object nextItemId(Object itemId) {
+            int index = indexOfId(itemId);
+            return index < 0 || index + 1 >= size() ? null : getIdByIndex(index + 1);
+        }
+
+        public Object prevItemId(Object itemId) {
+            int index = indexOfId(itemId);
+            return index <= 0 ? null : getIdByIndex(index - 1);
+        }
+
+        public Object firstItemId() {
+            return size() > 0 ? getIdByIndex(0) : null;
+        }
+
+        public Object lastItemId() {
+            return size() > 0 ? getIdByIndex(size() - 1) : null;
+        }
+
+        public boolean isFirstId(Object itemId) {
+            return itemId != null && itemId.equals(firstItemId());
+        }
+
+        public boolean isLastId(Object itemId) {
+            return itemId != null && itemId.equals(lastItemId());
+        }
+        // </editor-fold>
+
+        // <editor-fold defaultstate="collapsed" desc="Modifications passed to parent">
+        public boolean removeItem(Object itemId) throws UnsupportedOperationException {
+            long version = getDataVersion();
+            boolean removed = parent.removeItem(itemId);
+            if (removed) {
+                parentChanged(version);
+            }
+            return removed;
+        }
+
+        public boolean removeAllItems() throws UnsupportedOperationException {
+            long version = getDataVersion();
+            boolean removed = parent.removeAllItems();
+            parentChanged(version);
+            return removed;
+        }
+
+        public Object addItem() throws UnsupportedOperationException {
+            long version = getDataVersion();
+            Object itemId = parent.addItem();
+            parentChanged(version);
+            return itemId;
+        }
+
+        public Item addItem(Object itemId) throws UnsupportedOperationException {
+            long version = getDataVersion();
+            Item item = parent.addItem(itemId);
+            parentChanged(version);
+            return item;
+        }
+
+        public Object addItemAfter(Object previousItemId) throws UnsupportedOperationException {
+            long version = getDataVersion();
+            Object itemId = parent.addItemAfter(previousItemId);
+            parentChanged(version);
+            return itemId;
+        }
+
+        public Item addItemAfter(Object previousItemId, Object newItemId)
+                throws UnsupportedOperationException {
+            long version = getDataVersion();
+            Item item = parent.addItemAfter(previousItemId, newItemId);
+            parentChanged(version);
+            return item;
+        }
+
+        public Object addItemAt(int index) throws UnsupportedOperationException {
+            long version = getDataVersion();
+            Object itemId = parent.addItemAt(getParentIndex(index));
+            parentChanged(version);
+            return itemId;
+        }
+
+        public Item addItemAt(int index, Object newItemId) throws UnsupportedOperationException {
+            long version = getDataVersion();
+            Item item = parent.addItemAt(getParentIndex(index), newItemId);
+            parentChanged(version);
+            return item;
+        }
+
+        /**
+         * Updates page after modification of parent. Current page was
+         * already updated if parent notified about the change.
+         * @param version version of data before modification
+         */
+        private void parentChanged(long version) {
+            if (version == getDataVersion() || currentContainer != this) {
+                invalidate();
+            }
+        }
+
+        // translates index of this page to index of parent
+        private int getParentIndex(int index) {
+            if (index < size()) {
+                return getContainerIndex(first + index);
+            }
+            return getSortIndex() == null ? first + getWindowSize() : parent.size();
+        }
+
+        public boolean addContainerProperty(Object propertyId, Class<?> type, Object defaultValue)
+                throws UnsupportedOperationException {
+            boolean added = parent.addContainerProperty(propertyId, type, defaultValue);
+            firePropertySetChange();
+            return added;
+        }
+
+        public boolean removeContainerProperty(Object propertyId) throws UnsupportedOperationException {
+            boolean removed = parent.removeContainerProperty(propertyId);
+            firePropertySetChange();
+            return removed;
+        }
+
+        public void sort(Object[] propertyId, boolean[] ascending) {
+            PageContainerProvider.this.sort(propertyId, ascending);
+            invalidate();
+        }
+
+        public Collection<?> getSortableContainerPropertyIds() {
+            return getSortablePropertyIds();
+        }
+        // </editor-fold>
+
+        // <editor-fold defaultstate="collapsed" desc="Events">
+        private Set<Container.ItemSetChangeListener> getItemSetChangeListeners() {
+            if (itemSetChangeListeners == null) {
+                itemSetChangeListeners = new HashSet<Container.ItemSetChangeListener>();
+            }
+            return itemSetChangeListeners;
+        }
+
+        public void addListener(Container.ItemSetChangeListener listener) {
+            getItemSetChangeListeners().add(listener);
+        }
+
+        public void removeListener(Container.ItemSetChangeListener listener) {
+            getItemSetChangeListeners().remove(listener);
+        }
+
+        private void fireItemSetChange() {
+            if (itemSetChangeListeners == null) {
+                return;
+            }
+            Container.ItemSetChangeEvent event = new Container.ItemSetChangeEvent() {
+
+                public Container getContainer() {
+                    return ProxyPageContainer.this;
+                }
+            };
+            for (Object listener : itemSetChangeListeners.toArray()) {
+                ((Container.ItemSetChangeListener) listener).containerItemSetChange(event);
+            }
+        }
+
+        private Set<Container.PropertySetChangeListener> getPropertySetChangeListeners() {
+            if (propertySetChangeListeners == null) {
+                propertySetChangeListeners = new HashSet<Container.PropertySetChangeListener>();
+            }
+            return propertySetChangeListeners;
+        }
+
+        public void addListener(Container.PropertySetChangeListener listener) {
+            getPropertySetChangeListeners().add(listener);
+        }
+
+        public void removeListener(Container.PropertySetChangeListener listener) {
+            getPropertySetChangeListeners().remove(listener);
+        }
+
+        private void firePropertySetChange() {
+            if (propertySetChangeListeners == null) {
+                return;
+            }
+            Container.PropertySetChangeEvent event = new Container.PropertySetChangeEvent() {
+
+                public Container getContainer() {
+                    return ProxyPageContainer.this;
+                }
+            };
+            for (Object listener : propertySetChangeListeners.toArray()) {
+                ((Container.PropertySetChangeListener) listener).containerPropertySetChange(event);
+            }
+        }
+
+        // cell changes are delivered only while somebody listens to this page
+        private boolean hasChangeListeners() {
+            return (valueChangeListeners != null && !valueChangeListeners.isEmpty())
+                    || (cellChangeListeners != null && !cellChangeListeners.isEmpty());
+        }
+
+        // listeners of page are notified about changes of all its rows
+        public void addListener(Property.ValueChangeListener listener) {
+            if (valueChangeListeners == null) {
+                valueChangeListeners = new HashSet<Property.ValueChangeListener>();
+            }
+            valueChangeListeners.add(listener);
+            watchAllRows();
+        }
+
+        public void removeListener(Property.ValueChangeListener listener) {
+            if (valueChangeListeners != null) {
+                valueChangeListeners.remove(listener);
+            }
+        }
+
+        public void addListener(CellChangeNotifier.CellChangeListener listener) {
+            if (cellChangeListeners == null) {
+                cellChangeListeners = new HashSet<CellChangeNotifier.CellChangeListener>();
+            }
+            cellChangeListeners.add(listener);
+            watchAllRows();
+        }
+
+        public void removeListener(CellChangeNotifier.CellChangeListener listener) {
+            if (cellChangeListeners != null) {
+                cellChangeListeners.remove(listener);
+            }
+        }
+
+        private void cellsChanged(Object itemId, Collection<?> propertyIds) {
+            if (batchPropertyIds != null && itemId.equals(batchItemId)) {
+                // reported once when whole row is written
+                batchPropertyIds.addAll(propertyIds);
+                return;
+            }
+            if (writeQueue != null) {
+                // cells written by queue were reported when they were queued
+                List<Object> changed = new ArrayList<Object>();
+                for (Object propertyId : propertyIds) {
+                    if (writeQueue.getInFlightValue(itemId, propertyId) == WriteBehindQueue.NOT_QUEUED) {
+                        changed.add(propertyId);
+                    }
+                }
+                if (changed.isEmpty()) {
+                    return;
+                }
+                propertyIds = changed;
+            }
+            fireCellChange(itemId, propertyIds);
+            if (pendingRows.add(itemId) && pendingRows.size() == 1
+                    && pageContentListener != null && currentContainer == this) {
+                pageContentListener.pageContentChanged();
+            }
+        }
+
+        private boolean commitPendingChanges() {
+            if (pendingRows.isEmpty()) {
+                return false;
+            }
+            pendingRows.clear();
+            return true;
+        }
+
+        /**
+         * Writes values of several cells of row to original container. Page
+         * listeners are notified once for whole row, and ColumnarContainer
+         * notifies its own listeners once as well.
+         */
+        private void commitRow(Object itemId, Map<?, ?> values) {
+            if (writeQueue != null) {
+                writeQueue.putAll(itemId, values);
+                if (isMember(itemId)) {
+                    cellsChanged(itemId, new ArrayList<Object>(values.keySet()));
+                }
+                return;
+            }
+            if (parent instanceof ColumnarContainer) {
+                ((ColumnarContainer) parent).setValues(itemId, values);
+                return;
+            }
+            batchItemId = itemId;
+            batchPropertyIds = new ArrayList<Object>();
+            try {
+                for (Map.Entry<?, ?> entry : values.entrySet()) {
+                    Property property = parent.getContainerProperty(itemId, entry.getKey());
+                    if (property != null) {
+                        property.setValue(entry.getValue());
+                    }
+                }
+            } finally {
+                List<Object> changed = batchPropertyIds;
+                batchItemId = null;
+                batchPropertyIds = null;
+                if (!changed.isEmpty()) {
+                    cellsChanged(itemId, changed);
+                }
+            }
+        }
+
+        private void fireCellChange(final Object itemId, Collection<?> propertyIds) {
+            if (valueChangeListeners != null && !valueChangeListeners.isEmpty()) {
+                for (final Object propertyId : propertyIds) {
+                    Property.ValueChangeEvent event = new Property.ValueChangeEvent() {
+
+                        public Property getProperty() {
+                            return parent.getContainerProperty(itemId, propertyId);
+                        }
+                    };
+                    for (Object listener : valueChangeListeners.toArray()) {
+                        ((Property.ValueChangeListener) listener).valueChange(event);
+                    }
+                }
+            }
+            if (cellChangeListeners != null && !cellChangeListeners.isEmpty()) {
+                CellChangeNotifier.CellChangeEvent event =
+                        new CellChangeNotifier.CellChangeEvent(this, itemId, propertyIds);
+                for (Object listener : cellChangeListeners.toArray()) {
+                    ((CellChangeNotifier.CellChangeListener) listener).cellChange(event);
+                }
+            }
+        }
+        // </editor-fold>
+
+        /**
+         * Starts listening to changes of row in original container. Containers
+         * implementing CellChangeNotifier are listened as a whole, otherwise
+         * every cell of the row is listened separately so its identity is
+         * known in advance. Cells which do not emit value changes are skipped.
+         */
+        private void watchRow(Object itemId) {
+            if (sharedRows) {
+                // items of shared page are read-only and used by many sessions
+                return;
+            }
+            if (parent instanceof CellChangeNotifier) {
+                if (containerSynchronizer == null) {
+                    containerSynchronizer = new DataSynchronizer(this);
+                    containerSynchronizer.attach();
+                }
+            } else if (!cellSynchronizers.containsKey(itemId)) {
+                List<DataSynchronizer> row = new LinkedList<DataSynchronizer>();
+                for (Object propertyId : parent.getContainerPropertyIds()) {
+                    Property cell = parent.getContainerProperty(itemId, propertyId);
+                    if (cell instanceof Property.ValueChangeNotifier) {
+                        DataSynchronizer synchronizer = new DataSynchronizer(this,
+                                (Property.ValueChangeNotifier) cell, itemId, propertyId);
+                        synchronizer.attach();
+                        row.add(synchronizer);
+                        watchedCells.add(cell);
+                    }
+                }
+                cellSynchronizers.put(itemId, row);
+            }
+        }
+
+        private void unwatchRow(Object itemId) {
+            List<DataSynchronizer> row = cellSynchronizers.remove(itemId);
+            if (row != null) {
+                for (DataSynchronizer synchronizer : row) {
+                    synchronizer.detach();
+                    watchedCells.remove((Property) synchronizer.cell);
+                }
+            }
+        }
+
+        private void watchAllRows() {
+            resolveAllIds();
+            for (Object itemId : ids) {
+                watchRow(itemId);
+            }
+        }
+
+        // called before page change to remove unnecessary listeners from parent
+        private void removeParentListener() {
+            if (containerSynchronizer != null) {
+                containerSynchronizer.detach();
+                containerSynchronizer = null;
+            }
+            for (List<DataSynchronizer> row : cellSynchronizers.values()) {
+                for (DataSynchronizer synchronizer : row) {
+                    synchronizer.detach();
+                }
+            }
+            cellSynchronizers.clear();
+            watchedCells.clear();
+        }
+
+        // true if changes of cell are delivered to synchronizer of this page
+        private boolean isWatchedCell(Property cell) {
+            return watchedCells.contains(cell);
+        }
+
+        /**
+         * item of current page. Its properties are read and written straight
+         * through to original container
+         */
+        private class PageItem implements Item {
+
+            private final Object itemId;
+            private final Item item;
+            private final HashMap<Object, PageProperty> properties = new HashMap<Object, PageProperty>();
+
+            public PageItem(Object itemId, Item item) {
+                this.itemId = itemId;
+                this.item = item;
+            }
+
+            public Property getItemProperty(Object id) {
+                PageProperty property = properties.get(id);
+                if (property == null) {
+                    Property itemProperty = item.getItemProperty(id);
+                    if (itemProperty == null) {
+                        return null;
+                    }
+                    property = new PageProperty(itemId, id, itemProperty);
+                    properties.put(id, property);
+                }
+                return property;
+            }
+
+            public Collection<?> getItemPropertyIds() {
+                return item.getItemPropertyIds();
+            }
+
+            public boolean addItemProperty(Object id, Property property) throws UnsupportedOperationException {
+                return item.addItemProperty(id, property);
+            }
+
+            public boolean removeItemProperty(Object id) throws UnsupportedOperationException {
+                properties.remove(id);
+                return item.removeItemProperty(id);
+            }
+        }
+
+        /**
+         * property of current page. It does not emit value changes so Table
+         * does not refresh itself after every single change
+         */
+        private class PageProperty implements Property {
+
+            private final Object itemId;
+            private final Object propertyId;
+            private final Property property;
+
+            public PageProperty(Object itemId, Object propertyId, Property property) {
+                this.itemId = itemId;
+                this.propertyId = propertyId;
+                this.property = property;
+            }
+
+            // value waiting in write-behind queue or NOT_QUEUED
+            private Object getQueuedValue() {
+                return writeQueue == null ? WriteBehindQueue.NOT_QUEUED
+                        : writeQueue.getQueuedValue(itemId, propertyId);
+            }
+
+            public Object getValue() {
+                Object value = getQueuedValue();
+                return value == WriteBehindQueue.NOT_QUEUED ? property.getValue() : value;
+            }
+
+            public void setValue(Object newValue) throws ReadOnlyException, ConversionException {
+                if (writeQueue == null) {
+                    property.setValue(newValue);
+                } else if (property.isReadOnly()) {
+                    throw new ReadOnlyException();
+                } else {
+                    commitRow(itemId, Collections.singletonMap(propertyId, newValue));
+                }
+            }
+
+            public Class<?> getType() {
+                return property.getType();
+            }
+
+            public boolean isReadOnly() {
+                return property.isReadOnly();
+            }
+
+            public void setReadOnly(boolean newStatus) {
+                property.setReadOnly(newStatus);
+            }
+
+            @Override
+            public String toString() {
+                Object value = getQueuedValue();
+                if (value == WriteBehindQueue.NOT_QUEUED) {
+                    return property.toString();
+                }
+                return value == null ? null : value.toString();
             }
         }
     }
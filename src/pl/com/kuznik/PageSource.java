@@ -0,0 +1,44 @@
+package pl.com.kuznik;
+
+import com.vaadin.data.Item;
+import java.io.Serializable;
+import java.util.Collection;
+import java.util.Map;
+
+/**
+ * Source of rows which can be fetched range by range. Unlike Container.Indexed
+ * it does not require whole data set to be loaded, so pagination over it
+ * needs memory proportional to page size only. Use PageSourceContainer to
+ * show PageSource in RichTable.
+ * @author Krzysztof Kuźnik <kmkuznik at gmail.com>
+ */
+public interface PageSource extends Serializable {
+
+    /**
+     * @return ids of properties (columns) of every row
+     */
+    public Collection<?> getPropertyIds();
+
+    /**
+     * @param propertyId id of property
+     * @return type of property
+     */
+    public Class<?> getType(Object propertyId);
+
+    /**
+     * @return total number of rows
+     */
+    public int count();
+
+    /**
+     * Fetches range of rows
+     * @param offset index of first row to fetch
+     * @param limit maximal number of rows to fetch
+     * @param sortPropertyIds ids of properties rows are sorted by, may be empty
+     * @param sortAscending sorting direction for each of sortPropertyIds
+     * @return rows mapped by their item ids; iteration order of map has to
+     * follow order of rows
+     */
+    public Map<Object, Item> fetch(int offset, int limit,
+            Object[] sortPropertyIds, boolean[] sortAscending);
+}
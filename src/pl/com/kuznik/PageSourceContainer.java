@@ -0,0 +1,447 @@
+package pl.com.kuznik;
+
+import com.vaadin.data.Container;
+import com.vaadin.data.Item;
+import com.vaadin.data.Property;
+import java.util.AbstractList;
+import java.util.Collection;
+import java.util.EventObject;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Read-only Container.Indexed backed by PageSource. Rows are fetched in
+ * blocks when they are requested and only few recently used blocks are kept
+ * in memory. Items which are not in memory are unknown to container, i.e.
+ * indexOfId() returns -1 and getItem() returns null for them.
+ * <p>
+ * In keyset mode (available for KeysetPageSource) container remembers sort
+ * keys of first and last row of every fetched block and fetches neighbouring
+ * blocks by seeking past these keys, so browsing deep blocks is as cheap as
+ * browsing first ones. Last block is fetched backwards from the end. Blocks
+ * with no known neighbour are still fetched by offset.
+ * <p>
+ * Container is thread-safe, so pages can be prepared in background while
+ * request thread reads it.
+ * @author Krzysztof Kuźnik <kmkuznik at gmail.com>
+ */
+public class PageSourceContainer implements Container.Indexed, Container.Sortable,
+        Container.ItemSetChangeNotifier {
+
+    private static final int KEPT_BLOCKS = 3;
+    private final PageSource source;
+    private int blockSize;
+    private int size = -1;
+    private boolean sizeEstimation = false;
+    // size is estimate of source until exact count is set with updateSize()
+    private boolean sizeEstimated = false;
+    private Object[] sortPropertyIds = new Object[0];
+    private boolean[] sortAscending = new boolean[0];
+    private final LinkedHashMap<Integer, Block> blocks = new LinkedHashMap<Integer, Block>(16, 0.75f, true) {
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Integer, Block> eldest) {
+            return size() > KEPT_BLOCKS;
+        }
+    };
+    private Set<Container.ItemSetChangeListener> itemSetChangeListeners;
+    private boolean keysetPagination = false;
+    // keys of first and last row of every block fetched with current sorting
+    private final HashMap<Integer, Object[][]> boundaries = new HashMap<Integer, Object[][]>();
+
+    /**
+     * Creates new container fetching blocks of 100 rows
+     * @param source source of rows
+     */
+    public PageSourceContainer(PageSource source) {
+        this(source, 100);
+    }
+
+    /**
+     * Creates new container
+     * @param source source of rows
+     * @param blockSize number of rows fetched at once
+     */
+    public PageSourceContainer(PageSource source, int blockSize) {
+        this.source = source;
+        this.blockSize = Math.max(1, blockSize);
+    }
+
+    public PageSource getPageSource() {
+        return source;
+    }
+
+    /**
+     * Changes number of rows fetched at once. PageContainerProvider sets it to
+     * number of items per page so every page is fetched with single query.
+     * @param blockSize number of rows fetched at once
+     */
+    public synchronized void setBlockSize(int blockSize) {
+        blockSize = Math.max(1, blockSize);
+        if (this.blockSize != blockSize) {
+            this.blockSize = blockSize;
+            clearBlocks();
+        }
+    }
+
+    /**
+     * Enables or disables keyset mode
+     * @param keysetPagination true to seek blocks by sort keys
+     * @throws UnsupportedOperationException if source is not KeysetPageSource
+     */
+    public synchronized void setKeysetPagination(boolean keysetPagination) {
+        if (keysetPagination && !(source instanceof KeysetPageSource)) {
+            throw new UnsupportedOperationException("Page source does not support keyset pagination");
+        }
+        this.keysetPagination = keysetPagination;
+    }
+
+    public synchronized boolean isKeysetPagination() {
+        return keysetPagination;
+    }
+
+    /**
+     * Enables or disables estimation mode. In estimation mode size() returns
+     * estimated number of rows until exact count is set with updateSize(), so
+     * slow count does not delay first page. Rows beyond the estimate are not
+     * shown until then.
+     * @param sizeEstimation true to use estimated number of rows
+     * @throws UnsupportedOperationException if source is not
+     * EstimatingPageSource
+     */
+    public synchronized void setSizeEstimation(boolean sizeEstimation) {
+        if (sizeEstimation && !(source instanceof EstimatingPageSource)) {
+            throw new UnsupportedOperationException("Page source does not support count estimation");
+        }
+        if (this.sizeEstimation != sizeEstimation) {
+            this.sizeEstimation = sizeEstimation;
+            if (sizeEstimated) {
+                size = -1;
+                sizeEstimated = false;
+            }
+        }
+    }
+
+    public synchronized boolean isSizeEstimation() {
+        return sizeEstimation;
+    }
+
+    /**
+     * @return true if size() returns estimated number of rows
+     */
+    public synchronized boolean isSizeEstimated() {
+        size();
+        return sizeEstimated;
+    }
+
+    /**
+     * Replaces estimated number of rows with exact one, counted by caller
+     * e.g. in background thread with getPageSource().count(). Item set change
+     * listeners are notified.
+     * @param count exact number of rows
+     */
+    public void updateSize(int count) {
+        synchronized (this) {
+            size = count;
+            sizeEstimated = false;
+        }
+        fireItemSetChange(false);
+    }
+
+    /**
+     * Drops all fetched rows and row count, so they are fetched again from
+     * source when needed
+     */
+    public void refresh() {
+        synchronized (this) {
+            size = -1;
+            clearBlocks();
+        }
+        fireItemSetChange(true);
+    }
+
+    private void clearBlocks() {
+        blocks.clear();
+        boundaries.clear();
+    }
+
+    // <editor-fold defaultstate="collapsed" desc="Blocks">
+    private Block getBlock(int blockNumber) {
+        Block block = blocks.get(blockNumber);
+        if (block == null) {
+            block = new Block(blockNumber * blockSize, fetchBlock(blockNumber));
+            blocks.put(blockNumber, block);
+            if (keysetPagination && block.ids.length > 0) {
+                boundaries.put(blockNumber, new Object[][]{
+                            getKey(block, block.ids[0]), getKey(block, block.ids[block.ids.length - 1])});
+            }
+        }
+        return block;
+    }
+
+    private Map<Object, Item> fetchBlock(int blockNumber) {
+        if (keysetPagination) {
+            KeysetPageSource keysetSource = (KeysetPageSource) source;
+            int lastBlockNumber = (size() - 1) / blockSize;
+            if (blockNumber == 0) {
+                return keysetSource.fetch(null, true, blockSize, sortPropertyIds, sortAscending);
+            } else if (boundaries.containsKey(blockNumber - 1)) {
+                return keysetSource.fetch(boundaries.get(blockNumber - 1)[1], true, blockSize,
+                        sortPropertyIds, sortAscending);
+            } else if (blockNumber == lastBlockNumber && !sizeEstimated) {
+                return keysetSource.fetch(null, false, size() - blockNumber * blockSize,
+                        sortPropertyIds, sortAscending);
+            } else if (boundaries.containsKey(blockNumber + 1)) {
+                return keysetSource.fetch(boundaries.get(blockNumber + 1)[0], false, blockSize,
+                        sortPropertyIds, sortAscending);
+            }
+        }
+        return source.fetch(blockNumber * blockSize, blockSize, sortPropertyIds, sortAscending);
+    }
+
+    // key of row consists of values of sort properties followed by its id
+    private Object[] getKey(Block block, Object itemId) {
+        Object[] key = new Object[sortPropertyIds.length + 1];
+        Item item = block.items.get(itemId);
+        for (int i = 0; i < sortPropertyIds.length; ++i) {
+            key[i] = item.getItemProperty(sortPropertyIds[i]).getValue();
+        }
+        key[sortPropertyIds.length] = itemId;
+        return key;
+    }
+
+    private Block findBlock(Object itemId) {
+        for (Block block : blocks.values()) {
+            if (block.items.containsKey(itemId)) {
+                return block;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * rows fetched with single call to PageSource
+     */
+    private static class Block {
+
+        private final int offset;
+        private final Object[] ids;
+        private final HashMap<Object, Item> items;
+        private final HashMap<Object, Integer> indexes;
+
+        public Block(int offset, Map<Object, Item> rows) {
+            this.offset = offset;
+            ids = rows.keySet().toArray();
+            items = new HashMap<Object, Item>(rows);
+            indexes = new HashMap<Object, Integer>();
+            for (int i = 0; i < ids.length; ++i) {
+                indexes.put(ids[i], offset + i);
+            }
+        }
+    }
+    // </editor-fold>
+
+    // <editor-fold defaultstate="collapsed" desc="Container.Indexed">
+    public synchronized int size() {
+        if (size < 0) {
+            sizeEstimated = sizeEstimation;
+            size = sizeEstimated ? ((EstimatingPageSource) source).estimateCount() : source.count();
+        }
+        return size;
+    }
+
+    public synchronized int indexOfId(Object itemId) {
+        Block block = findBlock(itemId);
+        return block == null ? -1 : block.indexes.get(itemId);
+    }
+
+    public synchronized Object getIdByIndex(int index) {
+        if (index < 0 || index >= size()) {
+            return null;
+        }
+        Block block = getBlock(index / blockSize);
+        int offset = index - block.offset;
+        return offset < block.ids.length ? block.ids[offset] : null;
+    }
+
+    public synchronized boolean containsId(Object itemId) {
+        return findBlock(itemId) != null;
+    }
+
+    public synchronized Item getItem(Object itemId) {
+        Block block = findBlock(itemId);
+        return block == null ? null : block.items.get(itemId);
+    }
+
+    public Property getContainerProperty(Object itemId, Object propertyId) {
+        Item item = getItem(itemId);
+        return item == null ? null : item.getItemProperty(propertyId);
+    }
+
+    public Collection<?> getContainerPropertyIds() {
+        return source.getPropertyIds();
+    }
+
+    public Class<?> getType(Object propertyId) {
+        return source.getType(propertyId);
+    }
+
+    // every row is fetched when whole list is iterated
+    public Collection<?> getItemIds() {
+        return new AbstractList<Object>() {
+
+            @Override
+            public Object get(int index) {
+                return getIdByIndex(index);
+            }
+
+            @Override
+            public int size() {
+                return PageSourceContainer.this.size();
+            }
+        };
+    }
+
+    public Object nextItemId(Object itemId) {
+        int index = indexOfId(itemId);
+        return index < 0 ? null : getIdByIndex(index + 1);
+    }
+
+    public Object prevItemId(Object itemId) {
+        int index = indexOfId(itemId);
+        return index <= 0 ? null : getIdByIndex(index - 1);
+    }
+
+    public Object firstItemId() {
+        return getIdByIndex(0);
+    }
+
+    public Object lastItemId() {
+        return getIdByIndex(size() - 1);
+    }
+
+    public boolean isFirstId(Object itemId) {
+        return itemId != null && indexOfId(itemId) == 0;
+    }
+
+    public boolean isLastId(Object itemId) {
+        return itemId != null && indexOfId(itemId) == size() - 1;
+    }
+    // </editor-fold>
+
+    // <editor-fold defaultstate="collapsed" desc="Container.Sortable">
+    public void sort(Object[] propertyId, boolean[] ascending) {
+        synchronized (this) {
+            sortPropertyIds = propertyId.clone();
+            sortAscending = ascending.clone();
+            clearBlocks();
+        }
+        fireItemSetChange(false);
+    }
+
+    public Collection<?> getSortableContainerPropertyIds() {
+        return source.getPropertyIds();
+    }
+    // </editor-fold>
+
+    // <editor-fold defaultstate="collapsed" desc="Unsupported modifications">
+    public Item addItem(Object itemId) throws UnsupportedOperationException {
+        throw new UnsupportedOperationException("PageSourceContainer is read-only");
+    }
+
+    public Object addItem() throws UnsupportedOperationException {
+        throw new UnsupportedOperationException("PageSourceContainer is read-only");
+    }
+
+    public boolean removeItem(Object itemId) throws UnsupportedOperationException {
+        throw new UnsupportedOperationException("PageSourceContainer is read-only");
+    }
+
+    public boolean removeAllItems() throws UnsupportedOperationException {
+        throw new UnsupportedOperationException("PageSourceContainer is read-only");
+    }
+
+    public boolean addContainerProperty(Object propertyId, Class<?> type, Object defaultValue)
+            throws UnsupportedOperationException {
+        throw new UnsupportedOperationException("PageSourceContainer is read-only");
+    }
+
+    public boolean removeContainerProperty(Object propertyId) throws UnsupportedOperationException {
+        throw new UnsupportedOperationException("PageSourceContainer is read-only");
+    }
+
+    public Object addItemAfter(Object previousItemId) throws UnsupportedOperationException {
+        throw new UnsupportedOperationException("PageSourceContainer is read-only");
+    }
+
+    public Item addItemAfter(Object previousItemId, Object newItemId) throws UnsupportedOperationException {
+        throw new UnsupportedOperationException("PageSourceContainer is read-only");
+    }
+
+    public Object addItemAt(int index) throws UnsupportedOperationException {
+        throw new UnsupportedOperationException("PageSourceContainer is read-only");
+    }
+
+    public Item addItemAt(int index, Object newItemId) throws UnsupportedOperationException {
+        throw new UnsupportedOperationException("PageSourceContainer is read-only");
+    }
+    // </editor-fold>
+
+    private Set<Container.ItemSetChangeListener> getItemSetChangeListeners() {
+        if (itemSetChangeListeners == null) {
+            itemSetChangeListeners = new HashSet<Container.ItemSetChangeListener>();
+        }
+        return itemSetChangeListeners;
+    }
+
+    public synchronized void addListener(Container.ItemSetChangeListener listener) {
+        getItemSetChangeListeners().add(listener);
+    }
+
+    public synchronized void removeListener(Container.ItemSetChangeListener listener) {
+        getItemSetChangeListeners().remove(listener);
+    }
+
+    // listeners are notified outside of lock, they may lock their own state
+    private void fireItemSetChange(boolean dataChanged) {
+        Object[] listeners;
+        synchronized (this) {
+            if (itemSetChangeListeners == null) {
+                return;
+            }
+            listeners = itemSetChangeListeners.toArray();
+        }
+        Container.ItemSetChangeEvent event = new ItemSetChangeEvent(this, dataChanged);
+        for (Object listener : listeners) {
+            ((Container.ItemSetChangeListener) listener).containerItemSetChange(event);
+        }
+    }
+
+    /**
+     * Item set change event of PageSourceContainer, which tells whether rows
+     * of source changed or only their order or count known to container
+     */
+    public static class ItemSetChangeEvent extends EventObject implements Container.ItemSetChangeEvent {
+
+        private final boolean dataChanged;
+
+        private ItemSetChangeEvent(PageSourceContainer container, boolean dataChanged) {
+            super(container);
+            this.dataChanged = dataChanged;
+        }
+
+        public Container getContainer() {
+            return (Container) getSource();
+        }
+
+        /**
+         * @return true after refresh(), false after sort() and updateSize()
+         */
+        public boolean isDataChanged() {
+            return dataChanged;
+        }
+    }
+}
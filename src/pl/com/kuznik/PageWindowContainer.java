@@ -0,0 +1,350 @@
+package pl.com.kuznik;
+
+import com.vaadin.data.Container;
+import com.vaadin.data.Item;
+import com.vaadin.data.Property;
+import com.vaadin.data.util.IndexedContainer;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Container which stays data source of table for all pages and shows rows of
+ * page set with setPage(). Switching page only fires item set change, so
+ * table keeps its columns (order, collapsing, headers) and refreshes its rows
+ * once, as if rows of its container were replaced. Table still paints its
+ * whole state to client.
+ * @author Krzysztof Kuźnik <kmkuznik at gmail.com>
+ */
+class PageWindowContainer implements Container.Indexed, Container.Sortable,
+        Container.ItemSetChangeNotifier, Container.PropertySetChangeNotifier,
+        Property.ValueChangeNotifier, CellChangeNotifier,
+        Container.ItemSetChangeListener, Container.PropertySetChangeListener,
+        Property.ValueChangeListener, CellChangeNotifier.CellChangeListener {
+
+    private Container.Indexed page;
+    private Set<Container.ItemSetChangeListener> itemSetChangeListeners;
+    private Set<Container.PropertySetChangeListener> propertySetChangeListeners;
+    private Set<Property.ValueChangeListener> valueChangeListeners;
+    private Set<CellChangeNotifier.CellChangeListener> cellChangeListeners;
+
+    /**
+     * Creates window showing given page
+     * @param page first page to be shown, null for no rows
+     */
+    PageWindowContainer(Container.Indexed page) {
+        this.page = page == null ? createEmptyPage(null) : page;
+        listen(this.page, true);
+    }
+
+    /**
+     * Shows rows of other page and notifies listeners that set of items
+     * changed
+     * @param newPage page to be shown, null for no rows with properties of
+     * current page
+     */
+    void setPage(Container.Indexed newPage) {
+        if (newPage == page) {
+            return;
+        }
+        listen(page, false);
+        page = newPage == null ? createEmptyPage(page) : newPage;
+        listen(page, true);
+        fireItemSetChange();
+    }
+
+    // page without rows which keeps properties, so table keeps its columns
+    private static Container.Indexed createEmptyPage(Container properties) {
+        IndexedContainer empty = new IndexedContainer();
+        if (properties != null) {
+            for (Object propertyId : properties.getContainerPropertyIds()) {
+                empty.addContainerProperty(propertyId, properties.getType(propertyId), null);
+            }
+        }
+        return empty;
+    }
+
+    /**
+     * Stops listening to current page
+     */
+    void release() {
+        listen(page, false);
+    }
+
+    // cell changes are listened only while somebody listens to window
+    private void listen(Container container, boolean add) {
+        if (container instanceof Container.ItemSetChangeNotifier) {
+            if (add) {
+                ((Container.ItemSetChangeNotifier) container).addListener((Container.ItemSetChangeListener) this);
+            } else {
+                ((Container.ItemSetChangeNotifier) container).removeListener((Container.ItemSetChangeListener) this);
+            }
+        }
+        if (container instanceof Container.PropertySetChangeNotifier) {
+            if (add) {
+                ((Container.PropertySetChangeNotifier) container).addListener(
+                        (Container.PropertySetChangeListener) this);
+            } else {
+                ((Container.PropertySetChangeNotifier) container).removeListener(
+                        (Container.PropertySetChangeListener) this);
+            }
+        }
+        listenValues(container, add && valueChangeListeners != null && !valueChangeListeners.isEmpty());
+        listenCells(container, add && cellChangeListeners != null && !cellChangeListeners.isEmpty());
+    }
+
+    private void listenValues(Container container, boolean add) {
+        if (container instanceof Property.ValueChangeNotifier) {
+            if (add) {
+                ((Property.ValueChangeNotifier) container).addListener((Property.ValueChangeListener) this);
+            } else {
+                ((Property.ValueChangeNotifier) container).removeListener((Property.ValueChangeListener) this);
+            }
+        }
+    }
+
+    private void listenCells(Container container, boolean add) {
+        if (container instanceof CellChangeNotifier) {
+            if (add) {
+                ((CellChangeNotifier) container).addListener((CellChangeNotifier.CellChangeListener) this);
+            } else {
+                ((CellChangeNotifier) container).removeListener((CellChangeNotifier.CellChangeListener) this);
+            }
+        }
+    }
+
+    // <editor-fold defaultstate="collapsed" desc="Container.Indexed">
+    public int indexOfId(Object itemId) {
+        return page.indexOfId(itemId);
+    }
+
+    public Object getIdByIndex(int index) {
+        return page.getIdByIndex(index);
+    }
+
+    public Object addItemAt(int index) throws UnsupportedOperationException {
+        return page.addItemAt(index);
+    }
+
+    public Item addItemAt(int index, Object newItemId) throws UnsupportedOperationException {
+        return page.addItemAt(index, newItemId);
+    }
+
+    public Object nextItemId(Object itemId) {
+        return page.nextItemId(itemId);
+    }
+
+    public Object prevItemId(Object itemId) {
+        return page.prevItemId(itemId);
+    }
+
+    public Object firstItemId() {
+        return page.firstItemId();
+    }
+
+    public Object lastItemId() {
+        return page.lastItemId();
+    }
+
+    public boolean isFirstId(Object itemId) {
+        return page.isFirstId(itemId);
+    }
+
+    public boolean isLastId(Object itemId) {
+        return page.isLastId(itemId);
+    }
+
+    public Object addItemAfter(Object previousItemId) throws UnsupportedOperationException {
+        return page.addItemAfter(previousItemId);
+    }
+
+    public Item addItemAfter(Object previousItemId, Object newItemId) throws UnsupportedOperationException {
+        return page.addItemAfter(previousItemId, newItemId);
+    }
+
+    public Item getItem(Object itemId) {
+        return page.getItem(itemId);
+    }
+
+    public Collection<?> getContainerPropertyIds() {
+        return page.getContainerPropertyIds();
+    }
+
+    public Collection<?> getItemIds() {
+        return page.getItemIds();
+    }
+
+    public Property getContainerProperty(Object itemId, Object propertyId) {
+        return page.getContainerProperty(itemId, propertyId);
+    }
+
+    public Class<?> getType(Object propertyId) {
+        return page.getType(propertyId);
+    }
+
+    public int size() {
+        return page.size();
+    }
+
+    public boolean containsId(Object itemId) {
+        return page.containsId(itemId);
+    }
+
+    public Item addItem(Object itemId) throws UnsupportedOperationException {
+        return page.addItem(itemId);
+    }
+
+    public Object addItem() throws UnsupportedOperationException {
+        return page.addItem();
+    }
+
+    public boolean removeItem(Object itemId) throws UnsupportedOperationException {
+        return page.removeItem(itemId);
+    }
+
+    public boolean addContainerProperty(Object propertyId, Class<?> type, Object defaultValue)
+            throws UnsupportedOperationException {
+        return page.addContainerProperty(propertyId, type, defaultValue);
+    }
+
+    public boolean removeContainerProperty(Object propertyId) throws UnsupportedOperationException {
+        return page.removeContainerProperty(propertyId);
+    }
+
+    public boolean removeAllItems() throws UnsupportedOperationException {
+        return page.removeAllItems();
+    }
+    // </editor-fold>
+
+    // <editor-fold defaultstate="collapsed" desc="Container.Sortable">
+    public void sort(Object[] propertyId, boolean[] ascending) {
+        if (page instanceof Container.Sortable) {
+            ((Container.Sortable) page).sort(propertyId, ascending);
+        }
+    }
+
+    public Collection<?> getSortableContainerPropertyIds() {
+        if (page instanceof Container.Sortable) {
+            return ((Container.Sortable) page).getSortableContainerPropertyIds();
+        }
+        return Collections.emptyList();
+    }
+    // </editor-fold>
+
+    // <editor-fold defaultstate="collapsed" desc="Events">
+    public void addListener(Container.ItemSetChangeListener listener) {
+        if (itemSetChangeListeners == null) {
+            itemSetChangeListeners = new HashSet<Container.ItemSetChangeListener>();
+        }
+        itemSetChangeListeners.add(listener);
+    }
+
+    public void removeListener(Container.ItemSetChangeListener listener) {
+        if (itemSetChangeListeners != null) {
+            itemSetChangeListeners.remove(listener);
+        }
+    }
+
+    public void addListener(Container.PropertySetChangeListener listener) {
+        if (propertySetChangeListeners == null) {
+            propertySetChangeListeners = new HashSet<Container.PropertySetChangeListener>();
+        }
+        propertySetChangeListeners.add(listener);
+    }
+
+    public void removeListener(Container.PropertySetChangeListener listener) {
+        if (propertySetChangeListeners != null) {
+            propertySetChangeListeners.remove(listener);
+        }
+    }
+
+    public void addListener(Property.ValueChangeListener listener) {
+        if (valueChangeListeners == null) {
+            valueChangeListeners = new HashSet<Property.ValueChangeListener>();
+        }
+        if (valueChangeListeners.isEmpty()) {
+            listenValues(page, true);
+        }
+        valueChangeListeners.add(listener);
+    }
+
+    public void removeListener(Property.ValueChangeListener listener) {
+        if (valueChangeListeners != null && valueChangeListeners.remove(listener)
+                && valueChangeListeners.isEmpty()) {
+            listenValues(page, false);
+        }
+    }
+
+    public void addListener(CellChangeNotifier.CellChangeListener listener) {
+        if (cellChangeListeners == null) {
+            cellChangeListeners = new HashSet<CellChangeNotifier.CellChangeListener>();
+        }
+        if (cellChangeListeners.isEmpty()) {
+            listenCells(page, true);
+        }
+        cellChangeListeners.add(listener);
+    }
+
+    public void removeListener(CellChangeNotifier.CellChangeListener listener) {
+        if (cellChangeListeners != null && cellChangeListeners.remove(listener)
+                && cellChangeListeners.isEmpty()) {
+            listenCells(page, false);
+        }
+    }
+
+    private void fireItemSetChange() {
+        if (itemSetChangeListeners == null) {
+            return;
+        }
+        Container.ItemSetChangeEvent event = new Container.ItemSetChangeEvent() {
+
+            public Container getContainer() {
+                return PageWindowContainer.this;
+            }
+        };
+        for (Object listener : itemSetChangeListeners.toArray()) {
+            ((Container.ItemSetChangeListener) listener).containerItemSetChange(event);
+        }
+    }
+
+    public void containerItemSetChange(Container.ItemSetChangeEvent event) {
+        fireItemSetChange();
+    }
+
+    public void containerPropertySetChange(Container.PropertySetChangeEvent event) {
+        if (propertySetChangeListeners == null) {
+            return;
+        }
+        Container.PropertySetChangeEvent windowEvent = new Container.PropertySetChangeEvent() {
+
+            public Container getContainer() {
+                return PageWindowContainer.this;
+            }
+        };
+        for (Object listener : propertySetChangeListeners.toArray()) {
+            ((Container.PropertySetChangeListener) listener).containerPropertySetChange(windowEvent);
+        }
+    }
+
+    public void valueChange(Property.ValueChangeEvent event) {
+        if (valueChangeListeners == null) {
+            return;
+        }
+        for (Object listener : valueChangeListeners.toArray()) {
+            ((Property.ValueChangeListener) listener).valueChange(event);
+        }
+    }
+
+    public void cellChange(CellChangeNotifier.CellChangeEvent event) {
+        if (cellChangeListeners == null) {
+            return;
+        }
+        CellChangeNotifier.CellChangeEvent windowEvent =
+                new CellChangeNotifier.CellChangeEvent(this, event.getItemId(), event.getPropertyIds());
+        for (Object listener : cellChangeListeners.toArray()) {
+            ((CellChangeNotifier.CellChangeListener) listener).cellChange(windowEvent);
+        }
+    }
+    // </editor-fold>
+}
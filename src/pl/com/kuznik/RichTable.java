@@ -1,5 +1,6 @@
 package pl.com.kuznik;
 
+import com.vaadin.Application;
 import com.vaadin.data.Container;
 import com.vaadin.data.Property;
 import com.vaadin.data.util.IndexedContainer;
@@ -7,9 +8,14 @@ import com.vaadin.event.Action;
 import com.vaadin.event.Action.Handler;
 import com.vaadin.event.FieldEvents.FocusEvent;
 import com.vaadin.event.FieldEvents.FocusListener;
+import com.vaadin.event.FieldEvents.TextChangeEvent;
+import com.vaadin.event.FieldEvents.TextChangeListener;
 import com.vaadin.event.ItemClickEvent;
 import com.vaadin.event.ItemClickEvent.ItemClickListener;
 import com.vaadin.event.ShortcutAction;
+import com.vaadin.terminal.PaintException;
+import com.vaadin.terminal.PaintTarget;
+import com.vaadin.terminal.UserError;
 import com.vaadin.ui.Button;
 import com.vaadin.ui.Button.ClickEvent;
 import com.vaadin.ui.ComboBox;
@@ -17,14 +23,23 @@ import com.vaadin.ui.Component;
 import com.vaadin.ui.DefaultFieldFactory;
 import com.vaadin.ui.Field;
 import com.vaadin.ui.HorizontalLayout;
+import com.vaadin.ui.ProgressIndicator;
 import com.vaadin.ui.Table;
 import com.vaadin.ui.TableFieldFactory;
 import com.vaadin.ui.TextField;
+import com.vaadin.ui.Window;
+import java.text.NumberFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedHashMap;
-import java.util.LinkedList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Executor;
 
 /**
  * RichTable extends ordinary Table functionality with pagination, in-place
@@ -36,11 +51,32 @@ public class RichTable extends Table {
     private boolean paginated;
     private boolean selectable = true;
     private PageContainerProvider pageProvider;
+    // data source of table while it is paginated, shows current page
+    private PageWindowContainer pageWindow;
     private Container originalContainer;
     private Set<DataSourceChangedListener> dataSourceChangeListeners;
     private Paginator paginator;
     private RowHider hider;
     private RowEditor editor;
+    private FilterRow filterRow;
+    private SearchBox searchBox;
+    private final PageContentRefresher contentRefresher = new PageContentRefresher();
+    private int cachedPages = PageContainerProvider.DEFAULT_CACHED_PAGES;
+    private long cachedPagesBytes = PageContainerProvider.DEFAULT_CACHED_BYTES;
+    private Executor prefetchExecutor;
+    private Executor sortExecutor = SortIndex.getDefaultExecutor();
+    private WriteBehindQueue writeQueue;
+    private Executor pageLoadExecutor;
+    private SharedPageCache sharedPageCache;
+    private Object sharedSourceKey;
+    // aggregate functions shown in footer by property id
+    private final Map<Object, ColumnAggregate.Function> footerAggregates =
+            new LinkedHashMap<Object, ColumnAggregate.Function>();
+    // nesting level of beginUpdate() calls and notifications deferred by them
+    private int updateDepth = 0;
+    private boolean dataSourceChangeDeferred = false;
+    private boolean pageChangeDeferred = false;
+    private boolean footersDeferred = false;
     private final ControlPanel controlPanel = new ControlPanel();
 
     /**
@@ -68,8 +104,11 @@ public class RichTable extends Table {
 
         addListener((DataSourceChangedListener) getPaginator());
         addListener((DataSourceChangedListener) getHider());
+        addListener((DataSourceChangedListener) getFilterRow());
+        addListener((DataSourceChangedListener) getSearchBox());
         addListener((Property.ValueChangeListener) getHider());
         addListener((ItemClickListener) getEditor());
+        setTableFieldFactory((TableFieldFactory) getEditor());
 
         getPaginator().addListener((PageChangedListener) getHider());
     }
@@ -111,6 +150,28 @@ public class RichTable extends Table {
         return hider;
     }
 
+    /**
+     * filter row lazy getter
+     * @return filter row for this RichTable
+     */
+    private FilterRow getFilterRow() {
+        if (filterRow == null) {
+            filterRow = new FilterRow();
+        }
+        return filterRow;
+    }
+
+    /**
+     * search box lazy getter
+     * @return search box for this RichTable
+     */
+    private SearchBox getSearchBox() {
+        if (searchBox == null) {
+            searchBox = new SearchBox();
+        }
+        return searchBox;
+    }
+
     /**
      * In-place row editor lazy getter
      * @return in-place editor for this RichTable
@@ -148,65 +209,470 @@ public class RichTable extends Table {
         if (this.paginated != paginated) {
             this.paginated = paginated;
             if (paginated) {
-                initializePageProvider(getContainerDataSource());
+                initializePageProvider(getContainerDataSource(), false);
             } else {
+                releasePageWindow();
                 super.setContainerDataSource(originalContainer);
             }
         }
     }
 
     /**
-     * Check whether RichTable is paginated
-     * @return true if table is paginated, false otherwise
+     * Limits cache of recently visited pages
+     * @param maxPages maximal number of cached pages, 0 disables caching
+     * @param maxBytes maximal estimated size of cached pages in bytes
      */
-    public boolean isPaginated() {
-        return paginated;
+    public void setPageCacheLimits(int maxPages, long maxBytes) {
+        this.cachedPages = maxPages;
+        this.cachedPagesBytes = maxBytes;
+        if (pageProvider != null) {
+            pageProvider.setPageCacheLimits(maxPages, maxBytes);
+        }
     }
 
-    @Override
-    public void setContainerDataSource(Container newDataSource) {
+    /**
+     * Enables preparing pages adjacent to current one in background. Data
+     * source is read outside of request thread so it should be enabled only
+     * for containers which allow that.
+     * @param executor executor for prefetching or null to disable prefetching
+     */
+    public void setPrefetchExecutor(Executor executor) {
+        this.prefetchExecutor = executor;
+        if (pageProvider != null) {
+            pageProvider.setPrefetchExecutor(executor);
+        }
+    }
+
+    /**
+     * Sets executor used for sorting large containers in parallel
+     * @param executor executor for sorting or null to sort in request thread
+     */
+    public void setSortExecutor(Executor executor) {
+        this.sortExecutor = executor;
+        if (pageProvider != null) {
+            pageProvider.setSortExecutor(executor);
+        }
+    }
+
+    /**
+     * Sets queue through which edited values are written to data source
+     * later, in batches. Queue is flushed on page change and when data source
+     * is replaced. Works only when RichTable is paginated.
+     * @param queue write-behind queue or null to write edited values
+     * immediately
+     */
+    public void setWriteBehindQueue(WriteBehindQueue queue) {
+        this.writeQueue = queue;
+        if (pageProvider != null) {
+            pageProvider.setWriteBehindQueue(queue);
+        }
+    }
+
+    /**
+     * Sets executor used to load pages which are not cached yet. Paginator
+     * switches to requested page at once, shows empty page with loading
+     * indicator and replaces it with rows when page is loaded, so slow data
+     * source does not block navigation. Data source is read in executor
+     * thread, so it has to allow that. Works only when RichTable is
+     * paginated.
+     * @param executor executor for loading pages, e.g.
+     * PageContainerProvider.getDefaultLoadExecutor(), or null to load pages in
+     * request thread
+     */
+    public void setPageLoadExecutor(Executor executor) {
+        this.pageLoadExecutor = executor;
+        if (pageProvider != null) {
+            pageProvider.setLoadExecutor(executor);
+        }
+    }
+
+    /**
+     * Shares pages with tables of other sessions showing the same read-only
+     * data source, so identical pages are built and fetched once. Works only
+     * when RichTable is paginated and shows page source set by
+     * setPageSource(), whose item ids are equal in every session.
+     * @param cache application-scoped cache or null to stop sharing pages
+     * @param sourceKey key identifying data source, equal for all sessions
+     * showing the same data
+     * @see SharedPageCache
+     */
+    public void setSharedPageCache(SharedPageCache cache, Object sourceKey) {
+        this.sharedPageCache = cache;
+        this.sharedSourceKey = sourceKey;
+        if (pageProvider != null) {
+            pageProvider.setSharedPageCache(cache, sourceKey);
+        }
+    }
+
+    /**
+     * Hides rows with indexes from given range in data source on all pages.
+     * Works only when RichTable is paginated.
+     * @param from index of first row to be hidden
+     * @param to index after last row to be hidden
+     */
+    public void hideRows(int from, int to) {
         if (isPaginated()) {
-            // if RichTable is paginated dataSource requires more work
-            initializePageProvider(newDataSource);
-        } else {
-            super.setContainerDataSource(newDataSource);
+            beginUpdate();
+            try {
+                getPageProvider().hideRows(from, to);
+                getHider().rowsHidden();
+            } finally {
+                endUpdate();
+            }
         }
-        notifyDataSourceChanged();
     }
 
-    @Override
-    public void sort() {
+    /**
+     * Hides rows for which value of property satisfies predicate on all pages.
+     * Works only when RichTable is paginated.
+     * @param propertyId id of property which is checked
+     * @param predicate condition of rows to be hidden
+     */
+    public void hideRows(Object propertyId, PageContainerProvider.ValuePredicate predicate) {
         if (isPaginated()) {
-            // we need to sort underlying container
-            getPageProvider().sort(getSortContainerPropertyId(), isSortAscending());
-            notifyDataSourceChanged();
+            beginUpdate();
+            try {
+                getPageProvider().hideRows(propertyId, predicate);
+                getHider().rowsHidden();
+            } finally {
+                endUpdate();
+            }
+        }
+    }
+
+    /**
+     * Shows only rows whose value of property equals given value. Filters of
+     * different properties are combined. Works only when RichTable is
+     * paginated.
+     * @param propertyId id of filtered property
+     * @param value value rows must have
+     */
+    public void setFilter(Object propertyId, Object value) {
+        if (isPaginated()) {
+            beginUpdate();
+            try {
+                getPageProvider().setFilter(propertyId, value);
+                getPaginator().rowsFiltered();
+            } finally {
+                endUpdate();
+            }
+        }
+    }
+
+    /**
+     * Shows only rows whose value of property is in given range. Works only
+     * when RichTable is paginated.
+     * @param propertyId id of filtered property
+     * @param from smallest value rows may have or null for no lower bound
+     * @param to greatest value rows may have or null for no upper bound
+     */
+    public void setRangeFilter(Object propertyId, Object from, Object to) {
+        if (isPaginated()) {
+            beginUpdate();
+            try {
+                getPageProvider().setRangeFilter(propertyId, from, to);
+                getPaginator().rowsFiltered();
+            } finally {
+                endUpdate();
+            }
+        }
+    }
+
+    /**
+     * Removes filter of property
+     * @param propertyId id of filtered property
+     */
+    public void removeFilter(Object propertyId) {
+        if (isPaginated()) {
+            beginUpdate();
+            try {
+                getPageProvider().removeFilter(propertyId);
+                getPaginator().rowsFiltered();
+            } finally {
+                endUpdate();
+            }
+        }
+    }
+
+    /**
+     * Removes filters of all properties
+     */
+    public void removeAllFilters() {
+        if (isPaginated()) {
+            beginUpdate();
+            try {
+                getPageProvider().removeAllFilters();
+                getPaginator().rowsFiltered();
+            } finally {
+                endUpdate();
+            }
+        }
+    }
+
+    /**
+     * Shows only rows containing every word of query in visible columns,
+     * ignoring case. Words may be parts of words of values. Works only when
+     * RichTable is paginated.
+     * @param query searched words, null or blank to show all rows
+     */
+    public void setSearchQuery(String query) {
+        if (isPaginated()) {
+            beginUpdate();
+            try {
+                getPageProvider().setSearchQuery(query, getSearchedColumns());
+                getPaginator().rowsFiltered();
+            } finally {
+                endUpdate();
+            }
+        }
+    }
+
+    // columns shown to user
+    private List<Object> getSearchedColumns() {
+        List<Object> columns = new ArrayList<Object>();
+        for (Object propertyId : getVisibleColumns()) {
+            if (!isColumnCollapsed(propertyId)) {
+                columns.add(propertyId);
+            }
+        }
+        return columns;
+    }
+
+    /**
+     * Switches to page which shows given row, e.g. one of rows found by
+     * search
+     * @param itemId id of row
+     * @return false if row is not shown on any page
+     */
+    public boolean showPageOf(Object itemId) {
+        if (!isPaginated()) {
+            return false;
+        }
+        int page = getPageProvider().getPageNumberOf(itemId);
+        if (page < 0) {
+            return false;
+        }
+        getPaginator().setPage(page);
+        return true;
+    }
+
+    /**
+     * Shows aggregate of column in table footer as "page / total", where page
+     * is aggregate of rows of current page and total is aggregate of all rows
+     * of data source. Aggregates are kept up to date with edited cells and
+     * with rows inserted or removed one by one, so data source is not read
+     * again on every paint. Works only when RichTable is paginated and rows
+     * are not fetched from PageSource.
+     * @param propertyId id of numeric column
+     * @param function aggregate function or null to remove aggregate of column
+     */
+    public void setColumnAggregate(Object propertyId, ColumnAggregate.Function function) {
+        if (function == null) {
+            footerAggregates.remove(propertyId);
+            setColumnFooter(propertyId, null);
+            if (pageProvider != null) {
+                pageProvider.removeAggregate(propertyId);
+            }
         } else {
-            super.sort();
+            footerAggregates.put(propertyId, function);
+            updateFooterAggregates();
+        }
+        setFooterVisible(!footerAggregates.isEmpty());
+    }
+
+    /**
+     * @param propertyId id of numeric column
+     * @return aggregate function shown in footer of column or null
+     */
+    public ColumnAggregate.Function getColumnAggregate(Object propertyId) {
+        return footerAggregates.get(propertyId);
+    }
+
+    // renders current aggregates in footer
+    // footers are set outside of paint, once per batch of updates
+    private void footersChanged() {
+        // Table constructor sets data source before fields are initialized
+        if (footerAggregates == null || footerAggregates.isEmpty()) {
+            return;
+        }
+        if (isUpdating()) {
+            footersDeferred = true;
+        } else {
+            updateFooterAggregates();
+        }
+    }
+
+    private void updateFooterAggregates() {
+        if (footerAggregates.isEmpty() || !isPaginated()
+                || originalContainer instanceof PageSourceContainer) {
+            return;
+        }
+        NumberFormat format = NumberFormat.getInstance(getLocale() == null ? Locale.getDefault() : getLocale());
+        for (Map.Entry<Object, ColumnAggregate.Function> entry : footerAggregates.entrySet()) {
+            Object propertyId = entry.getKey();
+            ColumnAggregate.Function function = entry.getValue();
+            double page = getPageProvider().getPageAggregate(propertyId).get(function);
+            double total = getPageProvider().getAggregate(propertyId).get(function);
+            String footer = formatAggregate(format, page) + " / " + formatAggregate(format, total);
+            if (!footer.equals(getColumnFooter(propertyId))) {
+                setColumnFooter(propertyId, footer);
+            }
+        }
+    }
+
+    private static String formatAggregate(NumberFormat format, double value) {
+        return Double.isNaN(value) ? "-" : format.format(value);
+    }
+
+    /**
+     * Starts batch of updates. Until matching endUpdate() rendered cells are
+     * not refreshed and notifications about changed data source or page are
+     * deferred. Batches can be nested, only outermost one is finished with
+     * refresh.
+     */
+    public void beginUpdate() {
+        if (updateDepth++ == 0) {
+            disableContentRefreshing();
         }
     }
 
     /**
-     * Method to remember columns order and their collapsed state. Required to
-     * keep columns state in all pages the same.
-     * @return columns state
+     * Finishes batch of updates started with beginUpdate(). When outermost
+     * batch ends deferred notifications are delivered and rendered cells are
+     * refreshed once.
+     * @throws IllegalStateException if there is no batch to finish
      */
-    private LinkedHashMap<Object, Boolean> getColumnsState() {
-        LinkedHashMap<Object, Boolean> result = new LinkedHashMap<Object, Boolean>();
-        Object[] order = getVisibleColumns();
-        for (Object column : order) {
-            result.put(column, isColumnCollapsed(column));
+    public void endUpdate() {
+        if (updateDepth == 0) {
+            throw new IllegalStateException("endUpdate() called without beginUpdate()");
+        }
+        if (updateDepth > 1) {
+            --updateDepth;
+            return;
+        }
+        try {
+            // changes made by listeners are part of this batch too
+            while (dataSourceChangeDeferred || pageChangeDeferred) {
+                if (dataSourceChangeDeferred) {
+                    dataSourceChangeDeferred = false;
+                    deliverDataSourceChanged();
+                } else {
+                    pageChangeDeferred = false;
+                    getPaginator().deliverPageChanged();
+                }
+            }
+            if (footersDeferred) {
+                footersDeferred = false;
+                updateFooterAggregates();
+            }
+        } finally {
+            updateDepth = 0;
+            enableContentRefreshing(true);
+        }
+    }
+
+    @Override
+    protected void enableContentRefreshing(boolean refreshContent) {
+        // inside batch only endUpdate() enables refreshing again
+        if (!isUpdating()) {
+            super.enableContentRefreshing(refreshContent);
+        }
+    }
+
+    /**
+     * Runs updates as single batch, see beginUpdate()
+     * @param updates updates of table or its data
+     */
+    public void update(Runnable updates) {
+        beginUpdate();
+        try {
+            updates.run();
+        } finally {
+            endUpdate();
+        }
+    }
+
+    /**
+     * @return true if batch of updates started with beginUpdate() is in
+     * progress
+     */
+    public boolean isUpdating() {
+        return updateDepth > 0;
+    }
+
+    /**
+     * Check whether RichTable is paginated
+     * @return true if table is paginated, false otherwise
+     */
+    public boolean isPaginated() {
+        return paginated;
+    }
+
+    @Override
+    public void setContainerDataSource(Container newDataSource) {
+        beginUpdate();
+        try {
+            if (isPaginated()) {
+                // if RichTable is paginated dataSource requires more work
+                initializePageProvider(newDataSource, false);
+            } else {
+                super.setContainerDataSource(newDataSource);
+            }
+            notifyDataSourceChanged();
+        } finally {
+            endUpdate();
         }
-        return result;
     }
 
     /**
-     * Restores columns state from LinkedHashMap acquired from getColumnsState()
-     * @param columnsState columns state
+     * Sets source of rows fetched range by range. Only rows of current page
+     * are kept in memory when RichTable is paginated. Number of rows of
+     * EstimatingPageSource is estimated at first and paginator shows "about
+     * N" pages until rows are counted in page load executor.
+     * @param pageSource source of rows
      */
-    private void restoreColumnsState(LinkedHashMap<Object, Boolean> columnsState) {
-        setVisibleColumns(columnsState.keySet().toArray());
-        for (Object column : columnsState.keySet()) {
-            setColumnCollapsed(column, columnsState.get(column));
+    public void setPageSource(PageSource pageSource) {
+        PageSourceContainer container = new PageSourceContainer(pageSource, getPaginator().getItemsPerPage());
+        container.setSizeEstimation(pageSource instanceof EstimatingPageSource);
+        setContainerDataSource(container);
+    }
+
+    @Override
+    public void paintContent(PaintTarget target) throws PaintException {
+        if (isPaginated() && getPageProvider().commitPendingChanges()) {
+            // all cell changes collected since last paint are rendered at once
+            resetPageBuffer();
+            refreshRenderedCells();
+        }
+        super.paintContent(target);
+    }
+
+    @Override
+    public void containerItemSetChange(Container.ItemSetChangeEvent event) {
+        super.containerItemSetChange(event);
+        // page shows other rows
+        footersChanged();
+    }
+
+    @Override
+    public void setLocale(Locale locale) {
+        super.setLocale(locale);
+        footersChanged();
+    }
+
+    @Override
+    public void sort() {
+        if (isPaginated()) {
+            // pages are sorted by page provider
+            beginUpdate();
+            try {
+                getPageProvider().sort(getSortContainerPropertyId(), isSortAscending());
+                notifyDataSourceChanged();
+            } finally {
+                endUpdate();
+            }
+        } else {
+            super.sort();
         }
     }
 
@@ -221,28 +687,73 @@ public class RichTable extends Table {
         getDataSourceChangeListeners().add(listener);
     }
 
+    // rows fetched from PageSource can be neither filtered nor searched
+    private boolean isFilterable() {
+        return isPaginated() && !(originalContainer instanceof PageSourceContainer);
+    }
+
     private void notifyDataSourceChanged() {
+        if (isUpdating()) {
+            dataSourceChangeDeferred = true;
+        } else {
+            deliverDataSourceChanged();
+        }
+    }
+
+    private void deliverDataSourceChanged() {
         for (DataSourceChangedListener listener : getDataSourceChangeListeners()) {
             listener.dataSourceChanged();
         }
+        footersChanged();
     }
 
     /**
      * Initializes new pageProvider for dataSource
      * @param dataSource
+     * @param keepColumns true if dataSource is already shown and only its
+     * pages change, so columns state of table is kept
      */
-    private void initializePageProvider(Container dataSource) {
+    private void initializePageProvider(Container dataSource, boolean keepColumns) {
         originalContainer = dataSource;
         if (originalContainer instanceof Container.Indexed) {
+            if (pageProvider != null) {
+                pageProvider.release();
+            }
             pageProvider = new PageContainerProvider((Container.Indexed) originalContainer,
                     getPaginator().getItemsPerPage());
-            super.setContainerDataSource(
-                    getPageProvider().getPageContainer(getPaginator().getCurrentPage()));
+            pageProvider.setPageContentListener(contentRefresher);
+            pageProvider.setPageCacheLimits(cachedPages, cachedPagesBytes);
+            pageProvider.setPrefetchExecutor(prefetchExecutor);
+            pageProvider.setSortExecutor(sortExecutor);
+            pageProvider.setWriteBehindQueue(writeQueue);
+            pageProvider.setLoadExecutor(pageLoadExecutor);
+            pageProvider.setSharedPageCache(sharedPageCache, sharedSourceKey);
+            Container.Indexed page = (Container.Indexed) pageProvider.getPageContainer(
+                    getPaginator().getCurrentPage());
+            if (page == null) {
+                // current page does not exist in new data source; paginator
+                // moves to last existing page when data source change is notified
+                page = (Container.Indexed) pageProvider.getPageContainer(1);
+            }
+            if (keepColumns && pageWindow != null) {
+                pageWindow.setPage(page);
+            } else {
+                releasePageWindow();
+                pageWindow = new PageWindowContainer(page);
+                super.setContainerDataSource(pageWindow);
+            }
         } else {
             throw new UnsupportedOperationException("Provided container does not support pagination.");
         }
     }
 
+    private void releasePageWindow() {
+        if (pageWindow != null) {
+            pageWindow.release();
+            pageWindow = null;
+        }
+    }
+
     /**
      * Class responsible for manipulating RichTable pages
      */
@@ -258,8 +769,13 @@ public class RichTable extends Table {
         private Button lastPageButton = new Button(">>");
         private TextField pageNumberText = new TextField();
         private Button goToPageButton = new Button("GO");
+        private ProgressIndicator loadingIndicator = new ProgressIndicator();
+        private final PageLoader pageLoader = new PageLoader();
+        private ProgressIndicator countingIndicator = new ProgressIndicator();
         private int currentPage = 1;
         private int itemsPerPage;
+        // milliseconds between client polls while page is loaded
+        private static final int LOADING_POLLING_INTERVAL = 200;
         private final Integer[] itemsPerPageValues = {10, 20, 30, 50, 100, 200, 300, 500, 1000};
         private Set<PageChangedListener> pageChangeListeners = null;
 
@@ -289,6 +805,17 @@ public class RichTable extends Table {
             addComponent(goToPageButton);
             goToPageButton.addListener((Button.ClickListener) this);
 
+            // polling brings page loaded in background to the client
+            addComponent(loadingIndicator);
+            loadingIndicator.setIndeterminate(true);
+            loadingIndicator.setPollingInterval(LOADING_POLLING_INTERVAL);
+            loadingIndicator.setVisible(false);
+            // and exact number of pages counted in background
+            addComponent(countingIndicator);
+            countingIndicator.setIndeterminate(true);
+            countingIndicator.setPollingInterval(LOADING_POLLING_INTERVAL);
+            countingIndicator.setVisible(false);
+
             addListener((PageChangedListener) this);
             updateUI();
         }
@@ -325,10 +852,15 @@ public class RichTable extends Table {
             }
             itemsPerPage = newItemsPerPage;
             currentPage = 1;
-            LinkedHashMap<Object, Boolean> columnsState = getColumnsState();
-            // changing itemsPerPage eventually ands up in reinstantiation of pageProvider
-            setContainerDataSource(originalContainer);
-            restoreColumnsState(columnsState);
+            beginUpdate();
+            try {
+                // changing itemsPerPage ends up in reinstantiation of pageProvider,
+                // rows of its first page replace rows shown by the same window
+                initializePageProvider(originalContainer, true);
+                notifyDataSourceChanged();
+            } finally {
+                endUpdate();
+            }
             updateUI();
         }
 
@@ -341,10 +873,51 @@ public class RichTable extends Table {
             } else {
                 currentPage = page;
             }
-            LinkedHashMap<Object, Boolean> columnsState = getColumnsState();
-            RichTable.super.setContainerDataSource(getPageProvider().getPageContainer(currentPage));
-            restoreColumnsState(columnsState);
-            firePageChanged();
+            if (!getPageProvider().loadPage(currentPage, pageLoader)) {
+                showLoadingPage();
+                return;
+            }
+            loadingIndicator.setVisible(false);
+            // only rows are replaced, columns of table stay untouched
+            beginUpdate();
+            try {
+                setCurrentPageFirstItemIndex(0);
+                pageWindow.setPage((Container.Indexed) getPageProvider().getPageContainer(currentPage));
+                firePageChanged();
+            } finally {
+                endUpdate();
+            }
+        }
+
+        // shows empty page with the same columns until page is loaded
+        private void showLoadingPage() {
+            IndexedContainer placeholder = new IndexedContainer();
+            for (Object propertyId : originalContainer.getContainerPropertyIds()) {
+                placeholder.addContainerProperty(propertyId, originalContainer.getType(propertyId), null);
+            }
+            loadingIndicator.setVisible(true);
+            beginUpdate();
+            try {
+                setCurrentPageFirstItemIndex(0);
+                pageWindow.setPage(placeholder);
+            } finally {
+                endUpdate();
+            }
+            updateUI();
+        }
+
+        // filter changed, matching rows are shown from the beginning
+        private void rowsFiltered() {
+            setPage(1);
+            updateUI();
+        }
+
+        // number of pages changed while current page stayed in place
+        private void pagesChanged() {
+            if (currentPage > pageProvider.getLastPageNumber()) {
+                setPage(currentPage);
+            }
+            updateUI();
         }
 
         private void goToNextPage() {
@@ -365,7 +938,8 @@ public class RichTable extends Table {
         // </editor-fold>
 
         private String getCurrentPageText() {
-            return currentPage + " / " + getPageProvider().getLastPageNumber();
+            return currentPage + " / " + (getPageProvider().isRowCountEstimated() ? "about " : "")
+                    + getPageProvider().getLastPageNumber();
         }
 
         // helper method to evaluate selection length
@@ -393,6 +967,14 @@ public class RichTable extends Table {
         }
 
         private void firePageChanged() {
+            if (isUpdating()) {
+                pageChangeDeferred = true;
+            } else {
+                deliverPageChanged();
+            }
+        }
+
+        private void deliverPageChanged() {
             for (PageChangedListener pageChangedListener : getPageChangeListeners()) {
                 pageChangedListener.pageChanged();
             }
@@ -414,10 +996,28 @@ public class RichTable extends Table {
         }
 
         public void dataSourceChanged() {
+            countRows();
             setPage(currentPage);
             updateUI();
         }
 
+        // estimated number of rows is replaced by exact one counted in background
+        private void countRows() {
+            countingIndicator.setVisible(getPageProvider().countRows(new RowCounter(getPageProvider())));
+        }
+
+        // components are changed only while application is locked
+        private void runLocked(Runnable task) {
+            Application application = getApplication();
+            if (application == null) {
+                task.run();
+            } else {
+                synchronized (application) {
+                    task.run();
+                }
+            }
+        }
+
         // select page number on focus
         public void focus(FocusEvent event) {
             Component source = event.getComponent();
@@ -435,6 +1035,88 @@ public class RichTable extends Table {
         public void pageChanged() {
             updateUI();
         }
+
+        /**
+         * listener switching to page loaded in background, if it is still
+         * the requested one
+         */
+        private class PageLoader implements PageContainerProvider.PageLoadListener {
+
+            public void pageLoaded(final int pageNumber) {
+                runLocked(new Runnable() {
+
+                    public void run() {
+                        if (pageNumber == currentPage && loadingIndicator.isVisible()) {
+                            setPage(pageNumber);
+                        }
+                    }
+                });
+            }
+
+            public void pageLoadFailed(final int pageNumber, final Throwable cause) {
+                runLocked(new Runnable() {
+
+                    public void run() {
+                        if (pageNumber != currentPage || !loadingIndicator.isVisible()) {
+                            return;
+                        }
+                        loadingIndicator.setVisible(false);
+                        if (getWindow() != null) {
+                            getWindow().showNotification("Page " + pageNumber + " could not be loaded",
+                                    String.valueOf(cause.getMessage()), Window.Notification.TYPE_ERROR_MESSAGE);
+                        }
+                    }
+                });
+            }
+        }
+
+        /**
+         * listener applying exact number of rows, if its page provider is
+         * still used
+         */
+        private class RowCounter implements PageContainerProvider.RowCountListener {
+
+            private final PageContainerProvider provider;
+
+            public RowCounter(PageContainerProvider provider) {
+                this.provider = provider;
+            }
+
+            public void rowsCounted(final int count) {
+                runLocked(new Runnable() {
+
+                    public void run() {
+                        if (provider != pageProvider) {
+                            return;
+                        }
+                        countingIndicator.setVisible(false);
+                        beginUpdate();
+                        try {
+                            provider.applyRowCount(count);
+                            pagesChanged();
+                        } finally {
+                            endUpdate();
+                        }
+                    }
+                });
+            }
+
+            public void rowCountFailed(final Throwable cause) {
+                runLocked(new Runnable() {
+
+                    public void run() {
+                        if (provider != pageProvider) {
+                            return;
+                        }
+                        countingIndicator.setVisible(false);
+                        if (getWindow() != null) {
+                            getWindow().showNotification("Rows could not be counted",
+                                    String.valueOf(cause.getMessage()), Window.Notification.TYPE_ERROR_MESSAGE);
+                        }
+                    }
+                });
+            }
+        }
     }
 
     /**
@@ -448,7 +1130,6 @@ public class RichTable extends Table {
         private final String SHOW_BUTTON_LABEL = "Show hidden";
         private Button hideButton = new Button("Hide selected");
         private Button showButton = new Button(SHOW_BUTTON_LABEL);
-        private int hiddenRowsCount = 0;
 
         public RowHider() {
             addComponent(hideButton);
@@ -467,21 +1148,13 @@ public class RichTable extends Table {
             }
         }
 
-        private void addHiddenRows(int count) {
-            hiddenRowsCount += count;
-        }
-
         // helper method for showButton caption
         private String createHiddenRowsText() {
             return areRowsHidden() ? " (" + getHiddenRowsCount() + ")" : "";
         }
 
-        private void resetHiddenRowsCount() {
-            hiddenRowsCount = 0;
-        }
-
         private boolean areRowsHidden() {
-            return hiddenRowsCount > 0;
+            return getHiddenRowsCount() > 0;
         }
 
         private boolean areRowsSelected() {
@@ -496,29 +1169,42 @@ public class RichTable extends Table {
             }
         }
 
+        // hidden rows are kept by page provider for all pages
         public int getHiddenRowsCount() {
-            return hiddenRowsCount;
+            return pageProvider == null ? 0 : pageProvider.getHiddenRowsCount();
         }
 
         private void hideSelectedRows() {
             Object value = RichTable.this.getValue();
-            if (value instanceof Collection) {
-                Collection<?> rowset = (Collection<?>) value;
-                pageProvider.hideRows(rowset);
-                addHiddenRows(rowset.size());
+            beginUpdate();
+            try {
+                if (value instanceof Collection) {
+                    Collection<?> rowset = (Collection<?>) value;
+                    pageProvider.hideRows(rowset);
+                    getPaginator().pagesChanged();
+                }
+                RichTable.this.setValue(null);
+            } finally {
+                endUpdate();
             }
-            RichTable.this.setValue(null);
+            updateUI();
+        }
+
+        // rows were hidden without selecting them
+        private void rowsHidden() {
+            getPaginator().pagesChanged();
             updateUI();
         }
 
         private void showHiddenRows() {
             if (areRowsHidden()) {
-                // rows are added one after one so its better to disable immediate
-                // content refreshing
-                RichTable.this.disableContentRefreshing();
-                pageProvider.showHiddenRows();
-                RichTable.this.enableContentRefreshing(true);
-                resetHiddenRowsCount();
+                beginUpdate();
+                try {
+                    pageProvider.showHiddenRows();
+                    getPaginator().pagesChanged();
+                } finally {
+                    endUpdate();
+                }
                 updateUI();
             }
         }
@@ -530,7 +1216,6 @@ public class RichTable extends Table {
         }
 
         public void dataSourceChanged() {
-            resetHiddenRowsCount();
             updateUI();
         }
 
@@ -539,51 +1224,207 @@ public class RichTable extends Table {
         }
 
         public void pageChanged() {
-            resetHiddenRowsCount();
             updateUI();
         }
     }
 
+    /**
+     * class responsible for filtering rows by values typed into fields of
+     * columns. Text is compared with values converted to type of column;
+     * "from..to" filters range of values, either bound can be left empty.
+     */
+    private class FilterRow
+            extends HorizontalLayout
+            implements Property.ValueChangeListener, RichTable.DataSourceChangedListener {
+
+        private static final String RANGE_SEPARATOR = "..";
+        private final LinkedHashMap<Object, TextField> fields = new LinkedHashMap<Object, TextField>();
+        // page provider which has filters of fields
+        private PageContainerProvider filteredProvider;
+
+        public void valueChange(Property.ValueChangeEvent event) {
+            TextField field = (TextField) event.getProperty();
+            beginUpdate();
+            try {
+                if (applyFilter(field.getData(), field)) {
+                    getPaginator().rowsFiltered();
+                }
+            } finally {
+                endUpdate();
+            }
+        }
+
+        // sets filter of field in page provider, false if text is not valid filter
+        private boolean applyFilter(Object propertyId, TextField field) {
+            String text = field.getValue() == null ? "" : field.getValue().toString().trim();
+            Class<?> type = getType(propertyId);
+            try {
+                if (text.length() == 0) {
+                    getPageProvider().removeFilter(propertyId);
+                } else if (text.contains(RANGE_SEPARATOR)) {
+                    int separator = text.indexOf(RANGE_SEPARATOR);
+                    getPageProvider().setRangeFilter(propertyId, parseValue(text.substring(0, separator), type),
+                            parseValue(text.substring(separator + RANGE_SEPARATOR.length()), type));
+                } else {
+                    getPageProvider().setFilter(propertyId, parseValue(text, type));
+                }
+                field.setComponentError(null);
+                return true;
+            } catch (IllegalArgumentException ex) {
+                field.setComponentError(new UserError(ex.getMessage()));
+                return false;
+            }
+        }
+
+        // converts text to type of column, empty text is no value
+        private Object parseValue(String text, Class<?> type) {
+            text = text.trim();
+            if (text.length() == 0) {
+                return null;
+            }
+            if (type == null || type.isAssignableFrom(String.class)) {
+                return text;
+            }
+            try {
+                return type.getConstructor(String.class).newInstance(text);
+            } catch (Exception ex) {
+                throw new IllegalArgumentException("\"" + text + "\" is not valid " + type.getSimpleName());
+            }
+        }
+
+        // fields follow visible columns, filters of remaining columns stay;
+        // they are set again only in new page provider (new data source or
+        // page size), sorted rows keep them
+        public void dataSourceChanged() {
+            if (!isFilterable() || getVisibleColumns() == null) {
+                removeAllComponents();
+                fields.clear();
+                filteredProvider = null;
+                return;
+            }
+            List<Object> columns = Arrays.asList(getVisibleColumns());
+            if (!columns.equals(new ArrayList<Object>(fields.keySet()))) {
+                Map<Object, TextField> oldFields = new HashMap<Object, TextField>(fields);
+                removeAllComponents();
+                fields.clear();
+                for (Object propertyId : columns) {
+                    TextField field = oldFields.get(propertyId);
+                    if (field == null) {
+                        field = new TextField();
+                        field.setInputPrompt(getColumnHeader(propertyId));
+                        field.setData(propertyId);
+                        field.setImmediate(true);
+                        field.addListener((Property.ValueChangeListener) this);
+                    }
+                    fields.put(propertyId, field);
+                    addComponent(field);
+                }
+            }
+            if (filteredProvider == getPageProvider()) {
+                return;
+            }
+            filteredProvider = getPageProvider();
+            boolean filtered = false;
+            for (Map.Entry<Object, TextField> field : fields.entrySet()) {
+                Object value = field.getValue().getValue();
+                if (value != null && value.toString().trim().length() > 0) {
+                    filtered |= applyFilter(field.getKey(), field.getValue());
+                }
+            }
+            if (filtered) {
+                // current page stays unless it is beyond filtered rows
+                getPaginator().pagesChanged();
+            }
+        }
+    }
+
+    /**
+     * class responsible for quick search, rows are searched while query is
+     * typed
+     */
+    private class SearchBox
+            extends TextField
+            implements TextChangeListener, RichTable.DataSourceChangedListener {
+
+        // text typed so far, value of field is updated only when it loses focus
+        private String query;
+        // page provider which has query applied
+        private PageContainerProvider searchedProvider;
+
+        public SearchBox() {
+            setInputPrompt("Search");
+            setTextChangeEventMode(TextChangeEventMode.LAZY);
+            addListener((TextChangeListener) this);
+        }
+
+        public void textChange(TextChangeEvent event) {
+            query = event.getText();
+            setSearchQuery(query);
+        }
+
+        // query is applied to new page provider (new data source or page
+        // size) keeping current page, sorted rows keep it
+        public void dataSourceChanged() {
+            setVisible(isFilterable());
+            if (!isFilterable() || searchedProvider == getPageProvider()) {
+                return;
+            }
+            searchedProvider = getPageProvider();
+            if (query != null && query.trim().length() > 0) {
+                getPageProvider().setSearchQuery(query, getSearchedColumns());
+                getPaginator().pagesChanged();
+            }
+        }
+    }
+
     /**
      * class responsible for in-place row edition
      */
     private class RowEditor
-            implements ItemClickListener, Handler {
+            implements ItemClickListener, Handler, TableFieldFactory {
 
         private Action submit_action = new ShortcutAction("Default", ShortcutAction.KeyCode.ENTER, null);
         private Action discard_action = new ShortcutAction("Escape", ShortcutAction.KeyCode.ESCAPE, null);
         private Object currentlyEditedItem = null;
-        private LinkedList<Field> fields = null;
+        private LinkedHashMap<Object, Field> fields = new LinkedHashMap<Object, Field>();
+        // fields reused by every edited row, one per column and type
+        private final HashMap<List<Object>, Field> fieldPool = new HashMap<List<Object>, Field>();
 
         public void itemClick(ItemClickEvent event) {
             // double-click starts edition
             if (event.isDoubleClick()) {
-                final Object newItemId = event.getItemId();
-                if (newItemId != currentlyEditedItem) {
-                    discardChanges();
+                Object newItemId = event.getItemId();
+                if (isEditable() && newItemId.equals(currentlyEditedItem)) {
+                    return; // row is edited already
                 }
+                discardChanges();
                 currentlyEditedItem = newItemId;
-                fields = new LinkedList<Field>();
-                RichTable.this.setTableFieldFactory(new TableFieldFactory() {
-
-                    public Field createField(Container container, Object itemId,
-                            Object propertyId, Component uiContext) {
-
-                        if (itemId == newItemId) {
-                            Field field = DefaultFieldFactory.createFieldByPropertyType(
-                                    container.getItem(itemId).getItemProperty(propertyId).getType());
-                            fields.add(field);
-                            field.setWriteThrough(false);
-                            field.setPropertyDataSource(container.getItem(itemId).getItemProperty(propertyId));
-                            return field; // returns field appropriate for edition
-                        }
-                        return null; // edition will not be possible
-                    }
-                });
+                fields.clear();
                 goToEditMode();
             }
         }
 
+        /**
+         * Factory set once for RichTable. Only edited row gets fields, other
+         * rows are rendered as plain values.
+         */
+        public Field createField(Container container, Object itemId,
+                Object propertyId, Component uiContext) {
+            if (currentlyEditedItem == null || !currentlyEditedItem.equals(itemId)) {
+                return null; // edition will not be possible
+            }
+            Class<?> type = container.getType(propertyId);
+            List<Object> key = Arrays.asList(propertyId, type);
+            Field field = fieldPool.get(key);
+            if (field == null) {
+                field = DefaultFieldFactory.createFieldByPropertyType(type);
+                field.setWriteThrough(false);
+                fieldPool.put(key, field);
+            }
+            fields.put(propertyId, field);
+            return field; // table sets edited cell as data source
+        }
+
         public Action[] getActions(Object target, Object sender) {
             return new Action[]{submit_action, discard_action};
         }
@@ -609,13 +1450,17 @@ public class RichTable extends Table {
         private void goOutEditMode() {
             RichTable.this.setEditable(false);
             RichTable.super.setSelectable(RichTable.this.selectable);
+            if (isPaginated()) {
+                // all cells were just refreshed, committed row included
+                getPageProvider().commitPendingChanges();
+            }
         }
 
         private void discardChanges() {
             if (currentlyEditedItem == null) {
                 return;
             }
-            for (Field field : fields) {
+            for (Field field : fields.values()) {
                 if (field != null) { // non-editable fields can be null
                     field.discard();
                 }
@@ -627,18 +1472,47 @@ public class RichTable extends Table {
             if (currentlyEditedItem == null) {
                 return;
             }
-            for (Field field : fields) {
-                if (field != null && field.isValid()) {  // non-editable fields can be null
-                    field.commit();
+            // modified cells are written as single change of row
+            LinkedHashMap<Object, Object> values = new LinkedHashMap<Object, Object>();
+            for (Map.Entry<Object, Field> entry : fields.entrySet()) {
+                Field field = entry.getValue();
+                if (field != null && field.isModified() && field.isValid() // non-editable fields can be null
+                        && !field.getPropertyDataSource().isReadOnly()) {
+                    values.put(entry.getKey(), field.getValue());
+                }
+            }
+            if (isPaginated()) {
+                getPageProvider().commitRow(currentlyEditedItem, values);
+            } else {
+                for (Map.Entry<Object, Object> entry : values.entrySet()) {
+                    getContainerProperty(currentlyEditedItem, entry.getKey()).setValue(entry.getValue());
                 }
             }
             currentlyEditedItem = null;
         }
     }
 
+    /**
+     * class responsible for requesting repaint when cells of current page
+     * change. Only first change requests repaint, the rest is rendered
+     * together with it. Footers with aggregates are updated when data changes.
+     */
+    private class PageContentRefresher implements PageContainerProvider.PageContentListener {
+
+        public void pageContentChanged() {
+            requestRepaint();
+        }
+
+        public void aggregatesChanged() {
+            footersChanged();
+        }
+    }
+
     public class ControlPanel extends HorizontalLayout {
 
         ControlPanel() {
+            addComponent(getSearchBox());
+            addComponent(getFilterRow());
             addComponent(getHider());
             addComponent(getPaginator());
         }
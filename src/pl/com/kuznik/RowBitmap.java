@@ -0,0 +1,732 @@
+package pl.com.kuznik;
+
+import java.io.Serializable;
+
+/**
+ * Compressed set of row indexes. Indexes are split into chunks of 65536 rows;
+ * chunk with few rows keeps them in sorted array, chunk with many rows keeps
+ * a bitmap and chunk filled by ranges keeps list of runs. Besides membership
+ * it answers how many rows precede index and which index is k-th one not in
+ * set, so rows in set can be skipped by pagination.
+ * @author Krzysztof Kuźnik <kmkuznik at gmail.com>
+ */
+class RowBitmap implements Serializable {
+
+    private static final int CHUNK_BITS = 16;
+    private static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+    // chunks with more rows are kept as bitmaps
+    private static final int MAX_ARRAY_SIZE = 4096;
+    // bytes used by bitmap chunk
+    private static final int BITMAP_BYTES = CHUNK_SIZE / 8;
+    private Chunk[] chunks = new Chunk[0];
+    private int cardinality = 0;
+
+    boolean contains(int index) {
+        int chunk = index >>> CHUNK_BITS;
+        return chunk < chunks.length && chunks[chunk] != null
+                && chunks[chunk].contains((char) index);
+    }
+
+    /**
+     * @return true if index was not in set
+     */
+    boolean add(int index) {
+        int chunk = index >>> CHUNK_BITS;
+        if (chunk >= chunks.length) {
+            Chunk[] newChunks = new Chunk[chunk + 1];
+            System.arraycopy(chunks, 0, newChunks, 0, chunks.length);
+            chunks = newChunks;
+        }
+        if (chunks[chunk] == null) {
+            chunks[chunk] = new ArrayChunk();
+        }
+        if (!chunks[chunk].add((char) index)) {
+            return false;
+        }
+        if (chunks[chunk].size > MAX_ARRAY_SIZE && chunks[chunk] instanceof ArrayChunk) {
+            chunks[chunk] = new BitmapChunk(chunks[chunk]);
+        } else if (chunks[chunk] instanceof RunChunk) {
+            optimize(chunk);
+        }
+        ++cardinality;
+        return true;
+    }
+
+    /**
+     * Adds all indexes of range, which is kept as run of chunk instead of
+     * separate indexes
+     * @param from first index of range
+     * @param to index after last index of range
+     * @return number of indexes which were not in set
+     */
+    int addRange(int from, int to) {
+        if (from >= to) {
+            return 0;
+        }
+        int lastChunk = (to - 1) >>> CHUNK_BITS;
+        if (lastChunk >= chunks.length) {
+            Chunk[] newChunks = new Chunk[lastChunk + 1];
+            System.arraycopy(chunks, 0, newChunks, 0, chunks.length);
+            chunks = newChunks;
+        }
+        int added = 0;
+        for (int chunk = from >>> CHUNK_BITS; chunk <= lastChunk; ++chunk) {
+            int base = chunk << CHUNK_BITS;
+            int first = Math.max(from, base) - base;
+            int last = Math.min(to, base + CHUNK_SIZE) - 1 - base;
+            RunChunk runs;
+            if (chunks[chunk] == null) {
+                runs = new RunChunk();
+            } else if (chunks[chunk] instanceof RunChunk) {
+                runs = (RunChunk) chunks[chunk];
+            } else {
+                runs = new RunChunk(chunks[chunk]);
+            }
+            added += runs.addRange((char) first, (char) last);
+            chunks[chunk] = runs;
+            optimize(chunk);
+        }
+        cardinality += added;
+        return added;
+    }
+
+    /**
+     * Adds all indexes of other set
+     * @param other set to be added
+     */
+    void addAll(RowBitmap other) {
+        addRanges(other.getRanges());
+    }
+
+    /**
+     * Adds all indexes smaller than size which are not in other set
+     * @param other set whose complement is added
+     * @param size number of indexes complement is taken of
+     */
+    void addComplement(RowBitmap other, int size) {
+        int[] ranges = other.getRanges();
+        int[] gaps = new int[ranges.length + 2];
+        int count = 0;
+        int from = 0;
+        for (int i = 0; i < ranges.length && from < size; i += 2) {
+            if (ranges[i] > from) {
+                gaps[count++] = from;
+                gaps[count++] = Math.min(ranges[i], size);
+            }
+            from = ranges[i + 1];
+        }
+        if (from < size) {
+            gaps[count++] = from;
+            gaps[count++] = size;
+        }
+        int[] result = new int[count];
+        System.arraycopy(gaps, 0, result, 0, count);
+        addRanges(result);
+    }
+
+    /**
+     * Adds indexes given in any order. They are sorted by marking them in
+     * temporary bitmap, which is faster than sorting large arrays.
+     * @param indexes indexes to be added
+     */
+    void addUnsorted(int[] indexes) {
+        if (indexes.length == 0) {
+            return;
+        }
+        int max = -1;
+        for (int index : indexes) {
+            max = Math.max(max, index);
+        }
+        long[] words = new long[(max >>> 6) + 1];
+        for (int index : indexes) {
+            words[index >>> 6] |= 1L << index;
+        }
+        addWords(words);
+    }
+
+    /**
+     * Marks all indexes of set in plain bitmap
+     * @param words bitmap large enough for all indexes
+     */
+    void markIn(long[] words) {
+        for (int index : toArray()) {
+            words[index >>> 6] |= 1L << index;
+        }
+    }
+
+    /**
+     * Adds indexes marked in plain bitmap
+     * @param words bitmap, index i is marked by bit i % 64 of word i / 64
+     */
+    void addWords(long[] words) {
+        int[] ranges = new int[16];
+        int count = 0;
+        for (int i = 0; i < words.length; ++i) {
+            long word = words[i];
+            while (word != 0) {
+                int zeros = Long.numberOfTrailingZeros(word);
+                int first = (i << 6) + zeros;
+                // ones starting at lowest marked bit of word
+                long run = ~(word >>> zeros);
+                int length = run == 0 ? 64 - zeros : Long.numberOfTrailingZeros(run);
+                if (count > 0 && ranges[count - 1] == first) {
+                    ranges[count - 1] += length;
+                } else {
+                    ranges = grow(ranges, count + 2);
+                    ranges[count++] = first;
+                    ranges[count++] = first + length;
+                }
+                word &= length == 64 ? 0 : ~(((1L << length) - 1) << zeros);
+            }
+        }
+        int[] result = new int[count];
+        System.arraycopy(ranges, 0, result, 0, count);
+        addRanges(result);
+    }
+
+    /**
+     * Adds ranges given in ascending order. Every chunk is converted to runs
+     * and back once, not once per range.
+     * @param ranges pairs of first index and index after last one
+     */
+    void addRanges(int[] ranges) {
+        int i = 0;
+        // start of part of range i which was not added yet
+        int from = ranges.length > 0 ? ranges[0] : 0;
+        while (i < ranges.length) {
+            if (from >= ranges[i + 1]) {
+                i += 2;
+                from = i < ranges.length ? ranges[i] : 0;
+                continue;
+            }
+            int chunk = from >>> CHUNK_BITS;
+            int base = chunk << CHUNK_BITS;
+            int end = base + CHUNK_SIZE;
+            if (chunk >= chunks.length) {
+                Chunk[] newChunks = new Chunk[chunk + 1];
+                System.arraycopy(chunks, 0, newChunks, 0, chunks.length);
+                chunks = newChunks;
+            }
+            RunChunk runs;
+            if (chunks[chunk] == null) {
+                runs = new RunChunk();
+            } else if (chunks[chunk] instanceof RunChunk) {
+                runs = (RunChunk) chunks[chunk];
+            } else {
+                runs = new RunChunk(chunks[chunk]);
+            }
+            while (i < ranges.length && from < end) {
+                int to = Math.min(ranges[i + 1], end);
+                if (from < to) {
+                    cardinality += runs.addRange((char) (from - base), (char) (to - 1 - base));
+                }
+                if (ranges[i + 1] > end) {
+                    // rest of range belongs to following chunks
+                    from = end;
+                    break;
+                }
+                i += 2;
+                from = i < ranges.length ? ranges[i] : 0;
+            }
+            chunks[chunk] = runs;
+            optimize(chunk);
+        }
+    }
+
+    // keeps run chunk only while it is smaller than array or bitmap
+    private void optimize(int chunk) {
+        Chunk runs = chunks[chunk];
+        int runBytes = 4 * ((RunChunk) runs).count;
+        if (runBytes > BITMAP_BYTES && runs.size > MAX_ARRAY_SIZE) {
+            chunks[chunk] = new BitmapChunk(runs);
+        } else if (runBytes > 2 * runs.size && runs.size <= MAX_ARRAY_SIZE) {
+            chunks[chunk] = new ArrayChunk(runs);
+        }
+    }
+
+    /**
+     * @return true if index was in set
+     */
+    boolean remove(int index) {
+        int chunk = index >>> CHUNK_BITS;
+        if (chunk >= chunks.length || chunks[chunk] == null || !chunks[chunk].remove((char) index)) {
+            return false;
+        }
+        if (chunks[chunk].size == 0) {
+            chunks[chunk] = null;
+        } else if (chunks[chunk] instanceof RunChunk) {
+            optimize(chunk);
+        }
+        --cardinality;
+        return true;
+    }
+
+    void clear() {
+        chunks = new Chunk[0];
+        cardinality = 0;
+    }
+
+    int size() {
+        return cardinality;
+    }
+
+    boolean isEmpty() {
+        return cardinality == 0;
+    }
+
+    /**
+     * @return number of indexes in set which are smaller than index
+     */
+    int countBelow(int index) {
+        int chunk = index >>> CHUNK_BITS;
+        int count = 0;
+        for (int i = 0; i < Math.min(chunk, chunks.length); ++i) {
+            count += chunks[i] == null ? 0 : chunks[i].size;
+        }
+        if (chunk < chunks.length && chunks[chunk] != null) {
+            count += chunks[chunk].countBelow((char) index);
+        }
+        return count;
+    }
+
+    /**
+     * @param k number of indexes not in set to be skipped
+     * @return k-th (counting from 0) smallest index which is not in set
+     */
+    int selectAbsent(int k) {
+        for (int i = 0; i < chunks.length; ++i) {
+            int absent = CHUNK_SIZE - (chunks[i] == null ? 0 : chunks[i].size);
+            if (k < absent) {
+                return (i << CHUNK_BITS) + (chunks[i] == null ? k : chunks[i].selectAbsent(k));
+            }
+            k -= absent;
+        }
+        return (chunks.length << CHUNK_BITS) + k;
+    }
+
+    /**
+     * @return all indexes in ascending order
+     */
+    int[] toArray() {
+        int[] result = new int[cardinality];
+        int count = 0;
+        for (int i = 0; i < chunks.length; ++i) {
+            if (chunks[i] != null) {
+                count = chunks[i].copyTo(result, count, i << CHUNK_BITS);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @return ranges of consecutive indexes as pairs of first index and index
+     * after last one
+     */
+    int[] getRanges() {
+        int[] ranges = new int[16];
+        int count = 0;
+        int[] values = null;
+        for (int i = 0; i < chunks.length; ++i) {
+            if (chunks[i] == null) {
+                continue;
+            }
+            int base = i << CHUNK_BITS;
+            if (chunks[i] instanceof RunChunk) {
+                // runs are copied without expanding them
+                RunChunk runs = (RunChunk) chunks[i];
+                for (int j = 0; j < runs.count; ++j) {
+                    if (count > 0 && ranges[count - 1] == base + runs.firsts[j]) {
+                        ranges[count - 1] = base + runs.lasts[j] + 1;
+                    } else {
+                        ranges = grow(ranges, count + 2);
+                        ranges[count++] = base + runs.firsts[j];
+                        ranges[count++] = base + runs.lasts[j] + 1;
+                    }
+                }
+                continue;
+            }
+            if (values == null) {
+                values = new int[CHUNK_SIZE];
+            }
+            int length = chunks[i].copyTo(values, 0, base);
+            for (int j = 0; j < length; ++j) {
+                if (count > 0 && ranges[count - 1] == values[j]) {
+                    ++ranges[count - 1];
+                } else {
+                    ranges = grow(ranges, count + 2);
+                    ranges[count++] = values[j];
+                    ranges[count++] = values[j] + 1;
+                }
+            }
+        }
+        int[] result = new int[count];
+        System.arraycopy(ranges, 0, result, 0, count);
+        return result;
+    }
+
+    /**
+     * Removes all indexes not smaller than index
+     * @param index first index to be removed
+     */
+    void removeFrom(int index) {
+        int[] ranges = getRanges();
+        if (ranges.length == 0 || ranges[ranges.length - 1] <= index) {
+            return;
+        }
+        clear();
+        for (int i = 0; i < ranges.length && ranges[i] < index; i += 2) {
+            addRange(ranges[i], Math.min(ranges[i + 1], index));
+        }
+    }
+
+    private static int[] grow(int[] array, int length) {
+        if (length <= array.length) {
+            return array;
+        }
+        int[] newArray = new int[Math.max(length, 2 * array.length)];
+        System.arraycopy(array, 0, newArray, 0, array.length);
+        return newArray;
+    }
+
+    /**
+     * Moves indexes after insertion (delta = 1) or removal (delta = -1) of row.
+     * Removed row itself has to be removed from set before.
+     * @param from index of inserted or removed row
+     * @param delta change of indexes not smaller than from
+     */
+    void shift(int from, int delta) {
+        int[] ranges = getRanges();
+        if (ranges.length == 0 || ranges[ranges.length - 1] <= from) {
+            return;
+        }
+        clear();
+        for (int i = 0; i < ranges.length; i += 2) {
+            if (ranges[i + 1] <= from) {
+                addRange(ranges[i], ranges[i + 1]);
+            } else if (ranges[i] >= from) {
+                addRange(ranges[i] + delta, ranges[i + 1] + delta);
+            } else {
+                // range split by inserted row
+                addRange(ranges[i], from);
+                addRange(from + delta, ranges[i + 1] + delta);
+            }
+        }
+    }
+
+    /**
+     * rows of one chunk
+     */
+    private abstract static class Chunk implements Serializable {
+
+        protected int size = 0;
+
+        abstract boolean contains(char index);
+
+        abstract boolean add(char index);
+
+        abstract boolean remove(char index);
+
+        abstract int countBelow(char index);
+
+        abstract int selectAbsent(int k);
+
+        abstract int copyTo(int[] result, int offset, int base);
+    }
+
+    private static class ArrayChunk extends Chunk {
+
+        private char[] values = new char[4];
+
+        public ArrayChunk() {
+        }
+
+        public ArrayChunk(Chunk chunk) {
+            int[] indexes = new int[chunk.size];
+            chunk.copyTo(indexes, 0, 0);
+            values = new char[Math.max(4, indexes.length)];
+            for (int i = 0; i < indexes.length; ++i) {
+                values[i] = (char) indexes[i];
+            }
+            size = indexes.length;
+        }
+
+        private int find(char index) {
+            int low = 0;
+            int high = size - 1;
+            while (low <= high) {
+                int middle = (low + high) >>> 1;
+                if (values[middle] < index) {
+                    low = middle + 1;
+                } else if (values[middle] > index) {
+                    high = middle - 1;
+                } else {
+                    return middle;
+                }
+            }
+            return -(low + 1);
+        }
+
+        boolean contains(char index) {
+            return find(index) >= 0;
+        }
+
+        boolean add(char index) {
+            int position = find(index);
+            if (position >= 0) {
+                return false;
+            }
+            position = -position - 1;
+            if (size == values.length) {
+                char[] newValues = new char[size * 2];
+                System.arraycopy(values, 0, newValues, 0, size);
+                values = newValues;
+            }
+            System.arraycopy(values, position, values, position + 1, size - position);
+            values[position] = index;
+            ++size;
+            return true;
+        }
+
+        boolean remove(char index) {
+            int position = find(index);
+            if (position < 0) {
+                return false;
+            }
+            System.arraycopy(values, position + 1, values, position, size - position - 1);
+            --size;
+            return true;
+        }
+
+        int countBelow(char index) {
+            int position = find(index);
+            return position >= 0 ? position : -position - 1;
+        }
+
+        int selectAbsent(int k) {
+            // every present value not greater than candidate moves it further
+            int candidate = k;
+            for (int i = 0; i < size && values[i] <= candidate; ++i) {
+                ++candidate;
+            }
+            return candidate;
+        }
+
+        int copyTo(int[] result, int offset, int base) {
+            for (int i = 0; i < size; ++i) {
+                result[offset++] = base + values[i];
+            }
+            return offset;
+        }
+    }
+
+    private static class BitmapChunk extends Chunk {
+
+        private final long[] words = new long[CHUNK_SIZE / 64];
+
+        public BitmapChunk(Chunk chunk) {
+            int[] indexes = new int[chunk.size];
+            chunk.copyTo(indexes, 0, 0);
+            for (int index : indexes) {
+                add((char) index);
+            }
+        }
+
+        boolean contains(char index) {
+            return (words[index >>> 6] & (1L << index)) != 0;
+        }
+
+        boolean add(char index) {
+            if (contains(index)) {
+                return false;
+            }
+            words[index >>> 6] |= 1L << index;
+            ++size;
+            return true;
+        }
+
+        boolean remove(char index) {
+            if (!contains(index)) {
+                return false;
+            }
+            words[index >>> 6] &= ~(1L << index);
+            --size;
+            return true;
+        }
+
+        int countBelow(char index) {
+            int count = 0;
+            for (int i = 0; i < index >>> 6; ++i) {
+                count += Long.bitCount(words[i]);
+            }
+            return count + Long.bitCount(words[index >>> 6] & ((1L << index) - 1));
+        }
+
+        int selectAbsent(int k) {
+            for (int i = 0; i < words.length; ++i) {
+                int absent = 64 - Long.bitCount(words[i]);
+                if (k < absent) {
+                    long free = ~words[i];
+                    for (int j = 0; j < k; ++j) {
+                        free &= free - 1;
+                    }
+                    return (i << 6) + Long.numberOfTrailingZeros(free);
+                }
+                k -= absent;
+            }
+            throw new IllegalStateException();
+        }
+
+        int copyTo(int[] result, int offset, int base) {
+            for (int i = 0; i < words.length; ++i) {
+                long word = words[i];
+                while (word != 0) {
+                    result[offset++] = base + (i << 6) + Long.numberOfTrailingZeros(word);
+                    word &= word - 1;
+                }
+            }
+            return offset;
+        }
+    }
+
+    /**
+     * chunk kept as sorted list of disjoint, not adjacent runs
+     */
+    private static class RunChunk extends Chunk {
+
+        private char[] firsts = new char[2];
+        private char[] lasts = new char[2];
+        private int count = 0;
+
+        public RunChunk() {
+        }
+
+        public RunChunk(Chunk chunk) {
+            int[] indexes = new int[chunk.size];
+            chunk.copyTo(indexes, 0, 0);
+            for (int index : indexes) {
+                if (count > 0 && lasts[count - 1] + 1 == index) {
+                    ++lasts[count - 1];
+                } else {
+                    insert(count, (char) index, (char) index);
+                }
+            }
+            size = indexes.length;
+        }
+
+        // index of last run starting not after index or -1
+        private int find(char index) {
+            int low = 0;
+            int high = count - 1;
+            while (low <= high) {
+                int middle = (low + high) >>> 1;
+                if (firsts[middle] <= index) {
+                    low = middle + 1;
+                } else {
+                    high = middle - 1;
+                }
+            }
+            return high;
+        }
+
+        private void insert(int run, char first, char last) {
+            if (count == firsts.length) {
+                char[] newFirsts = new char[2 * count];
+                char[] newLasts = new char[2 * count];
+                System.arraycopy(firsts, 0, newFirsts, 0, count);
+                System.arraycopy(lasts, 0, newLasts, 0, count);
+                firsts = newFirsts;
+                lasts = newLasts;
+            }
+            System.arraycopy(firsts, run, firsts, run + 1, count - run);
+            System.arraycopy(lasts, run, lasts, run + 1, count - run);
+            firsts[run] = first;
+            lasts[run] = last;
+            ++count;
+        }
+
+        private void delete(int run, int length) {
+            System.arraycopy(firsts, run + length, firsts, run, count - run - length);
+            System.arraycopy(lasts, run + length, lasts, run, count - run - length);
+            count -= length;
+        }
+
+        boolean contains(char index) {
+            int run = find(index);
+            return run >= 0 && lasts[run] >= index;
+        }
+
+        boolean add(char index) {
+            return addRange(index, index) > 0;
+        }
+
+        /**
+         * @return number of added indexes
+         */
+        int addRange(char first, char last) {
+            // runs from start to end overlap or touch added range
+            int start = find(first);
+            if (start < 0 || lasts[start] + 1 < first) {
+                ++start;
+            }
+            int end = start;
+            int covered = 0;
+            while (end < count && firsts[end] <= last + 1) {
+                covered += lasts[end] - firsts[end] + 1;
+                ++end;
+            }
+            if (end > start) {
+                first = (char) Math.min(first, firsts[start]);
+                last = (char) Math.max(last, lasts[end - 1]);
+                delete(start, end - start);
+            }
+            insert(start, first, last);
+            int added = last - first + 1 - covered;
+            size += added;
+            return added;
+        }
+
+        boolean remove(char index) {
+            int run = find(index);
+            if (run < 0 || lasts[run] < index) {
+                return false;
+            }
+            if (firsts[run] == lasts[run]) {
+                delete(run, 1);
+            } else if (firsts[run] == index) {
+                ++firsts[run];
+            } else if (lasts[run] == index) {
+                --lasts[run];
+            } else {
+                insert(run + 1, (char) (index + 1), lasts[run]);
+                lasts[run] = (char) (index - 1);
+            }
+            --size;
+            return true;
+        }
+
+        int countBelow(char index) {
+            int result = 0;
+            for (int i = 0; i < count && firsts[i] < index; ++i) {
+                result += Math.min(lasts[i] + 1, index) - firsts[i];
+            }
+            return result;
+        }
+
+        int selectAbsent(int k) {
+            int candidate = k;
+            for (int i = 0; i < count && firsts[i] <= candidate; ++i) {
+                candidate += lasts[i] - firsts[i] + 1;
+            }
+            return candidate;
+        }
+
+        int copyTo(int[] result, int offset, int base) {
+            for (int i = 0; i < count; ++i) {
+                for (int index = firsts[i]; index <= lasts[i]; ++index) {
+                    result[offset++] = base + index;
+                }
+            }
+            return offset;
+        }
+    }
+}
@@ -0,0 +1,40 @@
+package pl.com.kuznik;
+
+import com.vaadin.data.Container;
+import java.util.EventObject;
+
+/**
+ * Container.ItemSetChangeEvent describing insertion or removal of single
+ * row. PageContainerProvider uses it to shift current page by one row
+ * instead of reloading it.
+ * @author Krzysztof Kuźnik <kmkuznik at gmail.com>
+ */
+public class RowChangeEvent extends EventObject implements Container.ItemSetChangeEvent {
+
+    private final int index;
+    private final boolean added;
+
+    /**
+     * Creates new event
+     * @param container container in which row was added or removed
+     * @param index index of added row, or index removed row had
+     * @param added true if row was added, false if it was removed
+     */
+    public RowChangeEvent(Container container, int index, boolean added) {
+        super(container);
+        this.index = index;
+        this.added = added;
+    }
+
+    public Container getContainer() {
+        return (Container) getSource();
+    }
+
+    public int getIndex() {
+        return index;
+    }
+
+    public boolean isAdded() {
+        return added;
+    }
+}
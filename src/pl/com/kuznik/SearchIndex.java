@@ -0,0 +1,261 @@
+package pl.com.kuznik;
+
+import com.vaadin.data.Container;
+import com.vaadin.data.Property;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Inverted index of tokens of values of some properties, used for quick
+ * search. Values are split into lower case tokens of letters and digits and
+ * every token is mapped to rows containing it. Searched word matches tokens
+ * containing it, so search by substring scans dictionary of distinct tokens
+ * instead of all cells; tokens found for recent words are remembered, so
+ * typing longer word narrows them further.
+ * <p>
+ * Index is updated row by row when values change. Rows are identified by
+ * their index in container; single inserted or removed row shifts rows after
+ * it, other changes of rows need new index.
+ * @author Krzysztof Kuźnik <kmkuznik at gmail.com>
+ */
+class SearchIndex {
+
+    private static final int CACHED_WORDS = 16;
+    private final Container.Indexed container;
+    private final List<Object> propertyIds;
+    private final HashMap<String, Token> tokens = new HashMap<String, Token>();
+    // tokens of every row, so they can be taken back when row changes
+    private Token[][] rowTokens;
+    // number of indexed rows
+    private int size;
+    // tokens containing recently searched words
+    private final LinkedHashMap<String, List<Token>> matchingTokens =
+            new LinkedHashMap<String, List<Token>>(16, 0.75f, true) {
+
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, List<Token>> eldest) {
+                    return size() > CACHED_WORDS;
+                }
+            };
+
+    /**
+     * Reads values of indexed properties of all rows
+     * @param container indexed container
+     * @param propertyIds ids of indexed properties
+     */
+    SearchIndex(Container.Indexed container, Collection<?> propertyIds) {
+        this.container = container;
+        this.propertyIds = new ArrayList<Object>(propertyIds);
+        size = container.size();
+        rowTokens = new Token[size][];
+        int index = 0;
+        for (Object itemId : container.getItemIds()) {
+            rowTokens[index] = getTokens(itemId);
+            for (Token token : rowTokens[index]) {
+                token.rows.add(index);
+            }
+            ++index;
+        }
+    }
+
+    /**
+     * @return ids of indexed properties
+     */
+    List<Object> getPropertyIds() {
+        return propertyIds;
+    }
+
+    /**
+     * Indexes row again after its values changed
+     * @param row index of row in container
+     * @param itemId id of row
+     */
+    void update(int row, Object itemId) {
+        if (row < 0 || row >= size) {
+            return;
+        }
+        Token[] oldTokens = rowTokens[row];
+        Token[] newTokens = getTokens(itemId);
+        Set<Token> kept = new LinkedHashSet<Token>();
+        for (Token token : newTokens) {
+            kept.add(token);
+        }
+        for (Token token : oldTokens) {
+            if (!kept.remove(token)) {
+                token.rows.remove(row);
+                if (token.rows.isEmpty()) {
+                    tokens.remove(token.text);
+                }
+            }
+        }
+        for (Token token : kept) {
+            token.rows.add(row);
+        }
+        rowTokens[row] = newTokens;
+        if (!kept.isEmpty()) {
+            // new tokens may contain remembered words
+            matchingTokens.clear();
+        }
+    }
+
+    /**
+     * Indexes inserted row, rows after it are moved by one
+     * @param row index of inserted row
+     * @param itemId id of inserted row
+     * @return false if insertion does not match indexed rows, index has to
+     * be built again then
+     */
+    boolean rowAdded(int row, Object itemId) {
+        if (row < 0 || row > size || container.size() != size + 1) {
+            return false;
+        }
+        if (row < size) {
+            for (Token token : tokens.values()) {
+                token.rows.shift(row, 1);
+            }
+        }
+        if (size == rowTokens.length) {
+            Token[][] newRowTokens = new Token[Math.max(16, 2 * size)][];
+            System.arraycopy(rowTokens, 0, newRowTokens, 0, size);
+            rowTokens = newRowTokens;
+        }
+        System.arraycopy(rowTokens, row, rowTokens, row + 1, size - row);
+        ++size;
+        rowTokens[row] = getTokens(itemId);
+        for (Token token : rowTokens[row]) {
+            token.rows.add(row);
+        }
+        // tokens of new row may contain remembered words
+        matchingTokens.clear();
+        return true;
+    }
+
+    /**
+     * Forgets removed row, rows after it are moved by one
+     * @param row index removed row had
+     * @return false if removal does not match indexed rows, index has to be
+     * built again then
+     */
+    boolean rowRemoved(int row) {
+        if (row < 0 || row >= size || container.size() != size - 1) {
+            return false;
+        }
+        for (Token token : rowTokens[row]) {
+            token.rows.remove(row);
+            if (token.rows.isEmpty()) {
+                tokens.remove(token.text);
+                matchingTokens.clear();
+            }
+        }
+        if (row < size - 1) {
+            for (Token token : tokens.values()) {
+                token.rows.shift(row, -1);
+            }
+        }
+        System.arraycopy(rowTokens, row + 1, rowTokens, row, size - row - 1);
+        rowTokens[--size] = null;
+        return true;
+    }
+
+    /**
+     * @param word lower case word
+     * @return rows with token containing word
+     */
+    RowBitmap getRows(String word) {
+        List<Token> matching = getMatchingTokens(word);
+        RowBitmap rows = new RowBitmap();
+        if (matching.size() == 1) {
+            rows.addAll(matching.get(0).rows);
+        } else if (!matching.isEmpty()) {
+            // rows of many tokens are merged in plain bitmap
+            long[] words = new long[(size >>> 6) + 1];
+            for (Token token : matching) {
+                token.rows.markIn(words);
+            }
+            rows.addWords(words);
+        }
+        return rows;
+    }
+
+    private List<Token> getMatchingTokens(String word) {
+        List<Token> matching = matchingTokens.get(word);
+        if (matching != null) {
+            return matching;
+        }
+        // tokens containing longer word are among tokens containing its part
+        Collection<Token> candidates = tokens.values();
+        for (Map.Entry<String, List<Token>> entry : matchingTokens.entrySet()) {
+            if (word.contains(entry.getKey()) && entry.getValue().size() < candidates.size()) {
+                candidates = entry.getValue();
+            }
+        }
+        matching = new ArrayList<Token>();
+        for (Token token : candidates) {
+            if (token.text.contains(word) && !token.rows.isEmpty()) {
+                matching.add(token);
+            }
+        }
+        matchingTokens.put(word, matching);
+        return matching;
+    }
+
+    // distinct tokens of indexed values of row
+    private Token[] getTokens(Object itemId) {
+        Set<Token> result = new LinkedHashSet<Token>();
+        for (Object propertyId : propertyIds) {
+            Property property = container.getContainerProperty(itemId, propertyId);
+            Object value = property == null ? null : property.getValue();
+            if (value == null) {
+                continue;
+            }
+            for (String text : tokenize(value.toString())) {
+                Token token = tokens.get(text);
+                if (token == null) {
+                    token = new Token(text);
+                    tokens.put(text, token);
+                }
+                result.add(token);
+            }
+        }
+        return result.toArray(new Token[result.size()]);
+    }
+
+    /**
+     * Splits text into lower case words of letters and digits
+     * @param text text to be split
+     * @return words in order of their appearance
+     */
+    static List<String> tokenize(String text) {
+        List<String> words = new ArrayList<String>();
+        int start = -1;
+        for (int i = 0; i <= text.length(); ++i) {
+            boolean letter = i < text.length() && Character.isLetterOrDigit(text.charAt(i));
+            if (letter && start < 0) {
+                start = i;
+            } else if (!letter && start >= 0) {
+                words.add(text.substring(start, i).toLowerCase());
+                start = -1;
+            }
+        }
+        return words;
+    }
+
+    /**
+     * token of dictionary with rows containing it
+     */
+    private static class Token {
+
+        private final String text;
+        private final RowBitmap rows = new RowBitmap();
+
+        public Token(String text) {
+            this.text = text;
+        }
+    }
+}
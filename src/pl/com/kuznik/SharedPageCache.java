@@ -0,0 +1,176 @@
+package pl.com.kuznik;
+
+import com.vaadin.data.Item;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Application-scoped cache of pages shared by PageContainerProvider instances
+ * of many sessions showing the same read-only data. Page is identified by
+ * data source key, its version, sort order, page size and page number, so
+ * identical pages are built once and their rows, ids together with fetched
+ * items, are reused by every session. Only pages of PageSourceContainer are
+ * shared, because its item ids come from source and are equal in every
+ * session.
+ * Cache is limited by estimated size of all pages, least recently used pages
+ * are evicted. When data of source changes, invalidate() starts its new
+ * version and removes its pages.
+ * <p>
+ * Cache is thread-safe. Shared pages are never modified; sessions copy rows
+ * of page before they change them.
+ * @author Krzysztof Kuźnik <kmkuznik at gmail.com>
+ */
+public class SharedPageCache {
+
+    /**
+     * Default maximal estimated size of shared pages in bytes
+     */
+    public static final long DEFAULT_MAX_BYTES = 64L * 1024 * 1024;
+    private final PageCache<Key, SharedPage> pages;
+    // current version of every known data source
+    private final Map<Object, Long> versions = new HashMap<Object, Long>();
+
+    /**
+     * Creates cache with default memory budget
+     */
+    public SharedPageCache() {
+        this(DEFAULT_MAX_BYTES);
+    }
+
+    /**
+     * Creates new cache
+     * @param maxBytes maximal estimated size of all shared pages
+     */
+    public SharedPageCache(long maxBytes) {
+        pages = new PageCache<Key, SharedPage>(Integer.MAX_VALUE, maxBytes);
+    }
+
+    /**
+     * Changes memory budget, evicting pages above it
+     * @param maxBytes maximal estimated size of all shared pages
+     */
+    public void setMaxBytes(long maxBytes) {
+        pages.setLimits(Integer.MAX_VALUE, maxBytes);
+    }
+
+    /**
+     * @return estimated size of shared pages in bytes
+     */
+    public long getEstimatedSize() {
+        return pages.getEstimatedSize();
+    }
+
+    /**
+     * @param sourceKey key identifying data source
+     * @return current version of data source
+     */
+    public synchronized long getVersion(Object sourceKey) {
+        Long version = versions.get(sourceKey);
+        return version == null ? 0 : version;
+    }
+
+    /**
+     * Starts new version of data source after its data changed. Pages of
+     * older versions are removed and never shared again.
+     * @param sourceKey key identifying data source
+     */
+    public void invalidate(Object sourceKey) {
+        synchronized (this) {
+            versions.put(sourceKey, getVersion(sourceKey) + 1);
+        }
+        List<Key> stale = new ArrayList<Key>();
+        for (Key key : pages.getKeys()) {
+            if (key.sourceKey.equals(sourceKey)) {
+                stale.add(key);
+            }
+        }
+        pages.removeAll(stale);
+    }
+
+    /**
+     * Removes all shared pages
+     */
+    public void clear() {
+        pages.clear();
+    }
+
+    SharedPage get(Key key) {
+        return pages.get(key);
+    }
+
+    /**
+     * Shares page unless its version is outdated already
+     */
+    void put(Key key, SharedPage page) {
+        if (key.version == getVersion(key.sourceKey)) {
+            pages.put(key, page);
+        }
+    }
+
+    /**
+     * identity of shared page
+     */
+    static class Key {
+
+        private final Object sourceKey;
+        private final long version;
+        private final List<Object> sortOrder;
+        private final int itemsPerPage;
+        private final int pageNumber;
+
+        Key(Object sourceKey, long version, List<Object> sortOrder, int itemsPerPage, int pageNumber) {
+            this.sourceKey = sourceKey;
+            this.version = version;
+            this.sortOrder = sortOrder;
+            this.itemsPerPage = itemsPerPage;
+            this.pageNumber = pageNumber;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) obj;
+            return sourceKey.equals(other.sourceKey) && version == other.version
+                    && sortOrder.equals(other.sortOrder) && itemsPerPage == other.itemsPerPage
+                    && pageNumber == other.pageNumber;
+        }
+
+        @Override
+        public int hashCode() {
+            int hash = sourceKey.hashCode();
+            hash = 31 * hash + (int) (version ^ (version >>> 32));
+            hash = 31 * hash + sortOrder.hashCode();
+            hash = 31 * hash + itemsPerPage;
+            return 31 * hash + pageNumber;
+        }
+    }
+
+    /**
+     * rows of page, read-only once shared
+     */
+    static class SharedPage implements PageCache.Page {
+
+        final Object[] ids;
+        final HashMap<Object, Integer> offsets;
+        // items of rows, index = offset in page
+        final Item[] items;
+
+        SharedPage(Object[] ids, HashMap<Object, Integer> offsets, Item[] items) {
+            this.ids = ids;
+            this.offsets = offsets;
+            this.items = items;
+        }
+
+        public long getEstimatedSize() {
+            long size = 64 + 8L * ids.length + 48L * offsets.size();
+            for (Item item : items) {
+                size += 64 + 48L * item.getItemPropertyIds().size();
+            }
+            return size;
+        }
+    }
+}
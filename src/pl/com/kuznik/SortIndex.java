@@ -0,0 +1,470 @@
+package pl.com.kuznik;
+
+import com.vaadin.data.Container;
+import com.vaadin.data.Property;
+import com.vaadin.data.util.DefaultItemSorter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Permutation of rows of container sorted by given properties. Values of sort
+ * properties are read once and then only array of row indexes is sorted, so
+ * container itself is left untouched and does not have to be sortable. Rows
+ * with equal values keep their original order.
+ * <p>
+ * Rows are sorted lazily: only prefix of sorted order which was requested is
+ * selected (quickselect) and sorted, so first pages are available in linear
+ * time. Prefix grows at least twice at a time and whole order is finished
+ * when more than half of rows is requested.
+ * <p>
+ * Numeric keys are kept in primitive arrays. Large ranges are sorted in
+ * chunks on executor threads and chunks are merged in parallel as well; only
+ * key arrays are read by those threads, never the container.
+ * @author Krzysztof Kuźnik <kmkuznik at gmail.com>
+ */
+class SortIndex {
+
+    private static final Comparator<Object> VALUE_COMPARATOR =
+            new DefaultItemSorter.DefaultPropertyValueComparator();
+    // ranges shorter than that are sorted by single thread
+    private static final int PARALLEL_THRESHOLD = 50000;
+    private static final int PARALLELISM = Runtime.getRuntime().availableProcessors();
+    private static ExecutorService defaultExecutor;
+    private final long version;
+    private final SortKey[] keys;
+    private final boolean[] ascending;
+    private final Executor executor;
+    // rows[position] = index of row in container, valid for sorted prefix
+    private final int[] rows;
+    // number of rows at the beginning of rows which are in final order
+    private int sorted = 0;
+    // positions[index of row in container] = position for rows in sorted
+    // prefix, -1 for others; created when needed
+    private int[] positions;
+
+    /**
+     * Reads sorting keys of rows of container
+     * @param container container to be sorted
+     * @param propertyIds sorting keys
+     * @param ascending sorting directions for each key
+     * @param version version of container data sort index is created for
+     * @param executor executor for sorting large ranges in parallel or null to
+     * sort in calling thread only
+     */
+    SortIndex(Container.Indexed container, Object[] propertyIds, boolean[] ascending, long version,
+            Executor executor) {
+        this.version = version;
+        this.executor = PARALLELISM > 1 ? executor : null;
+        int size = container.size();
+        this.ascending = ascending.clone();
+        Object[][] values = new Object[propertyIds.length][size];
+        for (int i = 0; i < size; ++i) {
+            Object itemId = container.getIdByIndex(i);
+            for (int k = 0; k < propertyIds.length; ++k) {
+                Property property = container.getContainerProperty(itemId, propertyIds[k]);
+                values[k][i] = property == null ? null : property.getValue();
+            }
+        }
+        keys = new SortKey[propertyIds.length];
+        for (int k = 0; k < keys.length; ++k) {
+            keys[k] = createKey(values[k]);
+            values[k] = null;
+        }
+        rows = new int[size];
+        for (int i = 0; i < size; ++i) {
+            rows[i] = i;
+        }
+    }
+
+    /**
+     * @return version of container data this index was created for
+     */
+    long getVersion() {
+        return version;
+    }
+
+    int size() {
+        return rows.length;
+    }
+
+    /**
+     * @param position position in sorted order
+     * @return index of row in container
+     */
+    synchronized int getRow(int position) {
+        sortPrefix(position + 1);
+        return rows[position];
+    }
+
+    /**
+     * @param row index of row in container
+     * @param count number of first rows in sorted order to be searched
+     * @return position of row in sorted order or -1 if it is not among count
+     * first rows
+     */
+    synchronized int getPosition(int row, int count) {
+        sortPrefix(count);
+        if (positions == null) {
+            positions = new int[rows.length];
+            Arrays.fill(positions, -1);
+            updatePositions(0, sorted);
+        }
+        int position = positions[row];
+        return position < count ? position : -1;
+    }
+
+    /**
+     * Makes sure that at least count first rows are in sorted order
+     * @param count number of rows
+     */
+    synchronized void sortPrefix(int count) {
+        count = Math.min(count, rows.length);
+        if (count <= sorted) {
+            return;
+        }
+        // grow geometrically so browsing page by page costs O(n log n) total
+        int end = Math.max(count, 2 * sorted);
+        if (end > rows.length / 2) {
+            end = rows.length;
+        }
+        if (end < rows.length) {
+            select(sorted, rows.length, end);
+        }
+        if (executor != null && end - sorted >= PARALLEL_THRESHOLD) {
+            parallelSort(sorted, end);
+        } else {
+            mergeSort(new int[end], sorted, end);
+        }
+        if (positions != null) {
+            updatePositions(sorted, end);
+        }
+        sorted = end;
+    }
+
+    /**
+     * Finds bound of value in order sorted by first sort property, like binary
+     * search in sorted column. Whole order is sorted first.
+     * @param value searched value, null is smaller than other values
+     * @param after true to find first position with greater value, false to
+     * find first position with value not smaller
+     * @return position in sorted order, size() if there is no such position
+     */
+    synchronized int findPosition(Object value, boolean after) {
+        sortPrefix(rows.length);
+        int low = 0;
+        int high = rows.length;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            int result = keys[0].compareTo(rows[middle], value);
+            if (!ascending[0]) {
+                result = -result;
+            }
+            if (result < 0 || (after && result == 0)) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * @param from first position in sorted order
+     * @param to position after last one
+     * @return indexes in container of rows at given positions
+     */
+    synchronized int[] getRows(int from, int to) {
+        sortPrefix(to);
+        int[] result = new int[to - from];
+        System.arraycopy(rows, from, result, 0, result.length);
+        return result;
+    }
+
+    private void updatePositions(int from, int to) {
+        for (int i = from; i < to; ++i) {
+            positions[rows[i]] = i;
+        }
+    }
+
+    /**
+     * Checks whether values of type can be compared while sorting
+     * @param type type of property
+     * @return true if property of given type can be used as sorting key
+     */
+    static boolean isSortable(Class<?> type) {
+        return type != null && (type.isPrimitive() || Comparable.class.isAssignableFrom(type));
+    }
+
+    // rows with equal keys are ordered by their index, so order is total
+    private int compare(int row1, int row2) {
+        for (int k = 0; k < keys.length; ++k) {
+            int result = keys[k].compare(row1, row2);
+            if (result != 0) {
+                return ascending[k] ? result : -result;
+            }
+        }
+        return row1 < row2 ? -1 : (row1 == row2 ? 0 : 1);
+    }
+
+    // quickselect: moves (k - from) smallest rows of rows[from, to) to rows[from, k)
+    private void select(int from, int to, int k) {
+        int low = from;
+        int high = to - 1;
+        while (low < high) {
+            // median of three as pivot, moved to high
+            int middle = (low + high) >>> 1;
+            if (compare(rows[middle], rows[low]) < 0) {
+                swap(middle, low);
+            }
+            if (compare(rows[high], rows[low]) < 0) {
+                swap(high, low);
+            }
+            if (compare(rows[middle], rows[high]) < 0) {
+                swap(middle, high);
+            }
+            int pivot = rows[high];
+            int store = low;
+            for (int i = low; i < high; ++i) {
+                if (compare(rows[i], pivot) < 0) {
+                    swap(i, store++);
+                }
+            }
+            swap(store, high);
+            if (store == k) {
+                return;
+            } else if (store < k) {
+                low = store + 1;
+            } else {
+                high = store - 1;
+            }
+        }
+    }
+
+    private void swap(int i, int j) {
+        int row = rows[i];
+        rows[i] = rows[j];
+        rows[j] = row;
+    }
+
+    // merge sort of rows[from, to) using buffer of at least to elements
+    private void mergeSort(int[] buffer, int from, int to) {
+        if (to - from < 2) {
+            return;
+        }
+        int middle = (from + to) >>> 1;
+        mergeSort(buffer, from, middle);
+        mergeSort(buffer, middle, to);
+        merge(buffer, from, middle, to);
+    }
+
+    // merges sorted rows[from, middle) and rows[middle, to)
+    private void merge(int[] buffer, int from, int middle, int to) {
+        if (from == middle || middle == to || compare(rows[middle - 1], rows[middle]) <= 0) {
+            return; // already in order
+        }
+        System.arraycopy(rows, from, buffer, from, to - from);
+        int left = from;
+        int right = middle;
+        for (int i = from; i < to; ++i) {
+            if (right >= to || (left < middle
+                    && compare(buffer[left], buffer[right]) <= 0)) {
+                rows[i] = buffer[left++];
+            } else {
+                rows[i] = buffer[right++];
+            }
+        }
+    }
+
+    // sorts chunks of rows[from, to) in parallel and merges them pairwise
+    private void parallelSort(int from, int to) {
+        final int[] buffer = new int[to];
+        int chunks = Math.min(PARALLELISM, (to - from) / (PARALLEL_THRESHOLD / 2));
+        final int[] bounds = new int[chunks + 1];
+        for (int i = 0; i <= chunks; ++i) {
+            bounds[i] = from + (int) ((long) (to - from) * i / chunks);
+        }
+        List<Runnable> tasks = new ArrayList<Runnable>();
+        for (int i = 0; i < chunks; ++i) {
+            final int chunk = i;
+            tasks.add(new Runnable() {
+
+                public void run() {
+                    mergeSort(buffer, bounds[chunk], bounds[chunk + 1]);
+                }
+            });
+        }
+        runAll(tasks);
+        for (int width = 1; width < chunks; width *= 2) {
+            tasks.clear();
+            for (int i = 0; i + width < chunks; i += 2 * width) {
+                final int left = bounds[i];
+                final int middle = bounds[i + width];
+                final int right = bounds[Math.min(i + 2 * width, chunks)];
+                tasks.add(new Runnable() {
+
+                    public void run() {
+                        merge(buffer, left, middle, right);
+                    }
+                });
+            }
+            runAll(tasks);
+        }
+    }
+
+    /**
+     * Runs tasks on executor and waits for them. Calling thread runs tasks
+     * which were not started yet itself, so sorting finishes even when all
+     * executor threads are busy.
+     */
+    private void runAll(List<Runnable> tasks) {
+        List<FutureTask<Object>> futures = new ArrayList<FutureTask<Object>>();
+        for (Runnable task : tasks) {
+            FutureTask<Object> future = new FutureTask<Object>(task, null);
+            futures.add(future);
+            if (futures.size() > 1) {
+                executor.execute(future);
+            }
+        }
+        boolean interrupted = false;
+        for (FutureTask<Object> future : futures) {
+            future.run();
+            while (true) {
+                try {
+                    future.get();
+                    break;
+                } catch (InterruptedException ex) {
+                    interrupted = true;
+                } catch (ExecutionException ex) {
+                    if (ex.getCause() instanceof RuntimeException) {
+                        throw (RuntimeException) ex.getCause();
+                    }
+                    throw new IllegalStateException("Error while sorting", ex.getCause());
+                }
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * @return shared executor with one daemon thread per processor
+     */
+    static synchronized Executor getDefaultExecutor() {
+        if (defaultExecutor == null) {
+            defaultExecutor = Executors.newFixedThreadPool(PARALLELISM, new ThreadFactory() {
+
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, "RichTable sort");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+        return defaultExecutor;
+    }
+
+    // integral and floating point values without nulls are kept unboxed
+    private static SortKey createKey(Object[] values) {
+        boolean integral = true;
+        boolean floating = true;
+        for (Object value : values) {
+            integral &= value instanceof Integer || value instanceof Long
+                    || value instanceof Short || value instanceof Byte;
+            floating &= value instanceof Double || value instanceof Float;
+        }
+        if (integral) {
+            long[] longs = new long[values.length];
+            for (int i = 0; i < values.length; ++i) {
+                longs[i] = ((Number) values[i]).longValue();
+            }
+            return new LongKey(longs);
+        } else if (floating) {
+            double[] doubles = new double[values.length];
+            for (int i = 0; i < values.length; ++i) {
+                doubles[i] = ((Number) values[i]).doubleValue();
+            }
+            return new DoubleKey(doubles);
+        }
+        return new ObjectKey(values);
+    }
+
+    /**
+     * values of one sort property for every row
+     */
+    private interface SortKey {
+
+        int compare(int row1, int row2);
+
+        /**
+         * Compares value of row with value of the same property
+         */
+        int compareTo(int row, Object value);
+    }
+
+    private static class LongKey implements SortKey {
+
+        private final long[] values;
+
+        public LongKey(long[] values) {
+            this.values = values;
+        }
+
+        public int compare(int row1, int row2) {
+            return values[row1] < values[row2] ? -1 : (values[row1] == values[row2] ? 0 : 1);
+        }
+
+        public int compareTo(int row, Object value) {
+            if (value == null) {
+                return 1;
+            }
+            if (value instanceof Double || value instanceof Float) {
+                return Double.compare(values[row], ((Number) value).doubleValue());
+            }
+            long other = ((Number) value).longValue();
+            return values[row] < other ? -1 : (values[row] == other ? 0 : 1);
+        }
+    }
+
+    private static class DoubleKey implements SortKey {
+
+        private final double[] values;
+
+        public DoubleKey(double[] values) {
+            this.values = values;
+        }
+
+        public int compare(int row1, int row2) {
+            return Double.compare(values[row1], values[row2]);
+        }
+
+        public int compareTo(int row, Object value) {
+            return value == null ? 1 : Double.compare(values[row], ((Number) value).doubleValue());
+        }
+    }
+
+    private static class ObjectKey implements SortKey {
+
+        private final Object[] values;
+
+        public ObjectKey(Object[] values) {
+            this.values = values;
+        }
+
+        public int compare(int row1, int row2) {
+            return VALUE_COMPARATOR.compare(values[row1], values[row2]);
+        }
+
+        public int compareTo(int row, Object value) {
+            return VALUE_COMPARATOR.compare(values[row], value);
+        }
+    }
+}
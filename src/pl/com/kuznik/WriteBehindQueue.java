@@ -0,0 +1,339 @@
+package pl.com.kuznik;
+
+import com.vaadin.data.Container;
+import com.vaadin.data.Property;
+import java.io.Serializable;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executor;
+
+/**
+ * Queue of cell changes which are written to data source later, in batches.
+ * Repeated changes of the same cell are coalesced, so only its last value is
+ * written. Pages of PageContainerProvider using the queue show queued values
+ * before they are written.
+ * <p>
+ * Changes are written by flush(): in background when executor is set,
+ * otherwise on page change, and always when page provider is released.
+ * With executor set writer is called outside of request thread, so it has
+ * to allow that. Queue writing to container properties needs lock, usually
+ * application, which is held while batches are written in background.
+ * @author Krzysztof Kuźnik <kmkuznik at gmail.com>
+ */
+public class WriteBehindQueue implements Serializable {
+
+    /**
+     * value returned by getQueuedValue() for cells which are not queued
+     */
+    static final Object NOT_QUEUED = new Object();
+    private final Writer writer;
+    // held by background flush, null if writer does not need it
+    private final Object lock;
+    private Executor executor;
+    private Set<FlushListener> listeners;
+    // queued values by property id, mapped by item id
+    private LinkedHashMap<Object, Map<Object, Object>> pending =
+            new LinkedHashMap<Object, Map<Object, Object>>();
+    // values taken by flush in progress, visible until they are written
+    private Map<Object, Map<Object, Object>> inFlight = Collections.emptyMap();
+    private boolean flushScheduled = false;
+    // only one batch is written at a time, so batches are written in order
+    private final Object flushLock = new Object();
+
+    /**
+     * Creates queue writing changes with given writer
+     * @param writer writer of batches
+     */
+    public WriteBehindQueue(Writer writer) {
+        this(writer, null);
+    }
+
+    /**
+     * Creates queue writing changes to properties of container. Such queue
+     * can be flushed only in request thread.
+     * @param container container to be written
+     */
+    public WriteBehindQueue(Container container) {
+        this(new ContainerWriter(container), null);
+    }
+
+    /**
+     * Creates queue writing changes to properties of container, which can be
+     * flushed in background
+     * @param container container to be written
+     * @param lock lock held by request threads using container, usually
+     * application
+     */
+    public WriteBehindQueue(Container container, Object lock) {
+        this(new ContainerWriter(container), lock);
+        if (lock == null) {
+            throw new NullPointerException("Lock can't be null");
+        }
+    }
+
+    private WriteBehindQueue(Writer writer, Object lock) {
+        this.writer = writer;
+        this.lock = lock;
+    }
+
+    /**
+     * Sets executor used to write queued changes in background. Flush is
+     * scheduled whenever cells are queued and no flush is waiting yet.
+     * @param executor executor for flushing or null to flush only on page
+     * change and on explicit flush()
+     * @throws IllegalStateException if queue writes to container and was
+     * created without lock
+     */
+    public void setExecutor(Executor executor) {
+        if (executor != null && writer instanceof ContainerWriter && lock == null) {
+            throw new IllegalStateException("Queue writing to container needs lock to be flushed in background");
+        }
+        this.executor = executor;
+    }
+
+    /**
+     * Queues change of cell
+     * @param itemId id of changed row
+     * @param propertyId id of changed property
+     * @param value new value
+     */
+    public void put(Object itemId, Object propertyId, Object value) {
+        putAll(itemId, Collections.singletonMap(propertyId, value));
+    }
+
+    /**
+     * Queues changes of several cells of one row
+     * @param itemId id of changed row
+     * @param values new values by property id
+     */
+    public void putAll(Object itemId, Map<?, ?> values) {
+        if (values.isEmpty()) {
+            return;
+        }
+        synchronized (this) {
+            Map<Object, Object> row = pending.get(itemId);
+            if (row == null) {
+                row = new LinkedHashMap<Object, Object>();
+                pending.put(itemId, row);
+            }
+            row.putAll(values);
+        }
+        scheduleFlush();
+    }
+
+    /**
+     * @return number of queued cells which were not written yet
+     */
+    public synchronized int size() {
+        int size = 0;
+        for (Map<Object, Object> row : pending.values()) {
+            size += row.size();
+        }
+        for (Map<Object, Object> row : inFlight.values()) {
+            size += row.size();
+        }
+        return size;
+    }
+
+    /**
+     * @return queued value of cell or NOT_QUEUED
+     */
+    synchronized Object getQueuedValue(Object itemId, Object propertyId) {
+        Map<Object, Object> row = pending.get(itemId);
+        if (row != null && row.containsKey(propertyId)) {
+            return row.get(propertyId);
+        }
+        return getInFlightValue(itemId, propertyId);
+    }
+
+    /**
+     * @return value of cell being written or NOT_QUEUED
+     */
+    synchronized Object getInFlightValue(Object itemId, Object propertyId) {
+        Map<Object, Object> row = inFlight.get(itemId);
+        if (row != null && row.containsKey(propertyId)) {
+            return row.get(propertyId);
+        }
+        return NOT_QUEUED;
+    }
+
+    /**
+     * Writes all queued changes as single batch in calling thread. When
+     * writer fails, changes which were not queued again in the meantime stay
+     * in queue and listeners are notified about failure.
+     * @return true if changes were written
+     */
+    public boolean flush() {
+        synchronized (flushLock) {
+            Map<Object, Map<Object, Object>> batch;
+            synchronized (this) {
+                if (pending.isEmpty()) {
+                    return true;
+                }
+                batch = pending;
+                inFlight = batch;
+                pending = new LinkedHashMap<Object, Map<Object, Object>>();
+            }
+            Exception failure = null;
+            try {
+                writer.write(Collections.unmodifiableMap(batch));
+            } catch (Exception ex) {
+                failure = ex;
+            } finally {
+                synchronized (this) {
+                    if (failure != null) {
+                        requeue(batch);
+                    }
+                    inFlight = Collections.emptyMap();
+                }
+            }
+            fireFlushed(batch, failure);
+            return failure == null;
+        }
+    }
+
+    /**
+     * Writes queued changes on executor, or in calling thread when there is
+     * no executor
+     */
+    public void flushLater() {
+        if (executor == null) {
+            flush();
+        } else {
+            scheduleFlush();
+        }
+    }
+
+    private void scheduleFlush() {
+        if (executor == null) {
+            return;
+        }
+        synchronized (this) {
+            if (flushScheduled || pending.isEmpty()) {
+                return;
+            }
+            flushScheduled = true;
+        }
+        executor.execute(new Runnable() {
+
+            public void run() {
+                synchronized (WriteBehindQueue.this) {
+                    // cells queued from now on need another flush
+                    flushScheduled = false;
+                }
+                if (lock == null) {
+                    flush();
+                } else {
+                    // lock is taken before flushLock, as by request threads
+                    synchronized (lock) {
+                        flush();
+                    }
+                }
+            }
+        });
+    }
+
+    // puts back failed changes unless cells were changed again
+    private void requeue(Map<Object, Map<Object, Object>> batch) {
+        LinkedHashMap<Object, Map<Object, Object>> merged = new LinkedHashMap<Object, Map<Object, Object>>();
+        for (Map.Entry<Object, Map<Object, Object>> entry : batch.entrySet()) {
+            merged.put(entry.getKey(), new LinkedHashMap<Object, Object>(entry.getValue()));
+        }
+        for (Map.Entry<Object, Map<Object, Object>> entry : pending.entrySet()) {
+            Map<Object, Object> row = merged.get(entry.getKey());
+            if (row == null) {
+                merged.put(entry.getKey(), entry.getValue());
+            } else {
+                row.putAll(entry.getValue());
+            }
+        }
+        pending = merged;
+    }
+
+    public void addListener(FlushListener listener) {
+        if (listeners == null) {
+            listeners = new HashSet<FlushListener>();
+        }
+        listeners.add(listener);
+    }
+
+    public void removeListener(FlushListener listener) {
+        if (listeners != null) {
+            listeners.remove(listener);
+        }
+    }
+
+    private void fireFlushed(Map<Object, Map<Object, Object>> batch, Exception failure) {
+        if (listeners == null || listeners.isEmpty()) {
+            return;
+        }
+        for (Object listener : listeners.toArray()) {
+            if (failure == null) {
+                ((FlushListener) listener).flushed(batch);
+            } else {
+                ((FlushListener) listener).flushFailed(batch, failure);
+            }
+        }
+    }
+
+    /**
+     * Writer of batches of changes to data source
+     */
+    public interface Writer extends Serializable {
+
+        /**
+         * Writes batch of changes
+         * @param rows new values of cells by property id, mapped by item id
+         * @throws Exception if changes could not be written
+         */
+        public void write(Map<Object, Map<Object, Object>> rows) throws Exception;
+    }
+
+    /**
+     * Listener notified about written batches. It is called in thread which
+     * flushed the queue.
+     */
+    public interface FlushListener extends Serializable {
+
+        /**
+         * @param rows changes which were written
+         */
+        public void flushed(Map<Object, Map<Object, Object>> rows);
+
+        /**
+         * @param rows changes which were not written and are queued again
+         * @param cause exception thrown by writer
+         */
+        public void flushFailed(Map<Object, Map<Object, Object>> rows, Exception cause);
+    }
+
+    /**
+     * writer setting values of container properties
+     */
+    private static class ContainerWriter implements Writer {
+
+        private final Container container;
+
+        public ContainerWriter(Container container) {
+            this.container = container;
+        }
+
+        public void write(Map<Object, Map<Object, Object>> rows) {
+            for (Map.Entry<Object, Map<Object, Object>> row : rows.entrySet()) {
+                if (container instanceof ColumnarContainer) {
+                    ((ColumnarContainer) container).setValues(row.getKey(), row.getValue());
+                    continue;
+                }
+                for (Map.Entry<Object, Object> cell : row.getValue().entrySet()) {
+                    Property property = container.getContainerProperty(row.getKey(), cell.getKey());
+                    if (property != null) {
+                        property.setValue(cell.getValue());
+                    }
+                }
+            }
+        }
+    }
+}
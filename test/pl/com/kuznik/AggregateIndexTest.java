@@ -0,0 +1,105 @@
+package pl.com.kuznik;
+
+import com.vaadin.data.util.IndexedContainer;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Tests of AggregateIndex
+ * @author Krzysztof Kuźnik <kmkuznik at gmail.com>
+ */
+public class AggregateIndexTest {
+
+    private static final double DELTA = 1e-9;
+
+    private static IndexedContainer createContainer(Object... values) {
+        IndexedContainer container = new IndexedContainer();
+        container.addContainerProperty("v", Number.class, null);
+        for (int i = 0; i < values.length; ++i) {
+            container.addItem(i);
+            container.getContainerProperty(i, "v").setValue(values[i]);
+        }
+        return container;
+    }
+
+    @Test
+    public void totalSkipsNullValues() {
+        AggregateIndex index = new AggregateIndex(createContainer(3, null, 1.5, 7L), "v");
+        ColumnAggregate total = index.getTotal();
+        assertEquals(3, total.getCount());
+        assertEquals(11.5, total.getSum(), DELTA);
+        assertEquals(11.5 / 3, total.getAverage(), DELTA);
+        assertEquals(1.5, total.getMin(), DELTA);
+        assertEquals(7, total.getMax(), DELTA);
+    }
+
+    @Test
+    public void emptyContainerHasNoExtremes() {
+        ColumnAggregate total = new AggregateIndex(createContainer(), "v").getTotal();
+        assertEquals(0, total.getCount());
+        assertEquals(0, total.getSum(), DELTA);
+        assertTrue(Double.isNaN(total.getMin()));
+        assertTrue(Double.isNaN(total.getMax()));
+    }
+
+    @Test
+    public void aggregateOfRowsReadsOnlyGivenRows() {
+        AggregateIndex index = new AggregateIndex(createContainer(1, 2, null, 4), "v");
+        ColumnAggregate rows = index.getAggregate(new int[]{1, 2, 3, 10});
+        assertEquals(2, rows.getCount());
+        assertEquals(6, rows.getSum(), DELTA);
+        assertEquals(2, rows.getMin(), DELTA);
+        assertEquals(4, rows.getMax(), DELTA);
+    }
+
+    @Test
+    public void changedCellReplacesValue() {
+        IndexedContainer container = createContainer(1, 5, 3);
+        AggregateIndex index = new AggregateIndex(container, "v");
+        index.getTotal();
+        // removed maximum is found again among kept values
+        container.getContainerProperty(1, "v").setValue(2);
+        index.cellChanged(1, 1);
+        ColumnAggregate total = index.getTotal();
+        assertEquals(6, total.getSum(), DELTA);
+        assertEquals(3, total.getMax(), DELTA);
+        container.getContainerProperty(0, "v").setValue(null);
+        index.cellChanged(0, 0);
+        assertEquals(2, index.getTotal().getCount());
+        assertEquals(2, index.getTotal().getMin(), DELTA);
+    }
+
+    @Test
+    public void insertedAndRemovedRowsMoveValues() {
+        IndexedContainer container = createContainer(1, 2, 3);
+        AggregateIndex index = new AggregateIndex(container, "v");
+        index.getTotal();
+        container.addItemAt(1, "new");
+        container.getContainerProperty("new", "v").setValue(10);
+        index.rowAdded(1, "new");
+        assertEquals(16, index.getTotal().getSum(), DELTA);
+        assertEquals(10, index.getAggregate(new int[]{1}).getSum(), DELTA);
+        container.removeItem(0);
+        index.rowRemoved(0);
+        ColumnAggregate total = index.getTotal();
+        assertEquals(3, total.getCount());
+        assertEquals(15, total.getSum(), DELTA);
+        assertEquals(2, total.getMin(), DELTA);
+        assertEquals(10, index.getAggregate(new int[]{0}).getSum(), DELTA);
+    }
+
+    @Test
+    public void invalidatedIndexReadsContainerAgain() {
+        IndexedContainer container = createContainer(1, 2);
+        AggregateIndex index = new AggregateIndex(container, "v");
+        assertEquals(3, index.getTotal().getSum(), DELTA);
+        container.addItem(2);
+        container.getContainerProperty(2, "v").setValue(4);
+        // changes outside of known rows need container to be read again
+        index.cellChanged(5, 2);
+        assertEquals(7, index.getTotal().getSum(), DELTA);
+        container.getContainerProperty(0, "v").setValue(9);
+        index.invalidate();
+        assertEquals(15, index.getTotal().getSum(), DELTA);
+    }
+}
@@ -0,0 +1,138 @@
+package pl.com.kuznik;
+
+import com.vaadin.data.Container;
+import com.vaadin.data.Property;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Tests of ColumnarContainer
+ * @author Krzysztof Kuźnik <kmkuznik at gmail.com>
+ */
+public class ColumnarContainerTest {
+
+    private static ColumnarContainer createContainer(int rows) {
+        ColumnarContainer container = new ColumnarContainer();
+        container.addContainerProperty("id", Integer.class, null);
+        container.addContainerProperty("name", String.class, "");
+        container.addContainerProperty("score", double.class, 0.0);
+        for (int i = 0; i < rows; ++i) {
+            container.addItem(i);
+            Map<Object, Object> values = new HashMap<Object, Object>();
+            values.put("id", i);
+            values.put("name", "n" + i % 3);
+            values.put("score", i / 2.0);
+            container.setValues(i, values);
+        }
+        return container;
+    }
+
+    @Test
+    public void keepsTypedValuesBeyondInitialCapacity() {
+        ColumnarContainer container = createContainer(100);
+        assertEquals(100, container.size());
+        assertEquals(77, container.getContainerProperty(77, "id").getValue());
+        assertEquals("n2", container.getContainerProperty(77, "name").getValue());
+        assertEquals(38.5, container.getContainerProperty(77, "score").getValue());
+        assertEquals(double.class, container.getType("score"));
+        assertEquals(77, container.indexOfId(77));
+        assertNull(container.getItem(100));
+    }
+
+    @Test
+    public void keepsNullsAndDefaults() {
+        ColumnarContainer container = createContainer(3);
+        container.addContainerProperty("date", Date.class, null);
+        container.getContainerProperty(1, "id").setValue(null);
+        assertNull(container.getContainerProperty(1, "id").getValue());
+        assertEquals(2, container.getContainerProperty(2, "id").getValue());
+        assertNull(container.getContainerProperty(0, "date").getValue());
+        Object added = container.addItem();
+        assertEquals("", container.getContainerProperty(added, "name").getValue());
+        assertNull(container.getContainerProperty(added, "id").getValue());
+    }
+
+    @Test
+    public void convertsValuesFromStrings() {
+        ColumnarContainer container = createContainer(1);
+        container.getContainerProperty(0, "id").setValue("42");
+        assertEquals(42, container.getContainerProperty(0, "id").getValue());
+        Map<Object, Object> values = new HashMap<Object, Object>();
+        values.put("name", "changed");
+        values.put("id", "not a number");
+        try {
+            container.setValues(0, values);
+            fail("value should not be converted");
+        } catch (Property.ConversionException ex) {
+            // no cell of row is changed
+        }
+        assertEquals("n0", container.getContainerProperty(0, "name").getValue());
+        assertEquals(42, container.getContainerProperty(0, "id").getValue());
+    }
+
+    @Test
+    public void insertedAndRemovedRowsMoveFollowingRows() {
+        ColumnarContainer container = createContainer(5);
+        final List<RowChangeEvent> events = new ArrayList<RowChangeEvent>();
+        container.addListener(new Container.ItemSetChangeListener() {
+
+            public void containerItemSetChange(Container.ItemSetChangeEvent event) {
+                events.add((RowChangeEvent) event);
+            }
+        });
+        container.addItemAt(2, "new");
+        assertEquals(6, container.size());
+        assertEquals(2, container.indexOfId("new"));
+        assertEquals(3, container.indexOfId(2));
+        assertEquals(2, container.getContainerProperty(2, "id").getValue());
+        assertNull(container.getContainerProperty("new", "id").getValue());
+        container.removeItem(0);
+        assertEquals(1, container.indexOfId("new"));
+        assertEquals(4, container.getContainerProperty(container.getIdByIndex(4), "id").getValue());
+        assertEquals(2, events.size());
+        assertEquals(2, events.get(0).getIndex());
+        assertTrue(events.get(0).isAdded());
+        assertEquals(0, events.get(1).getIndex());
+        assertFalse(events.get(1).isAdded());
+    }
+
+    @Test
+    public void setValuesReportsRowOnce() {
+        ColumnarContainer container = createContainer(3);
+        final List<CellChangeNotifier.CellChangeEvent> events =
+                new ArrayList<CellChangeNotifier.CellChangeEvent>();
+        container.addListener(new CellChangeNotifier.CellChangeListener() {
+
+            public void cellChange(CellChangeNotifier.CellChangeEvent event) {
+                events.add(event);
+            }
+        });
+        Map<Object, Object> values = new HashMap<Object, Object>();
+        values.put("name", "x");
+        values.put("score", 7);
+        values.put("unknown", 1);
+        container.setValues(1, values);
+        assertEquals(1, events.size());
+        assertEquals(1, events.get(0).getItemId());
+        assertEquals(2, events.get(0).getPropertyIds().size());
+        assertTrue(events.get(0).getPropertyIds().containsAll(Arrays.asList("name", "score")));
+        assertEquals(7.0, container.getContainerProperty(1, "score").getValue());
+    }
+
+    @Test
+    public void sortReordersAllColumns() {
+        ColumnarContainer container = createContainer(6);
+        container.sort(new Object[]{"name", "id"}, new boolean[]{false, true});
+        List<Object> ids = new ArrayList<Object>(container.getItemIds());
+        assertEquals(Arrays.<Object>asList(2, 5, 1, 4, 0, 3), ids);
+        assertEquals(2.5, container.getContainerProperty(5, "score").getValue());
+        assertEquals(1, container.indexOfId(5));
+        assertTrue(container.getSortableContainerPropertyIds().containsAll(Arrays.asList("id", "name", "score")));
+    }
+}
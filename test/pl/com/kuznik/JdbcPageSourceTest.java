@@ -0,0 +1,160 @@
+package pl.com.kuznik;
+
+import com.vaadin.data.Container;
+import com.vaadin.data.Item;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import javax.sql.DataSource;
+import org.h2.jdbcx.JdbcDataSource;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Tests of JdbcPageSource against embedded H2 database
+ * @author Krzysztof Kuźnik <kmkuznik at gmail.com>
+ */
+public class JdbcPageSourceTest {
+
+    private static final int ROWS = 1005;
+    private ResourceCounter resources;
+    private JdbcPageSource source;
+
+    @Before
+    public void createTable() throws SQLException {
+        JdbcDataSource h2 = new JdbcDataSource();
+        h2.setURL("jdbc:h2:mem:" + getClass().getSimpleName() + System.nanoTime() + ";DB_CLOSE_DELAY=-1");
+        Connection connection = h2.getConnection();
+        Statement statement = connection.createStatement();
+        statement.execute("CREATE TABLE AUDIT(ID INT PRIMARY KEY, NAME VARCHAR(20), SCORE INT)");
+        for (int i = 0; i < ROWS; ++i) {
+            statement.execute("INSERT INTO AUDIT VALUES(" + i + ", 'n" + i + "', " + ((i * 37) % 101) + ")");
+        }
+        statement.close();
+        connection.close();
+        resources = new ResourceCounter();
+        source = new JdbcPageSource(resources.wrap(h2), "AUDIT", "ID");
+    }
+
+    @Test
+    public void readsColumnsAndCount() {
+        assertEquals(3, source.getPropertyIds().size());
+        assertEquals(Integer.class, source.getType("SCORE"));
+        assertEquals(ROWS, source.count());
+    }
+
+    @Test
+    public void fetchesRangeOfRows() {
+        Map<Object, Item> rows = source.fetch(100, 50, new Object[0], new boolean[0]);
+        assertEquals(50, rows.size());
+        assertEquals(100, rows.keySet().iterator().next());
+        assertEquals("n101", rows.get(101).getItemProperty("NAME").getValue());
+        assertEquals(5, source.fetch(1000, 50, new Object[0], new boolean[0]).size());
+    }
+
+    @Test
+    public void fetchesSortedRows() {
+        Map<Object, Item> rows = source.fetch(0, 20, new Object[]{"SCORE"}, new boolean[]{false});
+        int previous = Integer.MAX_VALUE;
+        for (Item item : rows.values()) {
+            int score = (Integer) item.getItemProperty("SCORE").getValue();
+            assertTrue(score <= previous);
+            previous = score;
+        }
+        assertEquals(100, rows.values().iterator().next().getItemProperty("SCORE").getValue());
+    }
+
+    @Test
+    public void keysetFetchesMatchOffsetFetches() {
+        Object[] sortPropertyIds = {"SCORE"};
+        boolean[] ascending = {false};
+        PageSourceContainer keyset = new PageSourceContainer(source, 50);
+        keyset.setKeysetPagination(true);
+        PageSourceContainer offset = new PageSourceContainer(source, 50);
+        keyset.sort(sortPropertyIds, ascending);
+        offset.sort(sortPropertyIds, ascending);
+        PageContainerProvider keysetPages = new PageContainerProvider(keyset, 50);
+        PageContainerProvider offsetPages = new PageContainerProvider(offset, 50);
+        assertEquals(21, keysetPages.getLastPageNumber());
+        // forward, backward from the last page and back again
+        for (int page : new int[]{1, 2, 3, 21, 20, 19, 5, 4, 6}) {
+            assertEquals(getIds(offsetPages, page), getIds(keysetPages, page));
+        }
+    }
+
+    @Test
+    public void closesStatementsAndResults() {
+        source.count();
+        source.fetch(0, 10, new Object[0], new boolean[0]);
+        source.fetch(new Object[]{50, 10}, false, 10, new Object[]{"SCORE"}, new boolean[]{true});
+        assertTrue(resources.opened > 0);
+        assertEquals(0, resources.getOpen());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsUnknownSortColumn() {
+        source.fetch(0, 10, new Object[]{"SCORE; DROP TABLE AUDIT"}, new boolean[]{true});
+    }
+
+    private static List<Object> getIds(PageContainerProvider provider, int page) {
+        Container.Indexed container = (Container.Indexed) provider.getPageContainer(page);
+        List<Object> ids = new ArrayList<Object>();
+        for (int i = 0; i < container.size(); ++i) {
+            ids.add(container.getIdByIndex(i));
+        }
+        return ids;
+    }
+
+    /**
+     * counter of JDBC objects created through wrapped data source which were
+     * not closed
+     */
+    private static class ResourceCounter {
+
+        private int opened = 0;
+        private int closed = 0;
+
+        private int getOpen() {
+            return opened - closed;
+        }
+
+        private DataSource wrap(DataSource dataSource) {
+            return (DataSource) track(dataSource, DataSource.class);
+        }
+
+        // wraps object so connections, statements and result sets it creates
+        // are counted
+        private Object track(final Object object, Class<?> type) {
+            return Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[]{type},
+                    new InvocationHandler() {
+
+                        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                            Object result;
+                            try {
+                                result = method.invoke(object, args);
+                            } catch (InvocationTargetException ex) {
+                                throw ex.getCause();
+                            }
+                            Class<?> resultType = method.getReturnType();
+                            if (method.getName().equals("close")) {
+                                ++closed;
+                            } else if (resultType == Connection.class || Statement.class.isAssignableFrom(resultType)
+                                    || resultType == ResultSet.class) {
+                                ++opened;
+                                return track(result, resultType);
+                            }
+                            return result;
+                        }
+                    });
+        }
+    }
+}
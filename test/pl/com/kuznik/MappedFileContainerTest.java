@@ -0,0 +1,126 @@
+package pl.com.kuznik;
+
+import com.vaadin.data.Item;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Tests of MappedFileContainer
+ * @author Krzysztof Kuźnik <kmkuznik at gmail.com>
+ */
+public class MappedFileContainerTest {
+
+    private File file;
+
+    @Before
+    public void createFile() throws IOException {
+        file = File.createTempFile("rows", ".dat");
+    }
+
+    @After
+    public void deleteFile() {
+        file.delete();
+    }
+
+    @Test
+    public void writtenContainerIsReadBack() throws IOException {
+        Date date = new Date(0);
+        ColumnarContainer source = new ColumnarContainer();
+        source.addContainerProperty("int", Integer.class, null);
+        source.addContainerProperty("long", long.class, 0L);
+        source.addContainerProperty("double", Double.class, null);
+        source.addContainerProperty("boolean", Boolean.class, null);
+        source.addContainerProperty("string", String.class, null);
+        source.addContainerProperty("date", Date.class, null);
+        Object[][] rows = {
+            {1, 10L, 1.5, true, "zażółć", date},
+            {null, -1L, null, null, null, null},
+            {Integer.MIN_VALUE, Long.MAX_VALUE, -0.25, false, "", date}
+        };
+        for (int i = 0; i < rows.length; ++i) {
+            source.addItem(i);
+            int column = 0;
+            for (Object propertyId : source.getContainerPropertyIds()) {
+                source.getContainerProperty(i, propertyId).setValue(rows[i][column++]);
+            }
+        }
+        MappedFileContainer.write(file, source);
+        MappedFileContainer container = new MappedFileContainer(file);
+        try {
+            assertEquals(3, container.size());
+            assertEquals(Arrays.asList("int", "long", "double", "boolean", "string", "date"),
+                    new ArrayList<Object>(container.getContainerPropertyIds()));
+            assertEquals(Long.class, container.getType("long"));
+            // unsupported types are written as strings
+            assertEquals(String.class, container.getType("date"));
+            for (int i = 0; i < rows.length; ++i) {
+                Item item = container.getItem(i);
+                assertEquals(rows[i][0], item.getItemProperty("int").getValue());
+                assertEquals(rows[i][1], item.getItemProperty("long").getValue());
+                assertEquals(rows[i][2], item.getItemProperty("double").getValue());
+                assertEquals(rows[i][3], item.getItemProperty("boolean").getValue());
+                assertEquals(rows[i][4], item.getItemProperty("string").getValue());
+                assertEquals(rows[i][5] == null ? null : date.toString(),
+                        item.getItemProperty("date").getValue());
+            }
+            assertTrue(container.getContainerProperty(0, "int").isReadOnly());
+            assertNull(container.getItem(3));
+            assertEquals(-1, container.indexOfId("0"));
+            assertEquals(2, container.getIdByIndex(2));
+        } finally {
+            container.close();
+        }
+    }
+
+    @Test
+    public void rowsAreReadAcrossSegments() throws IOException {
+        MappedFileContainer.Writer writer = new MappedFileContainer.Writer(file,
+                new String[]{"row", "text"}, new Class<?>[]{Integer.class, String.class});
+        for (int i = 0; i < 200; ++i) {
+            writer.addRow(i, getText(i));
+        }
+        writer.close();
+        // rows and index entries cross boundaries of tiny segments
+        MappedFileContainer container = new MappedFileContainer(file, 24);
+        try {
+            assertEquals(200, container.size());
+            for (int i = 199; i >= 0; i -= 7) {
+                assertEquals(i, container.getContainerProperty(i, "row").getValue());
+                assertEquals(getText(i), container.getContainerProperty(i, "text").getValue());
+            }
+            // file is opened again after close
+            container.close();
+            assertEquals(getText(5), container.getContainerProperty(5, "text").getValue());
+        } finally {
+            container.close();
+        }
+    }
+
+    private static String getText(int row) {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < row % 37; ++i) {
+            text.append((char) ('a' + (row + i) % 26));
+        }
+        return text.toString();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void writerRejectsUnsupportedType() throws IOException {
+        new MappedFileContainer.Writer(file, new String[]{"date"}, new Class<?>[]{Date.class});
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void containerIsReadOnly() throws IOException {
+        MappedFileContainer.Writer writer = new MappedFileContainer.Writer(file,
+                new String[]{"row"}, new Class<?>[]{Integer.class});
+        writer.close();
+        new MappedFileContainer(file).addItem();
+    }
+}
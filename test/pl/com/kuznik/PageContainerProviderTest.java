@@ -0,0 +1,190 @@
+package pl.com.kuznik;
+
+import com.vaadin.data.Container;
+import com.vaadin.data.Item;
+import com.vaadin.data.util.ObjectProperty;
+import com.vaadin.data.util.PropertysetItem;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Tests of PageContainerProvider
+ * @author Krzysztof Kuźnik <kmkuznik at gmail.com>
+ */
+public class PageContainerProviderTest {
+
+    @Test
+    public void revisitedPageKeepsItemsOfEvictedBlocks() {
+        CountingSource source = new CountingSource(1000);
+        PageContainerProvider provider = new PageContainerProvider(source, 10);
+        Container.Indexed page = (Container.Indexed) provider.getPageContainer(1);
+        assertEquals(5, page.getIdByIndex(5));
+        for (int number = 2; number <= 5; ++number) {
+            ((Container.Indexed) provider.getPageContainer(number)).getIdByIndex(0);
+        }
+        int fetches = source.fetches;
+        page = (Container.Indexed) provider.getPageContainer(1);
+        assertEquals(5, page.getIdByIndex(5));
+        Item item = page.getItem(5);
+        assertNotNull(item);
+        assertEquals(5, item.getItemProperty("v").getValue());
+        // page is served from cache, not fetched again
+        assertEquals(fetches, source.fetches);
+    }
+
+    @Test
+    public void evictedPageIsBuiltAgain() {
+        CountingSource source = new CountingSource(1000);
+        PageContainerProvider provider = new PageContainerProvider(source, 10);
+        provider.setPageCacheLimits(2, PageContainerProvider.DEFAULT_CACHED_BYTES);
+        for (int number = 1; number <= 5; ++number) {
+            ((Container.Indexed) provider.getPageContainer(number)).getIdByIndex(0);
+        }
+        int fetches = source.fetches;
+        Container.Indexed page = (Container.Indexed) provider.getPageContainer(1);
+        assertEquals(3, page.getIdByIndex(3));
+        assertEquals(3, page.getContainerProperty(3, "v").getValue());
+        assertEquals(fetches + 1, source.fetches);
+    }
+
+    @Test
+    public void removedRowIsReplacedByFollowingRow() {
+        ColumnarContainer data = createColumnarContainer(30);
+        PageContainerProvider provider = new PageContainerProvider(data, 10);
+        Container.Indexed page = (Container.Indexed) provider.getPageContainer(2);
+        assertEquals(getRange(10, 20), getIds(page));
+        data.removeItem(12);
+        List<Object> expected = getRange(10, 21);
+        expected.remove((Object) 12);
+        assertEquals(expected, getIds(page));
+        // row before page pulls first row of page to previous page
+        data.removeItem(0);
+        expected.remove(0);
+        expected.add(21);
+        assertEquals(expected, getIds(page));
+        assertEquals(21, page.getContainerProperty(21, "v").getValue());
+        assertEquals(3, provider.getLastPageNumber());
+    }
+
+    @Test
+    public void insertedRowPushesOutLastRow() {
+        ColumnarContainer data = createColumnarContainer(30);
+        PageContainerProvider provider = new PageContainerProvider(data, 10);
+        Container.Indexed page = (Container.Indexed) provider.getPageContainer(2);
+        getIds(page);
+        data.addItemAt(15, "new");
+        List<Object> expected = getRange(10, 19);
+        expected.add(5, "new");
+        assertEquals(expected, getIds(page));
+        data.addItemAt(0, "first");
+        expected.add(0, 9);
+        expected.remove(10);
+        assertEquals(expected, getIds(page));
+        assertEquals(4, provider.getLastPageNumber());
+    }
+
+    @Test
+    public void hiddenRowsAreSkippedOnAllPages() {
+        ColumnarContainer data = createColumnarContainer(30);
+        PageContainerProvider provider = new PageContainerProvider(data, 10);
+        provider.hideRows(Arrays.asList(3, 15));
+        assertEquals(2, provider.getHiddenRowsCount());
+        List<Object> expected = getRange(0, 11);
+        expected.remove((Object) 3);
+        assertEquals(expected, getIds((Container.Indexed) provider.getPageContainer(1)));
+        expected = getRange(11, 22);
+        expected.remove((Object) 15);
+        assertEquals(expected, getIds((Container.Indexed) provider.getPageContainer(2)));
+        assertEquals(3, provider.getLastPageNumber());
+        assertEquals(-1, provider.getPageNumberOf(15));
+        assertEquals(2, provider.getPageNumberOf(21));
+    }
+
+    @Test
+    public void hiddenRangeMovesWithRows() {
+        ColumnarContainer data = createColumnarContainer(30);
+        PageContainerProvider provider = new PageContainerProvider(data, 10);
+        provider.hideRows(10, 20);
+        assertEquals(10, provider.getHiddenRowsCount());
+        assertEquals(2, provider.getLastPageNumber());
+        assertEquals(getRange(20, 30), getIds((Container.Indexed) provider.getPageContainer(2)));
+        data.addItemAt(0, "first");
+        assertEquals(10, provider.getHiddenRowsCount());
+        assertEquals(-1, provider.getPageNumberOf(10));
+        assertEquals(2, provider.getPageNumberOf(20));
+        provider.showHiddenRows();
+        assertEquals(0, provider.getHiddenRowsCount());
+        assertEquals(4, provider.getLastPageNumber());
+        assertEquals(getRange(9, 19), getIds((Container.Indexed) provider.getPageContainer(2)));
+    }
+
+    private static ColumnarContainer createColumnarContainer(int rows) {
+        ColumnarContainer container = new ColumnarContainer();
+        container.addContainerProperty("v", Integer.class, null);
+        for (int i = 0; i < rows; ++i) {
+            container.addItem(i);
+            container.getContainerProperty(i, "v").setValue(i);
+        }
+        return container;
+    }
+
+    private static List<Object> getRange(int from, int to) {
+        List<Object> ids = new ArrayList<Object>();
+        for (int i = from; i < to; ++i) {
+            ids.add(i);
+        }
+        return ids;
+    }
+
+    private static List<Object> getIds(Container.Indexed page) {
+        List<Object> ids = new ArrayList<Object>();
+        for (int i = 0; i < page.size(); ++i) {
+            ids.add(page.getIdByIndex(i));
+        }
+        return ids;
+    }
+
+    /**
+     * source of rows with ids and values equal to their index, counting
+     * fetches
+     */
+    private static class CountingSource implements PageSource {
+
+        private final int count;
+        private int fetches = 0;
+
+        public CountingSource(int count) {
+            this.count = count;
+        }
+
+        public Collection<?> getPropertyIds() {
+            return Collections.singleton("v");
+        }
+
+        public Class<?> getType(Object propertyId) {
+            return Integer.class;
+        }
+
+        public int count() {
+            return count;
+        }
+
+        public Map<Object, Item> fetch(int offset, int limit, Object[] sortPropertyIds, boolean[] sortAscending) {
+            ++fetches;
+            Map<Object, Item> rows = new LinkedHashMap<Object, Item>();
+            for (int i = offset; i < Math.min(count, offset + limit); ++i) {
+                PropertysetItem item = new PropertysetItem();
+                item.addItemProperty("v", new ObjectProperty<Integer>(i));
+                rows.put(i, item);
+            }
+            return rows;
+        }
+    }
+}
@@ -0,0 +1,191 @@
+package pl.com.kuznik;
+
+import com.vaadin.data.Item;
+import com.vaadin.data.util.ObjectProperty;
+import com.vaadin.data.util.PropertysetItem;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Tests of PageSourceContainer
+ * @author Krzysztof Kuźnik <kmkuznik at gmail.com>
+ */
+public class PageSourceContainerTest {
+
+    private static final int ROWS = 95;
+    private static final Object[] SORT_PROPERTY_IDS = {"v"};
+    private static final boolean[] SORT_ASCENDING = {false};
+
+    @Test
+    public void followingBlocksAreSeekedByKeys() {
+        MemorySource source = new MemorySource(ROWS);
+        PageSourceContainer container = createKeysetContainer(source);
+        List<Object> ids = getIds(container, 0, ROWS);
+        assertEquals(getIds(createOffsetContainer(), 0, ROWS), ids);
+        assertEquals(0, source.offsetFetches);
+        assertEquals(10, source.keysetFetches);
+    }
+
+    @Test
+    public void lastBlockIsSeekedFromEnd() {
+        MemorySource source = new MemorySource(ROWS);
+        PageSourceContainer container = createKeysetContainer(source);
+        // last block is incomplete, preceding ones are seeked backwards
+        List<Object> ids = new ArrayList<Object>();
+        for (int i = ROWS - 1; i >= 70; --i) {
+            ids.add(0, container.getIdByIndex(i));
+        }
+        assertEquals(getIds(createOffsetContainer(), 70, ROWS), ids);
+        assertEquals(0, source.offsetFetches);
+        assertEquals(3, source.keysetFetches);
+    }
+
+    @Test
+    public void blockWithoutKnownNeighbourIsFetchedByOffset() {
+        MemorySource source = new MemorySource(ROWS);
+        PageSourceContainer container = createKeysetContainer(source);
+        assertEquals(getIds(createOffsetContainer(), 50, 60), getIds(container, 50, 60));
+        assertEquals(1, source.offsetFetches);
+        assertEquals(getIds(createOffsetContainer(), 60, 70), getIds(container, 60, 70));
+        assertEquals(1, source.offsetFetches);
+        assertEquals(1, source.keysetFetches);
+    }
+
+    @Test
+    public void sortForgetsKeys() {
+        MemorySource source = new MemorySource(ROWS);
+        PageSourceContainer container = createKeysetContainer(source);
+        getIds(container, 0, 20);
+        container.sort(new Object[]{"v"}, new boolean[]{true});
+        int keysetFetches = source.keysetFetches;
+        // keys of block 0 with previous sorting must not be used
+        container.getIdByIndex(10);
+        assertEquals(1, source.offsetFetches);
+        assertEquals(keysetFetches, source.keysetFetches);
+    }
+
+    private static PageSourceContainer createKeysetContainer(MemorySource source) {
+        PageSourceContainer container = new PageSourceContainer(source, 10);
+        container.setKeysetPagination(true);
+        container.sort(SORT_PROPERTY_IDS, SORT_ASCENDING);
+        return container;
+    }
+
+    private static PageSourceContainer createOffsetContainer() {
+        PageSourceContainer container = new PageSourceContainer(new MemorySource(ROWS), 10);
+        container.sort(SORT_PROPERTY_IDS, SORT_ASCENDING);
+        return container;
+    }
+
+    private static List<Object> getIds(PageSourceContainer container, int from, int to) {
+        List<Object> ids = new ArrayList<Object>();
+        for (int i = from; i < to; ++i) {
+            ids.add(container.getIdByIndex(i));
+        }
+        return ids;
+    }
+
+    /**
+     * source of rows kept in memory, with values repeated so that ties of
+     * sort property are resolved by ids
+     */
+    private static class MemorySource implements KeysetPageSource {
+
+        private final int count;
+        private int offsetFetches = 0;
+        private int keysetFetches = 0;
+
+        public MemorySource(int count) {
+            this.count = count;
+        }
+
+        public Collection<?> getPropertyIds() {
+            return Collections.singleton("v");
+        }
+
+        public Class<?> getType(Object propertyId) {
+            return Integer.class;
+        }
+
+        public int count() {
+            return count;
+        }
+
+        public Map<Object, Item> fetch(int offset, int limit, Object[] sortPropertyIds, boolean[] sortAscending) {
+            ++offsetFetches;
+            List<Integer> rows = getSortedRows(sortPropertyIds, sortAscending);
+            return getItems(rows.subList(Math.min(offset, count), Math.min(offset + limit, count)));
+        }
+
+        public Map<Object, Item> fetch(Object[] key, boolean forward, int limit,
+                Object[] sortPropertyIds, boolean[] sortAscending) {
+            ++keysetFetches;
+            List<Integer> rows = getSortedRows(sortPropertyIds, sortAscending);
+            Comparator<Integer> comparator = getComparator(sortPropertyIds, sortAscending);
+            int from = 0;
+            int to = count;
+            if (key != null) {
+                Integer keyRow = (Integer) key[key.length - 1];
+                assertEquals(getValue(keyRow), key[0]);
+                int position = 0;
+                while (position < count && comparator.compare(rows.get(position), keyRow) < 0) {
+                    ++position;
+                }
+                from = forward ? position + 1 : 0;
+                to = forward ? count : position;
+            }
+            if (forward) {
+                to = Math.min(to, from + limit);
+            } else {
+                from = Math.max(from, to - limit);
+            }
+            return getItems(rows.subList(Math.min(from, count), to));
+        }
+
+        private List<Integer> getSortedRows(Object[] sortPropertyIds, boolean[] sortAscending) {
+            List<Integer> rows = new ArrayList<Integer>();
+            for (int i = 0; i < count; ++i) {
+                rows.add(i);
+            }
+            Collections.sort(rows, getComparator(sortPropertyIds, sortAscending));
+            return rows;
+        }
+
+        private static Comparator<Integer> getComparator(final Object[] sortPropertyIds,
+                final boolean[] sortAscending) {
+            return new Comparator<Integer>() {
+
+                public int compare(Integer row1, Integer row2) {
+                    if (sortPropertyIds.length > 0) {
+                        int result = getValue(row1).compareTo(getValue(row2));
+                        if (result != 0) {
+                            return sortAscending[0] ? result : -result;
+                        }
+                    }
+                    return row1.compareTo(row2);
+                }
+            };
+        }
+
+        private static Integer getValue(int row) {
+            return row * 37 % 11;
+        }
+
+        private static Map<Object, Item> getItems(List<Integer> rows) {
+            Map<Object, Item> items = new LinkedHashMap<Object, Item>();
+            for (Integer row : rows) {
+                PropertysetItem item = new PropertysetItem();
+                item.addItemProperty("v", new ObjectProperty<Integer>(getValue(row)));
+                items.put(row, item);
+            }
+            return items;
+        }
+    }
+}
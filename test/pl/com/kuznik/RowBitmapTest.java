@@ -0,0 +1,161 @@
+package pl.com.kuznik;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.TreeSet;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Tests of RowBitmap
+ * @author Krzysztof Kuźnik <kmkuznik at gmail.com>
+ */
+public class RowBitmapTest {
+
+    @Test
+    public void addUnsortedOfNoIndexesAddsNothing() {
+        RowBitmap rows = new RowBitmap();
+        rows.addUnsorted(new int[0]);
+        assertTrue(rows.isEmpty());
+        rows.add(5);
+        rows.addUnsorted(new int[0]);
+        assertArrayEquals(new int[]{5}, rows.toArray());
+    }
+
+    @Test
+    public void addUnsortedSortsIndexes() {
+        RowBitmap rows = new RowBitmap();
+        rows.add(64);
+        rows.addUnsorted(new int[]{200000, 3, 63, 64, 65, 0});
+        assertArrayEquals(new int[]{0, 3, 63, 64, 65, 200000}, rows.toArray());
+        assertEquals(6, rows.size());
+    }
+
+    @Test
+    public void addUnsortedAddsLongRuns() {
+        int[] indexes = new int[100000];
+        for (int i = 0; i < indexes.length; ++i) {
+            indexes[i] = indexes.length - i;
+        }
+        RowBitmap rows = new RowBitmap();
+        rows.addUnsorted(indexes);
+        Arrays.sort(indexes);
+        assertArrayEquals(indexes, rows.toArray());
+    }
+
+    @Test
+    public void addAndRemoveKeepCardinality() {
+        RowBitmap rows = new RowBitmap();
+        assertTrue(rows.add(7));
+        assertFalse(rows.add(7));
+        assertEquals(4, rows.addRange(5, 10));
+        assertEquals(5, rows.size());
+        assertTrue(rows.remove(7));
+        assertFalse(rows.remove(7));
+        assertFalse(rows.remove(100000));
+        assertArrayEquals(new int[]{5, 6, 8, 9}, rows.toArray());
+    }
+
+    @Test
+    public void rangesAcrossChunksAreMerged() {
+        RowBitmap rows = new RowBitmap();
+        rows.addRange(65530, 65546);
+        rows.addRange(10, 20);
+        rows.add(20);
+        assertArrayEquals(new int[]{10, 21, 65530, 65546}, rows.getRanges());
+        assertEquals(27, rows.size());
+        assertEquals(11, rows.countBelow(65530));
+        assertEquals(17, rows.countBelow(65536));
+    }
+
+    @Test
+    public void selectAbsentSkipsIndexesInSet() {
+        RowBitmap rows = new RowBitmap();
+        rows.addRange(0, 3);
+        rows.add(4);
+        assertEquals(3, rows.selectAbsent(0));
+        assertEquals(5, rows.selectAbsent(1));
+        rows.addRange(0, 70000);
+        assertEquals(70000, rows.selectAbsent(0));
+    }
+
+    @Test
+    public void addComplementAddsMissingIndexes() {
+        RowBitmap other = new RowBitmap();
+        other.addRange(2, 4);
+        other.add(8);
+        other.add(20);
+        RowBitmap rows = new RowBitmap();
+        rows.addComplement(other, 10);
+        assertArrayEquals(new int[]{0, 1, 4, 5, 6, 7, 9}, rows.toArray());
+    }
+
+    @Test
+    public void removeFromAndShiftMoveIndexes() {
+        RowBitmap rows = new RowBitmap();
+        rows.addRange(10, 15);
+        rows.add(70000);
+        rows.shift(12, 1);
+        assertArrayEquals(new int[]{10, 11, 13, 14, 15, 70001}, rows.toArray());
+        rows.remove(13);
+        rows.shift(13, -1);
+        assertArrayEquals(new int[]{10, 11, 13, 14, 70000}, rows.toArray());
+        rows.removeFrom(14);
+        assertArrayEquals(new int[]{10, 11, 13}, rows.toArray());
+        assertEquals(3, rows.size());
+    }
+
+    @Test
+    public void markInAndAddWordsCopyIndexes() {
+        RowBitmap rows = new RowBitmap();
+        rows.add(0);
+        rows.addRange(60, 130);
+        long[] words = new long[3];
+        rows.markIn(words);
+        RowBitmap copy = new RowBitmap();
+        copy.addWords(words);
+        assertArrayEquals(rows.toArray(), copy.toArray());
+    }
+
+    @Test
+    public void randomOperationsMatchSortedSet() {
+        Random random = new Random(42);
+        RowBitmap rows = new RowBitmap();
+        TreeSet<Integer> expected = new TreeSet<Integer>();
+        for (int step = 0; step < 20000; ++step) {
+            // dense area makes chunks switch between arrays, bitmaps and runs
+            int index = random.nextInt(step % 2 == 0 ? 70000 : 200000);
+            switch (random.nextInt(4)) {
+                case 0:
+                    assertEquals(expected.add(index), rows.add(index));
+                    break;
+                case 1:
+                    assertEquals(expected.remove(index), rows.remove(index));
+                    break;
+                case 2:
+                    int to = index + random.nextInt(6000);
+                    int added = 0;
+                    for (int i = index; i < to; ++i) {
+                        added += expected.add(i) ? 1 : 0;
+                    }
+                    assertEquals(added, rows.addRange(index, to));
+                    break;
+                default:
+                    assertEquals(expected.headSet(index).size(), rows.countBelow(index));
+            }
+            assertEquals(expected.size(), rows.size());
+        }
+        int[] array = new int[expected.size()];
+        int i = 0;
+        for (int index : expected) {
+            array[i++] = index;
+        }
+        assertArrayEquals(array, rows.toArray());
+        int absent = 0;
+        for (int index = 0; index < 1000; ++index) {
+            if (!expected.contains(index)) {
+                assertEquals(index, rows.selectAbsent(absent++));
+            }
+        }
+    }
+}
@@ -0,0 +1,87 @@
+package pl.com.kuznik;
+
+import com.vaadin.data.util.IndexedContainer;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Tests of SearchIndex
+ * @author Krzysztof Kuźnik <kmkuznik at gmail.com>
+ */
+public class SearchIndexTest {
+
+    private static final List<String> COLUMNS = Arrays.asList("name", "city");
+
+    private static IndexedContainer createContainer(String[][] rows) {
+        IndexedContainer container = new IndexedContainer();
+        container.addContainerProperty("name", String.class, null);
+        container.addContainerProperty("city", String.class, null);
+        for (int i = 0; i < rows.length; ++i) {
+            container.addItem(i);
+            container.getContainerProperty(i, "name").setValue(rows[i][0]);
+            container.getContainerProperty(i, "city").setValue(rows[i][1]);
+        }
+        return container;
+    }
+
+    @Test
+    public void tokenizeSplitsLowerCaseWords() {
+        assertEquals(Arrays.asList("jan", "kowalski", "2nd", "ul", "długa"),
+                SearchIndex.tokenize(" Jan Kowalski, 2nd-ul. Długa"));
+        assertTrue(SearchIndex.tokenize("-- ").isEmpty());
+    }
+
+    @Test
+    public void getRowsFindsWordInsideTokens() {
+        IndexedContainer container = createContainer(new String[][]{
+                    {"Anna Nowak", "Kraków"}, {"Jan Kowalski", "Warszawa"}, {"Nowacki", null}});
+        SearchIndex index = new SearchIndex(container, COLUMNS);
+        assertArrayEquals(new int[]{0, 2}, index.getRows("nowa").toArray());
+        // narrower word is answered from tokens found for shorter one
+        assertArrayEquals(new int[]{2}, index.getRows("nowac").toArray());
+        assertArrayEquals(new int[]{0, 1, 2}, index.getRows("k").toArray());
+        assertTrue(index.getRows("gdańsk").isEmpty());
+    }
+
+    @Test
+    public void updateReplacesTokensOfRow() {
+        IndexedContainer container = createContainer(new String[][]{
+                    {"Anna", "Kraków"}, {"Jan", "Warszawa"}});
+        SearchIndex index = new SearchIndex(container, COLUMNS);
+        assertArrayEquals(new int[]{0}, index.getRows("krak").toArray());
+        container.getContainerProperty(1, "city").setValue("Kraków");
+        container.getContainerProperty(0, "city").setValue("Gdańsk");
+        index.update(1, 1);
+        index.update(0, 0);
+        assertArrayEquals(new int[]{1}, index.getRows("krak").toArray());
+        assertArrayEquals(new int[]{0}, index.getRows("gdań").toArray());
+        assertTrue(index.getRows("warsz").isEmpty());
+    }
+
+    @Test
+    public void insertedAndRemovedRowsShiftOtherRows() {
+        ColumnarContainer container = new ColumnarContainer();
+        container.addContainerProperty("name", String.class, null);
+        for (int i = 0; i < 5; ++i) {
+            container.addItem(i);
+            container.setValues(i, Collections.singletonMap("name", i % 2 == 0 ? "even" : "odd"));
+        }
+        SearchIndex index = new SearchIndex(container, Collections.singleton("name"));
+        container.addItemAt(1, "new");
+        container.setValues("new", Collections.singletonMap("name", "even new"));
+        assertTrue(index.rowAdded(1, "new"));
+        assertArrayEquals(new int[]{0, 1, 3, 5}, index.getRows("even").toArray());
+        assertArrayEquals(new int[]{2, 4}, index.getRows("odd").toArray());
+        container.removeItem(0);
+        assertTrue(index.rowRemoved(0));
+        assertArrayEquals(new int[]{0, 2, 4}, index.getRows("even").toArray());
+        assertArrayEquals(new int[]{0}, index.getRows("new").toArray());
+        // changes which do not match indexed rows need new index
+        container.removeItem(1);
+        container.removeItem(2);
+        assertFalse(index.rowRemoved(0));
+    }
+}
@@ -0,0 +1,139 @@
+package pl.com.kuznik;
+
+import com.vaadin.data.Container;
+import com.vaadin.data.Item;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ExecutorService;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Tests of SortIndex
+ * @author Krzysztof Kuźnik <kmkuznik at gmail.com>
+ */
+public class SortIndexTest {
+
+    @Test
+    public void sortsByIntegralKeyInBothDirections() {
+        ColumnarContainer container = createContainer(1000, 50, false, new Random(1));
+        assertOrder(container, new Object[]{"number"}, new boolean[]{true}, null);
+        assertOrder(container, new Object[]{"number"}, new boolean[]{false}, null);
+    }
+
+    @Test
+    public void sortsByManyKeysWithNulls() {
+        ColumnarContainer container = createContainer(2000, 20, true, new Random(2));
+        assertOrder(container, new Object[]{"text", "number"}, new boolean[]{true, false}, null);
+        assertOrder(container, new Object[]{"real", "text"}, new boolean[]{false, true}, null);
+    }
+
+    @Test
+    public void sortsOnlyRequestedPrefix() {
+        ColumnarContainer container = createContainer(10000, 1000, false, new Random(3));
+        SortIndex index = new SortIndex(container, new Object[]{"number"}, new boolean[]{true}, 0, null);
+        List<Integer> expected = sortRows(container, new Object[]{"number"}, new boolean[]{true});
+        for (int position = 0; position < 50; ++position) {
+            assertEquals((int) expected.get(position), index.getRow(position));
+        }
+        int row = expected.get(10);
+        assertEquals(10, index.getPosition(row, 100));
+        assertEquals(-1, index.getPosition(expected.get(5000), 100));
+        assertEquals(5000, index.getPosition(expected.get(5000), index.size()));
+    }
+
+    @Test
+    public void sortsLargeRangesInParallel() {
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            ColumnarContainer container = createContainer(150000, 100000, false, new Random(4));
+            assertOrder(container, new Object[]{"number"}, new boolean[]{true}, executor);
+            assertOrder(container, new Object[]{"real"}, new boolean[]{false}, executor);
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void findsBoundsOfValues() {
+        ColumnarContainer container = createContainer(3000, 100, false, new Random(5));
+        SortIndex index = new SortIndex(container, new Object[]{"number"}, new boolean[]{true}, 0, null);
+        int from = index.findPosition(10, false);
+        int to = index.findPosition(20, true);
+        int[] rows = index.getRows(from, to);
+        int matching = 0;
+        for (Object itemId : container.getItemIds()) {
+            int value = (Integer) container.getContainerProperty(itemId, "number").getValue();
+            if (value >= 10 && value <= 20) {
+                ++matching;
+            }
+        }
+        assertEquals(matching, rows.length);
+        for (int row : rows) {
+            int value = (Integer) container.getContainerProperty(container.getIdByIndex(row), "number").getValue();
+            assertTrue(value >= 10 && value <= 20);
+        }
+        assertEquals(index.size(), index.findPosition(1000, false));
+        assertEquals(0, index.findPosition(-1, true));
+    }
+
+    private static ColumnarContainer createContainer(int size, int distinct, boolean nulls, Random random) {
+        ColumnarContainer container = new ColumnarContainer();
+        container.addContainerProperty("number", Integer.class, null);
+        container.addContainerProperty("real", Double.class, null);
+        container.addContainerProperty("text", String.class, null);
+        for (int i = 0; i < size; ++i) {
+            Item item = container.addItem(i);
+            item.getItemProperty("number").setValue(random.nextInt(distinct));
+            item.getItemProperty("real").setValue(nulls && random.nextInt(10) == 0
+                    ? null : random.nextInt(distinct) / 7.0);
+            item.getItemProperty("text").setValue(nulls && random.nextInt(10) == 0
+                    ? null : "t" + random.nextInt(distinct));
+        }
+        return container;
+    }
+
+    // index has to give the same order as stable sort with nulls first
+    private static void assertOrder(Container.Indexed container, Object[] propertyIds, boolean[] ascending,
+            ExecutorService executor) {
+        SortIndex index = new SortIndex(container, propertyIds, ascending, 0, executor);
+        List<Integer> expected = sortRows(container, propertyIds, ascending);
+        int[] rows = index.getRows(0, index.size());
+        for (int position = 0; position < rows.length; ++position) {
+            assertEquals((int) expected.get(position), rows[position]);
+        }
+    }
+
+    private static List<Integer> sortRows(final Container.Indexed container, final Object[] propertyIds,
+            final boolean[] ascending) {
+        List<Integer> rows = new ArrayList<Integer>();
+        for (int i = 0; i < container.size(); ++i) {
+            rows.add(i);
+        }
+        Collections.sort(rows, new Comparator<Integer>() {
+
+            @SuppressWarnings("unchecked")
+            public int compare(Integer row1, Integer row2) {
+                for (int k = 0; k < propertyIds.length; ++k) {
+                    Comparable<Object> value1 = (Comparable<Object>) getValue(row1, propertyIds[k]);
+                    Object value2 = getValue(row2, propertyIds[k]);
+                    int result = value1 == null ? (value2 == null ? 0 : -1)
+                            : (value2 == null ? 1 : value1.compareTo(value2));
+                    if (result != 0) {
+                        return ascending[k] ? result : -result;
+                    }
+                }
+                return 0;
+            }
+
+            private Object getValue(int row, Object propertyId) {
+                return container.getContainerProperty(container.getIdByIndex(row), propertyId).getValue();
+            }
+        });
+        return rows;
+    }
+}
@@ -0,0 +1,152 @@
+package pl.com.kuznik;
+
+import com.vaadin.data.Property;
+import com.vaadin.data.util.IndexedContainer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Tests of WriteBehindQueue
+ * @author Krzysztof Kuźnik <kmkuznik at gmail.com>
+ */
+public class WriteBehindQueueTest {
+
+    @Test
+    public void repeatedChangesOfCellAreCoalesced() {
+        RecordingWriter writer = new RecordingWriter();
+        WriteBehindQueue queue = new WriteBehindQueue(writer);
+        queue.put(1, "a", "first");
+        queue.put(2, "a", "other");
+        queue.put(1, "a", "second");
+        queue.putAll(1, Collections.singletonMap("b", "b"));
+        queue.put(1, "a", "last");
+        assertEquals(3, queue.size());
+        assertEquals("last", queue.getQueuedValue(1, "a"));
+        assertTrue(queue.flush());
+        assertEquals(1, writer.batches.size());
+        Map<Object, Map<Object, Object>> batch = writer.batches.get(0);
+        assertEquals(Arrays.<Object>asList(1, 2), new ArrayList<Object>(batch.keySet()));
+        assertEquals("last", batch.get(1).get("a"));
+        assertEquals("b", batch.get(1).get("b"));
+        assertEquals(0, queue.size());
+        assertSame(WriteBehindQueue.NOT_QUEUED, queue.getQueuedValue(1, "a"));
+    }
+
+    @Test
+    public void valuesAreVisibleWhileBatchIsWritten() {
+        final WriteBehindQueue[] queue = new WriteBehindQueue[1];
+        final List<Object> seen = new ArrayList<Object>();
+        queue[0] = new WriteBehindQueue(new WriteBehindQueue.Writer() {
+
+            public void write(Map<Object, Map<Object, Object>> rows) {
+                seen.add(queue[0].getQueuedValue(1, "a"));
+                seen.add(queue[0].getInFlightValue(1, "a"));
+            }
+        });
+        queue[0].put(1, "a", "value");
+        queue[0].flush();
+        assertEquals(Arrays.<Object>asList("value", "value"), seen);
+    }
+
+    @Test
+    public void failedChangesAreQueuedAgain() {
+        final WriteBehindQueue[] queue = new WriteBehindQueue[1];
+        final RecordingWriter recorder = new RecordingWriter();
+        final int[] calls = {0};
+        queue[0] = new WriteBehindQueue(new WriteBehindQueue.Writer() {
+
+            public void write(Map<Object, Map<Object, Object>> rows) throws Exception {
+                if (++calls[0] == 1) {
+                    // cell changed again while batch is written
+                    queue[0].put(1, "b", "newer");
+                    throw new Exception("unavailable");
+                }
+                recorder.write(rows);
+            }
+        });
+        final List<Exception> failures = new ArrayList<Exception>();
+        queue[0].addListener(new WriteBehindQueue.FlushListener() {
+
+            public void flushed(Map<Object, Map<Object, Object>> rows) {
+            }
+
+            public void flushFailed(Map<Object, Map<Object, Object>> rows, Exception cause) {
+                failures.add(cause);
+            }
+        });
+        queue[0].put(1, "a", "a");
+        queue[0].put(1, "b", "older");
+        assertFalse(queue[0].flush());
+        assertEquals(1, failures.size());
+        assertEquals(2, queue[0].size());
+        assertEquals("newer", queue[0].getQueuedValue(1, "b"));
+        assertTrue(queue[0].flush());
+        Map<Object, Object> row = recorder.batches.get(0).get(1);
+        assertEquals("a", row.get("a"));
+        assertEquals("newer", row.get("b"));
+        assertEquals(0, queue[0].size());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void containerQueueWithoutLockIsNotFlushedInBackground() {
+        new WriteBehindQueue(new IndexedContainer()).setExecutor(Executors.newSingleThreadExecutor());
+    }
+
+    @Test(timeout = 10000)
+    public void backgroundFlushHoldsLockOfContainer() throws InterruptedException {
+        final Object lock = new Object();
+        final IndexedContainer container = new IndexedContainer();
+        container.addContainerProperty("a", String.class, null);
+        container.addItem(1);
+        final List<Boolean> locked = Collections.synchronizedList(new ArrayList<Boolean>());
+        container.addListener(new Property.ValueChangeListener() {
+
+            public void valueChange(Property.ValueChangeEvent event) {
+                locked.add(Thread.holdsLock(lock));
+            }
+        });
+        WriteBehindQueue queue = new WriteBehindQueue(container, lock);
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        queue.setExecutor(executor);
+        synchronized (lock) {
+            queue.put(1, "a", "background");
+            // background flush waits for lock, request thread flushes itself
+            // without deadlock
+            queue.put(1, "a", "request");
+            assertTrue(queue.flush());
+            assertEquals("request", container.getContainerProperty(1, "a").getValue());
+        }
+        queue.put(1, "a", "later");
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(5, TimeUnit.SECONDS));
+        assertEquals("later", container.getContainerProperty(1, "a").getValue());
+        assertEquals(Arrays.asList(true, true), locked);
+    }
+
+    /**
+     * writer remembering copies of written batches
+     */
+    private static class RecordingWriter implements WriteBehindQueue.Writer {
+
+        private final List<Map<Object, Map<Object, Object>>> batches =
+                new ArrayList<Map<Object, Map<Object, Object>>>();
+
+        public void write(Map<Object, Map<Object, Object>> rows) {
+            Map<Object, Map<Object, Object>> copy = new LinkedHashMap<Object, Map<Object, Object>>();
+            for (Map.Entry<Object, Map<Object, Object>> row : rows.entrySet()) {
+                copy.put(row.getKey(), new HashMap<Object, Object>(row.getValue()));
+            }
+            batches.add(copy);
+        }
+    }
+}